@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.benchmark;
+
+import cz.jirutka.spring.http.client.cache.internal.CacheControl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares parsing of the <tt>Cache-Control</tt> header by the hand-written
+ * {@link CacheControl#parse(String) parser}, the memoized {@link
+ * CacheControl#valueOf(String)} and the former regular expression.
+ *
+ * <p>Run it with the GC profiler (<tt>-prof gc</tt>) to see the allocation
+ * rate as well.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheControlBenchmark {
+
+    // the pattern used by CacheControl before it was replaced by the parser
+    static final Pattern LEGACY_PATTERN
+            = Pattern.compile("\\s*([\\w\\-]+)\\s*(=)?\\s*(\\-?\\d+|\\\"([^\"\\\\]*(\\\\.[^\"\\\\]*)*)+\\\")?\\s*");
+
+    @Param({
+        "max-age=60",
+        "public, max-age=3600, s-maxage=600, must-revalidate",
+        "private, no-cache=\"Set-Cookie\", stale-while-revalidate=30, stale-if-error=86400"
+    })
+    String header;
+
+
+    @Benchmark
+    public void legacyRegex(Blackhole blackhole) {
+        Matcher matcher = LEGACY_PATTERN.matcher(header);
+        while (matcher.find()) {
+            blackhole.consume(matcher.group(1).toLowerCase());
+            blackhole.consume(matcher.group(3));
+        }
+    }
+
+    @Benchmark
+    public CacheControl parse() {
+        return CacheControl.parse(header);
+    }
+
+    @Benchmark
+    public CacheControl valueOf() {
+        return CacheControl.valueOf(header);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.benchmark;
+
+import cz.jirutka.spring.http.client.cache.ConcurrentLruCache;
+import cz.jirutka.spring.http.client.cache.SoftReferenceConcurrentLruCache;
+import cz.jirutka.spring.http.client.cache.SoftReferenceSynchronizedLruCache;
+import cz.jirutka.spring.http.client.cache.SynchronizedLruCache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.cache.Cache;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures throughput of cache hits of the in-memory {@link Cache}
+ * implementations with increasing number of threads.
+ *
+ * <p>Run {@link #main(String[])} to measure scaling from 1 to 32 threads,
+ * or run it via JMH with the <tt>-t</tt> option.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheHitBenchmark {
+
+    static final int CAPACITY = 1024;
+
+    /** Number of pre-generated keys, must be a power of two. */
+    static final int KEYS_COUNT = 16 * 1024;
+    static final int KEYS_MASK = KEYS_COUNT - 1;
+
+    @Param({"synchronized", "softSynchronized", "concurrent", "softConcurrent"})
+    String cacheType;
+
+    Cache cache;
+
+    String[] keys;
+
+
+    @Setup
+    public void setup() {
+        cache = createCache(cacheType, CAPACITY);
+
+        // all the keys fit into the cache, so every get is a hit
+        keys = new String[KEYS_COUNT];
+        Random random = new Random(42);
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys[i] = "GET:http://example.org/resource/" + random.nextInt(CAPACITY);
+        }
+        for (String key : keys) {
+            cache.put(key, "value");
+        }
+    }
+
+    @Benchmark
+    public Object get(ThreadState state) {
+        return cache.get(keys[state.next() & KEYS_MASK]);
+    }
+
+
+    static Cache createCache(String type, int capacity) {
+        switch (type) {
+            case "synchronized":
+                return new SynchronizedLruCache("benchmark", capacity);
+            case "softSynchronized":
+                return new SoftReferenceSynchronizedLruCache("benchmark", capacity);
+            case "concurrent":
+                return new ConcurrentLruCache("benchmark", capacity);
+            case "softConcurrent":
+                return new SoftReferenceConcurrentLruCache("benchmark", capacity);
+            default:
+                throw new IllegalArgumentException("Unknown cache type: " + type);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{ 1, 2, 4, 8, 16, 32 }) {
+            Options opts = new OptionsBuilder()
+                    .include(CacheHitBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(opts).run();
+        }
+    }
+
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private int index = new Random().nextInt();
+
+        int next() {
+            return index++;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.benchmark;
+
+import cz.jirutka.spring.http.client.cache.CachingHttpRequestInterceptor;
+import cz.jirutka.spring.http.client.cache.CachingHttpRequestInterceptorBuilder;
+import cz.jirutka.spring.http.client.cache.internal.InMemoryClientHttpResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the whole {@link CachingHttpRequestInterceptor#intercept(HttpRequest,
+ * byte[], ClientHttpRequestExecution) intercept} path, including reading the
+ * response body, with a stub {@link ClientHttpRequestExecution} instead of
+ * a real HTTP client.
+ *
+ * <ul>
+ *   <li><tt>hit</tt> – requests for responses that are always in the cache,</li>
+ *   <li><tt>miss</tt> – requests that (almost) never hit the cache, so the
+ *       response is fetched from the stub origin, read, stored in the cache
+ *       and another one is evicted.</li>
+ * </ul>
+ *
+ * <p>Run it with the GC profiler (<tt>-prof gc</tt>) to see the allocation
+ * rate as well.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    static final int CAPACITY = 1024;
+
+    /** Number of pre-generated requests, must be a power of two. */
+    static final int HIT_KEYS_COUNT = 1024;
+    static final int MISS_KEYS_COUNT = 64 * 1024;
+
+    static final byte[] EMPTY_BODY = new byte[0];
+
+    @Param({"2048"})
+    int bodySize;
+
+    CachingHttpRequestInterceptor interceptor;
+
+    StubExecution execution;
+
+    HttpRequest[] hitRequests;
+
+    HttpRequest[] missRequests;
+
+
+    @Setup
+    public void setup() throws IOException {
+        interceptor = new CachingHttpRequestInterceptorBuilder()
+                .inMemoryCache()
+                    .capacity(CAPACITY)
+                    .build();
+        execution = new StubExecution(bodySize);
+
+        hitRequests = new HttpRequest[HIT_KEYS_COUNT];
+        for (int i = 0; i < HIT_KEYS_COUNT; i++) {
+            hitRequests[i] = new StubRequest(URI.create("http://example.org/hit/" + i));
+            interceptor.intercept(hitRequests[i], EMPTY_BODY, execution).close();
+        }
+        // many more keys than the capacity, so the LRU cache keeps evicting them
+        missRequests = new HttpRequest[MISS_KEYS_COUNT];
+        for (int i = 0; i < MISS_KEYS_COUNT; i++) {
+            missRequests[i] = new StubRequest(URI.create("http://example.org/miss/" + i));
+        }
+    }
+
+    @Benchmark
+    public int hit(ThreadState state) throws IOException {
+        HttpRequest request = hitRequests[state.next() & (HIT_KEYS_COUNT - 1)];
+        return state.consume(interceptor.intercept(request, EMPTY_BODY, execution));
+    }
+
+    @Benchmark
+    public int miss(ThreadState state) throws IOException {
+        HttpRequest request = missRequests[state.next() & (MISS_KEYS_COUNT - 1)];
+        return state.consume(interceptor.intercept(request, EMPTY_BODY, execution));
+    }
+
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private final byte[] buffer = new byte[4096];
+
+        private int index = new Random().nextInt();
+
+        int next() {
+            return index++;
+        }
+
+        /**
+         * Reads the whole body of the response, closes it and returns the
+         * number of bytes read.
+         */
+        int consume(ClientHttpResponse response) throws IOException {
+            int total = 0;
+            try {
+                InputStream body = response.getBody();
+                for (int n; (n = body.read(buffer)) != -1; ) {
+                    total += n;
+                }
+            } finally {
+                response.close();
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Responds immediately with a cacheable response of the given size.
+     */
+    static class StubExecution implements ClientHttpRequestExecution {
+
+        private final byte[] body;
+
+        private final long date = System.currentTimeMillis();
+
+        StubExecution(int bodySize) {
+            this.body = new byte[bodySize];
+            new Random(42).nextBytes(body);
+        }
+
+        public ClientHttpResponse execute(HttpRequest request, byte[] requestBody) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setDate(date);
+            headers.setCacheControl("public, max-age=3600");
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            headers.setContentLength(body.length);
+
+            return new InMemoryClientHttpResponse(body, HttpStatus.OK, headers);
+        }
+    }
+
+    static class StubRequest implements HttpRequest {
+
+        private final URI uri;
+
+        private final HttpHeaders headers = new HttpHeaders();
+
+        StubRequest(URI uri) {
+            this.uri = uri;
+        }
+
+        public HttpMethod getMethod() {
+            return HttpMethod.GET;
+        }
+
+        public URI getURI() {
+            return uri;
+        }
+
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+}
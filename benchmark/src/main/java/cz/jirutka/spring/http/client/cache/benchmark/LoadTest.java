@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.benchmark;
+
+import cz.jirutka.spring.http.client.cache.CacheStatistics;
+import cz.jirutka.spring.http.client.cache.CachingHttpRequestInterceptor;
+import cz.jirutka.spring.http.client.cache.CachingHttpRequestInterceptorBuilder;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An end-to-end load test of a {@link RestTemplate} with and without the
+ * {@link CachingHttpRequestInterceptor}, against a local {@link
+ * OriginServer}. Each of N threads sends requests for keys with the {@link
+ * ZipfGenerator Zipf distribution} as fast as possible. It reports the
+ * throughput, latency percentiles, hit ratio and the number of requests
+ * received by the origin, with the cache off and on.
+ *
+ * <p>It's meant to validate the cache settings (e.g. capacity) for a
+ * particular workload, not to compare absolute numbers between machines.
+ * Run it with <tt>mvn compile exec:java -P loadtest [-Dloadtest.threads=16 ...]</tt>.</p>
+ *
+ * <p>System properties (defaults in parentheses):</p>
+ * <ul>
+ *   <li><tt>loadtest.threads</tt> – number of client threads (8),</li>
+ *   <li><tt>loadtest.duration</tt> – measured seconds of each run (30),</li>
+ *   <li><tt>loadtest.warmup</tt> – seconds of warmup before each run (5),</li>
+ *   <li><tt>loadtest.keys</tt> – number of distinct resources (10000),</li>
+ *   <li><tt>loadtest.zipf</tt> – exponent of the Zipf distribution (0.99),</li>
+ *   <li><tt>loadtest.payload</tt> – response body size in bytes (4096),</li>
+ *   <li><tt>loadtest.cacheControl</tt> – <tt>Cache-Control</tt> of the
+ *       responses (<tt>public, max-age=60</tt>),</li>
+ *   <li><tt>loadtest.latency</tt> – latency of the origin in milliseconds (5),</li>
+ *   <li><tt>loadtest.capacity</tt> – capacity of the in-memory cache (1024),</li>
+ *   <li><tt>loadtest.maxBytes</tt> – max. total size of the in-memory cache
+ *       in bytes, 0 for unlimited (0),</li>
+ *   <li><tt>loadtest.concurrent</tt> – whether to use the concurrent LRU
+ *       cache (true).</li>
+ * </ul>
+ */
+public class LoadTest {
+
+    static final int THREADS = Integer.getInteger("loadtest.threads", 8);
+    static final int DURATION = Integer.getInteger("loadtest.duration", 30);
+    static final int WARMUP = Integer.getInteger("loadtest.warmup", 5);
+    static final int KEYS = Integer.getInteger("loadtest.keys", 10000);
+    static final double ZIPF = Double.parseDouble(System.getProperty("loadtest.zipf", "0.99"));
+    static final int PAYLOAD = Integer.getInteger("loadtest.payload", 4096);
+    static final String CACHE_CONTROL = System.getProperty("loadtest.cacheControl", "public, max-age=60");
+    static final int LATENCY = Integer.getInteger("loadtest.latency", 5);
+    static final int CAPACITY = Integer.getInteger("loadtest.capacity", 1024);
+    static final long MAX_BYTES = Long.getLong("loadtest.maxBytes", 0);
+    static final boolean CONCURRENT = Boolean.parseBoolean(System.getProperty("loadtest.concurrent", "true"));
+
+
+    public static void main(String[] args) throws Exception {
+        // HttpURLConnection keeps only 5 idle connections per host by default
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(THREADS));
+        }
+        System.out.printf("threads=%d, duration=%ds, keys=%d, zipf=%.2f, payload=%dB, cacheControl=\"%s\", "
+                + "latency=%dms, capacity=%d, maxBytes=%d, concurrent=%b%n",
+                THREADS, DURATION, KEYS, ZIPF, PAYLOAD, CACHE_CONTROL, LATENCY, CAPACITY, MAX_BYTES, CONCURRENT);
+
+        try (OriginServer origin = new OriginServer(PAYLOAD, CACHE_CONTROL, LATENCY)) {
+            URI[] uris = new URI[KEYS];
+            for (int i = 0; i < KEYS; i++) {
+                uris[i] = URI.create(origin.getBaseUri() + i);
+            }
+            ZipfGenerator zipf = new ZipfGenerator(KEYS, ZIPF);
+
+            run("cache off", new RestTemplate(), null, origin, uris, zipf);
+
+            CachingHttpRequestInterceptor interceptor = new CachingHttpRequestInterceptorBuilder()
+                    .maxResponseSize(Math.max(PAYLOAD + 1, 128 * 1024))
+                    .inMemoryCache()
+                        .capacity(CAPACITY)
+                        .maxBytes(MAX_BYTES)
+                        .concurrent(CONCURRENT)
+                        .build();
+            RestTemplate restTemplate = new RestTemplate();
+            restTemplate.getInterceptors().add(interceptor);
+
+            run("cache on", restTemplate, interceptor, origin, uris, zipf);
+        }
+    }
+
+
+    static void run(String name, RestTemplate restTemplate, CachingHttpRequestInterceptor interceptor,
+            OriginServer origin, URI[] uris, ZipfGenerator zipf) throws Exception {
+
+        execute(restTemplate, uris, zipf, WARMUP);
+
+        long originBefore = origin.getRequestCount();
+        long notModifiedBefore = origin.getNotModifiedCount();
+        CacheStatistics statsBefore = interceptor != null ? interceptor.getStatistics() : null;
+        long start = System.nanoTime();
+
+        List<Recorder> recorders = execute(restTemplate, uris, zipf, DURATION);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long requests = 0, errors = 0;
+        for (Recorder recorder : recorders) {
+            requests += recorder.size;
+            errors += recorder.errors;
+        }
+        long[] latencies = new long[(int) requests];
+        int offset = 0;
+        for (Recorder recorder : recorders) {
+            System.arraycopy(recorder.latencies, 0, latencies, offset, recorder.size);
+            offset += recorder.size;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("%n== %s ==%n", name);
+        System.out.printf("requests:        %d (%d errors)%n", requests, errors);
+        System.out.printf("throughput:      %.1f req/s%n", requests / seconds);
+        System.out.printf("latency p50:     %.3f ms%n", percentile(latencies, 0.5));
+        System.out.printf("latency p99:     %.3f ms%n", percentile(latencies, 0.99));
+        System.out.printf("latency p999:    %.3f ms%n", percentile(latencies, 0.999));
+        System.out.printf("origin requests: %d (%d not modified)%n",
+                origin.getRequestCount() - originBefore, origin.getNotModifiedCount() - notModifiedBefore);
+
+        if (interceptor != null) {
+            CacheStatistics stats = interceptor.getStatistics();
+            long hits = stats.getHitCount() + stats.getStaleHitCount()
+                    - statsBefore.getHitCount() - statsBefore.getStaleHitCount();
+            long misses = stats.getMissCount() - statsBefore.getMissCount();
+
+            System.out.printf("hit ratio:       %.2f %% (%d hits, %d misses)%n",
+                    hits + misses > 0 ? 100.0 * hits / (hits + misses) : Double.NaN, hits, misses);
+            System.out.printf("evictions:       %d%n", stats.getEvictionCount() - statsBefore.getEvictionCount());
+        }
+    }
+
+    /**
+     * Sends requests from {@link #THREADS} threads for the given number of
+     * seconds.
+     */
+    static List<Recorder> execute(final RestTemplate restTemplate, final URI[] uris, final ZipfGenerator zipf,
+            int seconds) throws Exception {
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch startSignal = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Recorder>> futures = new ArrayList<>(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(new Callable<Recorder>() {
+                    public Recorder call() throws InterruptedException {
+                        Recorder recorder = new Recorder();
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        startSignal.await();
+
+                        long now;
+                        while ((now = System.nanoTime()) < deadline) {
+                            URI uri = uris[zipf.next(random)];
+                            try {
+                                restTemplate.getForObject(uri, byte[].class);
+                                recorder.record(System.nanoTime() - now);
+                            } catch (RuntimeException ex) {
+                                recorder.errors++;
+                            }
+                        }
+                        return recorder;
+                    }
+                }));
+            }
+            startSignal.countDown();
+
+            List<Recorder> recorders = new ArrayList<>(THREADS);
+            for (Future<Recorder> future : futures) {
+                recorders.add(future.get());
+            }
+            return recorders;
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+
+    /**
+     * Latencies recorded by a single thread.
+     */
+    static class Recorder {
+
+        long[] latencies = new long[64 * 1024];
+        int size;
+        long errors;
+
+        void record(long nanos) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = nanos;
+        }
+    }
+}
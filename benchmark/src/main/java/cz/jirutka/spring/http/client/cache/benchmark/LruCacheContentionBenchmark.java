@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.benchmark;
+
+import cz.jirutka.spring.http.client.cache.SoftReferenceSynchronizedLruCache;
+import cz.jirutka.spring.http.client.cache.SynchronizedLruCache;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cache.Cache;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lock-based in-memory caches under contention of concurrent
+ * readers and writers; three threads read and one thread writes (and
+ * evicts), all over the same key space that is twice as big as the cache.
+ *
+ * @see CacheHitBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LruCacheContentionBenchmark {
+
+    static final int CAPACITY = 1024;
+
+    /** Number of pre-generated keys, must be a power of two. */
+    static final int KEYS_COUNT = 2 * CAPACITY;
+    static final int KEYS_MASK = KEYS_COUNT - 1;
+
+    @Param({"synchronized", "softSynchronized"})
+    String cacheType;
+
+    Cache cache;
+
+    String[] keys;
+
+
+    @Setup
+    public void setup() {
+        cache = CacheHitBenchmark.createCache(cacheType, CAPACITY);
+
+        keys = new String[KEYS_COUNT];
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys[i] = "GET:http://example.org/resource/" + i;
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.put(keys[i], "value");
+        }
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Object get(CacheHitBenchmark.ThreadState state) {
+        return cache.get(keys[state.next() & KEYS_MASK]);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void put(CacheHitBenchmark.ThreadState state) {
+        cache.put(keys[state.next() & KEYS_MASK], "value");
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local origin server for the {@link LoadTest}, based on the JDK's {@link
+ * HttpServer}. It responds to <tt>GET /resource/{key}</tt> with a payload of
+ * the configured size, <tt>Cache-Control</tt> and a strong <tt>ETag</tt>,
+ * after the configured latency. Requests with a matching
+ * <tt>If-None-Match</tt> get <tt>304 Not Modified</tt>.
+ */
+public class OriginServer implements Closeable {
+
+    static final String PATH = "/resource/";
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final byte[] payload;
+
+    private final String cacheControl;
+
+    private final long latencyMillis;
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong notModifiedCount = new AtomicLong();
+
+
+    /**
+     * @param payloadSize The size of the response bodies in bytes.
+     * @param cacheControl Value of the <tt>Cache-Control</tt> header, or
+     *                     {@code null} to not send it.
+     * @param latencyMillis Artificial latency of each response.
+     */
+    public OriginServer(int payloadSize, String cacheControl, long latencyMillis) throws IOException {
+        this.payload = new byte[payloadSize];
+        this.cacheControl = cacheControl;
+        this.latencyMillis = latencyMillis;
+
+        new Random(42).nextBytes(payload);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext(PATH, new ResourceHandler());
+        server.setExecutor(executor);
+        server.start();
+    }
+
+
+    /**
+     * Returns the base URI of the resources; append the key to it.
+     */
+    public String getBaseUri() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * Returns the number of requests received, including conditional ones.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests responded with <tt>304 Not Modified</tt>.
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    private class ResourceHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+            try {
+                if (latencyMillis > 0) {
+                    TimeUnit.MILLISECONDS.sleep(latencyMillis);
+                }
+                String key = exchange.getRequestURI().getPath().substring(PATH.length());
+                String eTag = '"' + key + "-v1\"";
+
+                exchange.getResponseHeaders().set("ETag", eTag);
+                if (cacheControl != null) {
+                    exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+                }
+                if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModifiedCount.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                // 0 would mean chunked encoding for the HttpServer
+                exchange.sendResponseHeaders(200, payload.length > 0 ? payload.length : -1);
+
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(payload);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
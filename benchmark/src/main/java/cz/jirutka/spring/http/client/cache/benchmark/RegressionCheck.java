@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+/**
+ * Runs the benchmarks with the GC profiler and compares their results with
+ * the baseline stored in a properties file. It exits with status 1 when any
+ * score, or allocation rate per operation, regressed by more than the
+ * tolerance. This is used by the <tt>regression</tt> Maven profile.
+ *
+ * <p>The baseline is specific to the machine where it has been recorded, so
+ * record it (<tt>-Dregression.update=true</tt>) on the same machine
+ * before making changes.</p>
+ *
+ * <p>System properties:</p>
+ * <ul>
+ *   <li><tt>regression.include</tt> – regexp of the benchmarks to run
+ *       (default is all),</li>
+ *   <li><tt>regression.baseline</tt> – path of the baseline file (default
+ *       is <tt>baseline.properties</tt>),</li>
+ *   <li><tt>regression.tolerance</tt> – allowed relative regression (default
+ *       is 0.1, i.e. 10 %),</li>
+ *   <li><tt>regression.update</tt> – whether to store the results as a new
+ *       baseline instead of checking them (default is <tt>false</tt>).</li>
+ * </ul>
+ */
+public class RegressionCheck {
+
+    static final String ALLOC_RATE_NORM = "gc.alloc.rate.norm";
+
+    /**
+     * Allocations of a few bytes per operation differ between runs due to
+     * JIT and TLAB noise.
+     */
+    static final double ALLOC_SLACK_BYTES = 16;
+
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = System.getProperty("regression.include", ".*");
+        File baselineFile = new File(System.getProperty("regression.baseline", "baseline.properties"));
+        double tolerance = Double.parseDouble(System.getProperty("regression.tolerance", "0.1"));
+        boolean update = Boolean.getBoolean("regression.update");
+
+        if (!update && !baselineFile.exists()) {
+            fail("Baseline " + baselineFile + " does not exist, record it with -Dregression.update=true");
+        }
+
+        Options opts = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(opts).run();
+
+        if (update) {
+            storeBaseline(baselineFile, toProperties(results));
+            System.out.println("Baseline stored in " + baselineFile);
+            return;
+        }
+
+        Properties baseline = loadBaseline(baselineFile);
+        List<String> regressions = new ArrayList<>();
+
+        for (Entry<Object, Object> entry : toProperties(results).entrySet()) {
+            String key = (String) entry.getKey();
+            String expected = baseline.getProperty(key);
+
+            if (expected == null) {
+                System.out.println("No baseline for " + key + ", skipping");
+                continue;
+            }
+            double actual = Double.parseDouble((String) entry.getValue());
+            double base = Double.parseDouble(expected);
+
+            if (isRegression(key, base, actual, tolerance)) {
+                regressions.add(String.format("%s: %.3f (baseline %.3f)", key, actual, base));
+            }
+        }
+
+        if (!regressions.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Performance regressed past the baseline:");
+            for (String line : regressions) {
+                sb.append("\n  ").append(line);
+            }
+            fail(sb.toString());
+        }
+        System.out.println("No regressions found");
+    }
+
+
+    /**
+     * Converts the results into properties <tt>benchmark[params].mode</tt>
+     * with the primary score (e.g. <tt>thrpt</tt>, <tt>avgt</tt>) and
+     * <tt>benchmark[params].alloc</tt> with the allocated bytes per
+     * operation.
+     */
+    static Properties toProperties(Collection<RunResult> results) {
+        Properties props = new Properties();
+
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            String id = benchmarkId(params);
+
+            props.setProperty(id + "." + params.getMode().shortLabel(),
+                    String.valueOf(result.getPrimaryResult().getScore()));
+
+            for (Entry<String, Result> secondary : result.getSecondaryResults().entrySet()) {
+                if (secondary.getKey().endsWith(ALLOC_RATE_NORM)) {
+                    props.setProperty(id + ".alloc", String.valueOf(secondary.getValue().getScore()));
+                }
+            }
+        }
+        return props;
+    }
+
+    static String benchmarkId(BenchmarkParams params) {
+        String name = params.getBenchmark();
+        StringBuilder sb = new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1));
+
+        if (!params.getParamsKeys().isEmpty()) {
+            sb.append('[');
+            for (String key : params.getParamsKeys()) {
+                if (sb.charAt(sb.length() - 1) != '[') {
+                    sb.append(',');
+                }
+                sb.append(key).append('=').append(params.getParam(key));
+            }
+            sb.append(']');
+        }
+        return sb.toString();
+    }
+
+    static boolean isRegression(String key, double base, double actual, double tolerance) {
+        if (key.endsWith(".alloc")) {
+            return actual > base * (1 + tolerance) + ALLOC_SLACK_BYTES;
+        }
+        // higher is better only for throughput
+        return key.endsWith("." + Mode.Throughput.shortLabel())
+                ? actual < base * (1 - tolerance)
+                : actual > base * (1 + tolerance);
+    }
+
+    private static Properties loadBaseline(File file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+        return props;
+    }
+
+    private static void storeBaseline(File file, Properties props) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, "JMH baseline, see RegressionCheck");
+        }
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+    }
+}
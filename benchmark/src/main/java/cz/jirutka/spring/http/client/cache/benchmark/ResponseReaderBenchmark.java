@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.benchmark;
+
+import cz.jirutka.spring.http.client.cache.internal.InMemoryClientHttpResponse;
+import cz.jirutka.spring.http.client.cache.internal.SizeLimitedHttpResponseReader;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures copying of response bodies into memory: reading a response by the
+ * {@link SizeLimitedHttpResponseReader}, with and without
+ * <tt>Content-Length</tt>, and {@link InMemoryClientHttpResponse#deepCopy()}.
+ *
+ * <p>Run it with the GC profiler (<tt>-prof gc</tt>) to see the allocation
+ * rate as well; ideally it's just the body size per operation.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseReaderBenchmark {
+
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    @Param({"256", "16384", "131072"})
+    int bodySize;
+
+    SizeLimitedHttpResponseReader reader;
+
+    InMemoryClientHttpResponse withLength;
+
+    InMemoryClientHttpResponse withoutLength;
+
+
+    @Setup
+    public void setup() {
+        reader = new SizeLimitedHttpResponseReader(MAX_BODY_SIZE);
+
+        byte[] body = new byte[bodySize];
+        new Random(42).nextBytes(body);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl("max-age=60");
+        withoutLength = new InMemoryClientHttpResponse(body, HttpStatus.OK, headers);
+
+        headers = new HttpHeaders();
+        headers.setCacheControl("max-age=60");
+        headers.setContentLength(bodySize);
+        withLength = new InMemoryClientHttpResponse(body, HttpStatus.OK, headers);
+    }
+
+    @Benchmark
+    public InMemoryClientHttpResponse readWithContentLength() throws IOException {
+        return reader.readResponse(withLength);
+    }
+
+    @Benchmark
+    public InMemoryClientHttpResponse readWithoutContentLength() throws IOException {
+        return reader.readResponse(withoutLength);
+    }
+
+    @Benchmark
+    public InMemoryClientHttpResponse deepCopy() {
+        return withLength.deepCopy();
+    }
+}
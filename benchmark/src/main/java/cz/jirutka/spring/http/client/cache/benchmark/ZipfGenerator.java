@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates integers from <tt>[0, n)</tt> with the Zipf distribution, i.e.
+ * the probability of <tt>k</tt> is proportional to <tt>1 / (k + 1)^s</tt>.
+ * It's a typical distribution of requests to web resources, where a few
+ * resources are very popular and most of them are requested rarely.
+ *
+ * <p>It precomputes the cumulative distribution, so it's meant for up to a
+ * few millions of elements.</p>
+ */
+public class ZipfGenerator {
+
+    private final double[] cumulative;
+
+
+    /**
+     * @param n The number of elements.
+     * @param exponent The exponent <tt>s</tt>, 0 for the uniform distribution;
+     *                 typical web workloads are around 0.7 to 1.
+     */
+    public ZipfGenerator(int n, double exponent) {
+        if (n <= 0 || exponent < 0) {
+            throw new IllegalArgumentException("n must be positive and exponent must not be negative");
+        }
+        cumulative = new double[n];
+
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+
+    /**
+     * Returns the next element; the element 0 is the most frequent one.
+     */
+    public int next(Random random) {
+        double p = random.nextDouble();
+        int low = 0, high = cumulative.length - 1;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < p) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import cz.jirutka.spring.http.client.cache.internal.CacheEntry;
+import net.jcip.annotations.Immutable;
+
+/**
+ * {@link RemovalListener} that {@linkplain CacheEntry#release() releases}
+ * removed {@link CacheEntry cache entries}, so memory of their bodies can be
+ * reused. It's required when the bodies are stored off-heap or deduplicated.
+ */
+@Immutable
+public class CacheEntryReleaser implements RemovalListener {
+
+    public void onRemoval(Object key, Object value, RemovalCause cause) {
+        if (value instanceof CacheEntry) {
+            ((CacheEntry) value).release();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import cz.jirutka.spring.http.client.cache.internal.CacheEntry;
+import cz.jirutka.spring.http.client.cache.internal.VaryEntry;
+import net.jcip.annotations.Immutable;
+
+/**
+ * {@link Weigher} that weighs {@link CacheEntry cache entries} by size of the
+ * cached response in bytes, i.e. its stored body length (e.g. compressed)
+ * plus its headers size. A body shared by multiple entries (see {@link
+ * cz.jirutka.spring.http.client.cache.internal.DeduplicatingBodyStorage
+ * DeduplicatingBodyStorage}) is charged in full to each of them, so the total
+ * weight is an upper bound of the memory used, whichever entries are evicted.
+ * {@link VaryEntry Vary entries} are weighed by length of the header names,
+ * other values have zero weight.
+ */
+@Immutable
+public class CacheEntryWeigher implements Weigher {
+
+    public long weigh(Object key, Object value) {
+
+        if (value instanceof CacheEntry) {
+            CacheEntry entry = (CacheEntry) value;
+            return entry.getStoredBodySize() + entry.getHeadersSize();
+
+        } else if (value instanceof VaryEntry) {
+            long weight = 0;
+            for (String name : ((VaryEntry) value).getHeaderNames()) {
+                weight += name.length();
+            }
+            return weight;
+        }
+        return 0;
+    }
+}
@@ -17,7 +17,18 @@ package cz.jirutka.spring.http.client.cache;
 
 import org.springframework.http.HttpRequest;
 
+/**
+ * Generates keys of the cache entries for requests.
+ */
 public interface CacheKeyGenerator {
 
-    String createKey(HttpRequest request);
+    /**
+     * Returns a cache key for the given request. The key must implement
+     * {@code equals} and {@code hashCode} and it should be serializable,
+     * if the cache backend persists its entries.
+     *
+     * @param request The request to create the key for.
+     * @return The cache key, e.g. a {@code String}, or {@link HashedCacheKey}.
+     */
+    Object createKey(HttpRequest request);
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import lombok.Getter;
+import lombok.ToString;
+import net.jcip.annotations.Immutable;
+
+/**
+ * An immutable snapshot of the HTTP cache statistics.
+ *
+ * @see CacheStatisticsMXBean
+ */
+@Immutable
+@Getter @ToString
+public final class CacheStatistics implements CacheStatisticsMXBean {
+
+    private final long hitCount;
+    private final long staleHitCount;
+    private final long missCount;
+    private final long notServableCount;
+    private final long notCacheableCount;
+    private final long oversizeCount;
+    private final long evictionCount;
+    private final long bytesFromCache;
+    private final long bytesFromOrigin;
+    private final long fetchCount;
+    private final double fetchLatencyMeanMillis;
+    private final long[] fetchLatencyBucketBounds;
+    private final long[] fetchLatencyBucketCounts;
+
+
+    /**
+     * Creates a snapshot of the given (live) statistics.
+     */
+    public CacheStatistics(CacheStatisticsMXBean source) {
+        this.hitCount = source.getHitCount();
+        this.staleHitCount = source.getStaleHitCount();
+        this.missCount = source.getMissCount();
+        this.notServableCount = source.getNotServableCount();
+        this.notCacheableCount = source.getNotCacheableCount();
+        this.oversizeCount = source.getOversizeCount();
+        this.evictionCount = source.getEvictionCount();
+        this.bytesFromCache = source.getBytesFromCache();
+        this.bytesFromOrigin = source.getBytesFromOrigin();
+        this.fetchCount = source.getFetchCount();
+        this.fetchLatencyMeanMillis = source.getFetchLatencyMeanMillis();
+        this.fetchLatencyBucketBounds = source.getFetchLatencyBucketBounds().clone();
+        this.fetchLatencyBucketCounts = source.getFetchLatencyBucketCounts().clone();
+    }
+
+
+    public double getHitRatio() {
+        long hits = hitCount + staleHitCount;
+        long total = hits + missCount;
+
+        return total > 0 ? (double) hits / total : Double.NaN;
+    }
+
+    public long[] getFetchLatencyBucketBounds() {
+        return fetchLatencyBucketBounds.clone();
+    }
+
+    public long[] getFetchLatencyBucketCounts() {
+        return fetchLatencyBucketCounts.clone();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+/**
+ * JMX management interface exposing statistics of the HTTP cache.
+ *
+ * @see CacheStatistics
+ */
+public interface CacheStatisticsMXBean {
+
+    /**
+     * Returns the number of requests served from the cache with a fresh
+     * response.
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of requests served from the cache with a stale
+     * response, while revalidating, or when the origin failed.
+     */
+    long getStaleHitCount();
+
+    /**
+     * Returns the number of requests servable from the cache that have been
+     * sent to the origin, because the response was not cached or could not
+     * be used.
+     */
+    long getMissCount();
+
+    /**
+     * Returns the number of requests that are not servable from the cache
+     * at all (e.g. <tt>POST</tt>).
+     */
+    long getNotServableCount();
+
+    /**
+     * Returns the number of responses that are not cacheable.
+     */
+    long getNotCacheableCount();
+
+    /**
+     * Returns the number of cacheable responses that have not been cached,
+     * because they exceeded the maximal response size.
+     */
+    long getOversizeCount();
+
+    /**
+     * Returns the number of entries evicted from the cache due to its
+     * capacity. Only evictions from the built-in in-memory cache are
+     * counted.
+     */
+    long getEvictionCount();
+
+    /**
+     * Returns the number of bytes of response bodies served from the cache.
+     */
+    long getBytesFromCache();
+
+    /**
+     * Returns the number of bytes of response bodies received from the
+     * origin. Bodies of responses that are not read by the cache are counted
+     * by their <tt>Content-Length</tt>, if specified.
+     */
+    long getBytesFromOrigin();
+
+    /**
+     * Returns the ratio of hits (fresh and stale) to all requests servable
+     * from the cache, or <tt>NaN</tt> if there were no such requests.
+     */
+    double getHitRatio();
+
+    /**
+     * Returns the number of requests sent to the origin.
+     */
+    long getFetchCount();
+
+    /**
+     * Returns the mean latency of the requests sent to the origin in
+     * milliseconds, or <tt>NaN</tt> if there were none.
+     */
+    double getFetchLatencyMeanMillis();
+
+    /**
+     * Returns the upper bounds (inclusive) of the fetch latency histogram
+     * buckets in milliseconds. The last bucket is unbounded.
+     */
+    long[] getFetchLatencyBucketBounds();
+
+    /**
+     * Returns the number of requests sent to the origin in each bucket of
+     * the fetch latency histogram; it has one more element than
+     * {@link #getFetchLatencyBucketBounds()}.
+     */
+    long[] getFetchLatencyBucketCounts();
+}
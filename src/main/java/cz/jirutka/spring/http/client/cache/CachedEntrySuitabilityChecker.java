@@ -18,13 +18,31 @@ package cz.jirutka.spring.http.client.cache;
 import cz.jirutka.spring.http.client.cache.internal.CacheEntry;
 import org.springframework.http.HttpRequest;
 
-import java.util.Date;
-
 /**
  * Determines whether a given {@link CacheEntry} is suitable to be
- * used as a response for a given {@link HttpRequest}.
+ * used as a response for a given {@link HttpRequest}. The current time
+ * {@code now} is given in milliseconds since the epoch, as returned by
+ * the {@link Clock}.
  */
 public interface CachedEntrySuitabilityChecker {
 
-    boolean canCachedEntryBeUsed(HttpRequest request, CacheEntry entry, Date now);
+    boolean canCachedEntryBeUsed(HttpRequest request, CacheEntry entry, long now);
+
+    /**
+     * Determines whether a given stale {@link CacheEntry} may be used as a
+     * response for a given {@link HttpRequest} while it's being revalidated
+     * in the background.
+     *
+     * @see <a href="http://tools.ietf.org/html/rfc5861#section-3">RFC 5861 section 3</a>
+     */
+    boolean canStaleEntryBeUsedWhileRevalidating(HttpRequest request, CacheEntry entry, long now);
+
+    /**
+     * Determines whether a given stale {@link CacheEntry} may be used as a
+     * response for a given {@link HttpRequest} when the origin failed to
+     * respond, or responded with a server error.
+     *
+     * @see <a href="http://tools.ietf.org/html/rfc5861#section-4">RFC 5861 section 4</a>
+     */
+    boolean canStaleEntryBeUsedIfError(HttpRequest request, CacheEntry entry, long now);
 }
@@ -15,9 +15,19 @@
  */
 package cz.jirutka.spring.http.client.cache;
 
+import cz.jirutka.spring.http.client.cache.internal.AsynchronousRevalidator;
 import cz.jirutka.spring.http.client.cache.internal.CacheEntry;
+import cz.jirutka.spring.http.client.cache.internal.CachePartition;
+import cz.jirutka.spring.http.client.cache.internal.ConditionalHttpRequest;
 import cz.jirutka.spring.http.client.cache.internal.HttpResponseCache;
 import cz.jirutka.spring.http.client.cache.internal.HttpResponseCacheImpl;
+import cz.jirutka.spring.http.client.cache.internal.InMemoryClientHttpResponse;
+import cz.jirutka.spring.http.client.cache.internal.PartitionedHttpResponseCache;
+import cz.jirutka.spring.http.client.cache.internal.RequestCoalescer;
+import cz.jirutka.spring.http.client.cache.internal.RequestCoalescer.Flight;
+import cz.jirutka.spring.http.client.cache.internal.StatsCounter;
+import cz.jirutka.spring.http.client.cache.internal.TeeClientHttpResponse;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -27,8 +37,20 @@ import org.springframework.http.client.ClientHttpRequestExecution;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
 import org.springframework.http.client.ClientHttpResponse;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
 
 @Slf4j
 @Getter @Setter
@@ -43,6 +65,48 @@ public class CachingHttpRequestInterceptor implements ClientHttpRequestIntercept
 
     private CachedEntrySuitabilityChecker cachedChecker;
 
+    /**
+     * The coalescer of concurrent cache misses for the same request, or
+     * {@code null} to send all of them to the origin.
+     */
+    private RequestCoalescer requestCoalescer;
+
+    /**
+     * The executor of background revalidations of stale entries that may be
+     * served while revalidating (<tt>stale-while-revalidate</tt>), or
+     * {@code null} to always revalidate synchronously.
+     */
+    private AsynchronousRevalidator asyncRevalidator;
+
+    /**
+     * The source of the current time.
+     */
+    private Clock clock = SystemClock.INSTANCE;
+
+    /**
+     * The counter of cache statistics. When the cache is partitioned, then
+     * the statistics are recorded into the counter of the partition, that
+     * should have this one as the parent.
+     */
+    private StatsCounter statsCounter = new StatsCounter();
+
+    /**
+     * Names of the statistics MBeans registered for this interceptor in the
+     * platform MBean server.
+     *
+     * @see #unregisterMBeans()
+     */
+    @Setter(AccessLevel.PACKAGE)
+    private List<ObjectName> jmxNames = Collections.emptyList();
+
+    /**
+     * The partition of the {@link #cache}, {@link #cachingPolicy} and {@link
+     * #statsCounter}, used when the cache is not partitioned. It's created
+     * lazily and reset when any of them is changed.
+     */
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private volatile CachePartition defaultPartition;
+
 
     public CachingHttpRequestInterceptor(Cache cache, boolean sharedCache, int maxResponseSize) {
         this.cache = new HttpResponseCacheImpl(cache, sharedCache, maxResponseSize);
@@ -62,55 +126,381 @@ public class CachingHttpRequestInterceptor implements ClientHttpRequestIntercept
     public ClientHttpResponse intercept(
             HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
 
-        if (!cachingPolicy.isServableFromCache(request)) {
+        // resolved once per request, matching of the partitions may be expensive
+        CachePartition partition = partition(request);
+        StatsCounter stats = partition.getStatsCounter();
+
+        if (!partition.getCachingPolicy().isServableFromCache(request)) {
             log("not servable from cache", request);
-            return execute(request, body, execution);
+            stats.recordNotServable();
+            return execute(partition, request, body, execution);
         }
 
-        CacheEntry entry = cache.getCacheEntry(request);
-        if (entry == null || !cachedChecker.canCachedEntryBeUsed(request, entry, currentDate())) {
-            log("cache miss", request);
-            return execute(request, body, execution);
+        final long now = clock.currentTimeMillis();
 
-        } else {
-            log("cache hit", request);
-            return createResponse(entry);
+        CacheEntry entry = partition.getCache().getCacheEntry(request);
+        try {
+            if (entry != null && cachedChecker.canCachedEntryBeUsed(request, entry, now)) {
+                log("cache hit", request);
+                stats.recordHit(entry.getBodySize());
+                return createResponse(entry);
+
+            } else if (entry != null && asyncRevalidator != null
+                    && cachedChecker.canStaleEntryBeUsedWhileRevalidating(request, entry, now)) {
+                log("cache entry is stale, serving it while revalidating", request);
+                stats.recordStaleHit(entry.getBodySize());
+                revalidateAsynchronously(partition, request, body, execution, entry);
+                return createStaleResponse(entry);
+
+            } else {
+                log(entry == null ? "cache miss" : "cache entry is stale", request);
+                return requestCoalescer != null
+                        ? fetchCoalesced(partition, request, body, execution, entry)
+                        : fetch(partition, request, body, execution, entry);
+            }
+        } finally {
+            if (entry != null) {
+                entry.release();
+            }
+        }
+    }
+
+
+    /**
+     * Fetches a response from the origin. If the given stale entry can be
+     * revalidated, then a conditional request is send instead of the
+     * original one. If the origin fails, or responds with a server error,
+     * and the stale entry may be used in such case, then it's returned
+     * instead.
+     *
+     * <p>The request is counted as a stale hit when the stale entry is
+     * returned, otherwise as a miss.</p>
+     *
+     * @param partition The partition the request is routed to.
+     * @param staleEntry The cached entry that cannot be used without
+     *                   revalidation, or {@code null}.
+     */
+    protected ClientHttpResponse fetch(CachePartition partition, HttpRequest request, byte[] body,
+            ClientHttpRequestExecution execution, CacheEntry staleEntry) throws IOException {
+
+        StatsCounter stats = partition.getStatsCounter();
+
+        if (staleEntry == null) {
+            stats.recordMiss();
+            return execute(partition, request, body, execution);
+        }
+        ClientHttpResponse response;
+        try {
+            response = staleEntry.isRevalidatable()
+                    ? revalidate(partition, request, body, execution, staleEntry)
+                    : execute(partition, request, body, execution);
+
+        } catch (IOException ex) {
+            if (cachedChecker.canStaleEntryBeUsedIfError(request, staleEntry, clock.currentTimeMillis())) {
+                log("origin failed, serving stale cache entry", request);
+                stats.recordStaleHit(staleEntry.getBodySize());
+                return createStaleResponse(staleEntry);
+            }
+            stats.recordMiss();
+            throw ex;
+        }
+
+        if (response.getRawStatusCode() >= 500
+                && cachedChecker.canStaleEntryBeUsedIfError(request, staleEntry, clock.currentTimeMillis())) {
+            log("origin responded with server error, serving stale cache entry", request);
+            stats.recordStaleHit(staleEntry.getBodySize());
+            response.close();
+            return createStaleResponse(staleEntry);
         }
+        stats.recordMiss();
+        return response;
     }
 
+    /**
+     * Fetches a response from the origin, unless the same request is already
+     * in-flight. In that case waits for its completion and then returns a
+     * response from the cache, if possible. If the response has not been
+     * cached, or the waiting timed out, then the response is fetched as usual.
+     *
+     * <p>When the response is being cached while it's read by the caller
+     * (streaming), then the flight is completed after the caller reads the
+     * body, or closes the response.</p>
+     *
+     * @see #fetch(CachePartition, HttpRequest, byte[], ClientHttpRequestExecution, CacheEntry)
+     */
+    protected ClientHttpResponse fetchCoalesced(CachePartition partition, HttpRequest request, byte[] body,
+            ClientHttpRequestExecution execution, CacheEntry staleEntry) throws IOException {
+
+        Flight flight = requestCoalescer.join(request);
+
+        if (flight.isLeader()) {
+            ClientHttpResponse response = null;
+            try {
+                response = fetch(partition, request, body, execution, staleEntry);
+                return response;
+            } finally {
+                completeWhenCached(flight, response);
+            }
+        }
+
+        if (flight.await()) {
+            CacheEntry entry = partition.getCache().getCacheEntry(request);
+            try {
+                if (entry != null && cachedChecker.canCachedEntryBeUsed(request, entry, clock.currentTimeMillis())) {
+                    log("cache hit after waiting for in-flight request", request);
+                    partition.getStatsCounter().recordHit(entry.getBodySize());
+                    return createResponse(entry);
+                }
+            } finally {
+                if (entry != null) {
+                    entry.release();
+                }
+            }
+        } else {
+            log("timeout exceeded while waiting for in-flight request", request);
+        }
+        return fetch(partition, request, body, execution, staleEntry);
+    }
 
-    protected ClientHttpResponse execute(
+    protected ClientHttpResponse execute(CachePartition partition,
             HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
 
         final Date requestDate = currentDate();
 
-        ClientHttpResponse response = execution.execute(request, body);
+        ClientHttpResponse response = timedExecute(partition.getStatsCounter(), request, body, execution);
 
-        if (cachingPolicy.isResponseCacheable(request, response)) {
+        return handleBackendResponse(partition, request, response, requestDate);
+    }
+
+    /**
+     * Sends a conditional request to revalidate the given cache entry. If the
+     * origin responds with <tt>304 Not Modified</tt>, then the entry is
+     * updated and returned, otherwise the new response is handled as usual.
+     */
+    protected ClientHttpResponse revalidate(CachePartition partition, HttpRequest request, byte[] body,
+            ClientHttpRequestExecution execution, CacheEntry entry) throws IOException {
+
+        final Date requestDate = currentDate();
+
+        ClientHttpResponse response = timedExecute(
+                partition.getStatsCounter(), new ConditionalHttpRequest(request, entry), body, execution);
+
+        if (response.getRawStatusCode() == NOT_MODIFIED.value()) {
+            log("cache entry revalidated", request);
+            try {
+                partition.getStatsCounter().recordBytesFromCache(entry.getBodySize());
+                return createResponse(partition.getCache()
+                        .updateCacheEntry(request, entry, response, requestDate, currentDate()));
+            } finally {
+                response.close();
+            }
+        }
+        return handleBackendResponse(partition, request, response, requestDate);
+    }
+
+    /**
+     * Schedules revalidation of the given stale entry in the background. The
+     * revalidation is executed via the given {@code execution}, i.e. it goes
+     * through the rest of the interceptors chain again. The entry is retained
+     * until the revalidation is done.
+     *
+     * <p>The body of the new response is read completely before closing it,
+     * so it's cached even when the response cache is in the streaming
+     * mode. The request has been already counted as a stale hit, so the
+     * revalidation itself is counted only as a fetch.</p>
+     */
+    protected void revalidateAsynchronously(final CachePartition partition, final HttpRequest request, final byte[] body,
+            final ClientHttpRequestExecution execution, final CacheEntry entry) {
+
+        if (!entry.retain()) {
+            return;
+        }
+        // keyed by the variant, so stale variants of the same resource don't suppress each other
+        Object key = partition.getCache().getCacheKey(request, entry);
+
+        boolean scheduled = asyncRevalidator.schedule(key, request, new Runnable() {
+            public void run() {
+                try {
+                    discard(entry.isRevalidatable()
+                            ? revalidate(partition, request, body, execution, entry)
+                            : execute(partition, request, body, execution));
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("[{} {}] background revalidation failed: {}",
+                            request.getMethod(), request.getURI(), ex.toString());
+                } finally {
+                    entry.release();
+                }
+            }
+        });
+        if (!scheduled) {
+            entry.release();
+        }
+    }
+
+    /**
+     * Completes the given flight when the given response is cached, i.e.
+     * right away, unless it's being cached while reading.
+     */
+    private void completeWhenCached(final Flight flight, ClientHttpResponse response) {
+        if (response instanceof TeeClientHttpResponse) {
+            ((TeeClientHttpResponse) response).onDone(new Runnable() {
+                public void run() {
+                    flight.complete();
+                }
+            });
+        } else {
+            flight.complete();
+        }
+    }
+
+    /**
+     * Reads the whole body of the given response and closes it.
+     */
+    private void discard(ClientHttpResponse response) throws IOException {
+        try {
+            InputStream stream = response.getBody();
+            byte[] buffer = new byte[4096];
+
+            while (stream.read(buffer) != -1) {
+                // nothing to do
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    protected ClientHttpResponse handleBackendResponse(CachePartition partition,
+            HttpRequest request, ClientHttpResponse response, Date requestDate) throws IOException {
+
+        if (partition.getCachingPolicy().isResponseCacheable(request, response)) {
             log("caching response", request);
-            return cache.cacheAndReturnResponse(request, response, requestDate, currentDate());
+            response = partition.getCache().cacheAndReturnResponse(request, response, requestDate, currentDate());
 
         } else {
             log("response is not cacheable", request);
-            return response;
+            partition.getStatsCounter().recordNotCacheable();
         }
+        // the body of a streamed response is not read yet, so the declared length is the best guess
+        partition.getStatsCounter().recordBytesFromOrigin(response instanceof InMemoryClientHttpResponse
+                ? ((InMemoryClientHttpResponse) response).getBodyAsByteArray().length
+                : response.getHeaders().getContentLength());
+
+        return response;
     }
 
     protected ClientHttpResponse createResponse(CacheEntry entry) {
         ClientHttpResponse response = entry.getResponse();
 
-        Long age = (currentDate().getTime() - entry.getResponseCreated().getTime()) / 1000L;
-        response.getHeaders().set("Age", age.toString());
+        long age = (clock.currentTimeMillis() - entry.getResponseCreatedMillis()) / 1000L;
+        response.getHeaders().set("Age", Long.toString(age));
 
         return response;
     }
 
+    /**
+     * Creates a response from the given stale entry, with the <tt>Warning:
+     * 110</tt> header.
+     *
+     * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.46">HTTP/1.1 section 14.46</a>
+     */
+    protected ClientHttpResponse createStaleResponse(CacheEntry entry) {
+        ClientHttpResponse response = createResponse(entry);
+        response.getHeaders().add("Warning", "110 - \"Response is stale\"");
+
+        return response;
+    }
+
+
+    public void setCachingPolicy(CachingPolicy cachingPolicy) {
+        this.cachingPolicy = cachingPolicy;
+        this.defaultPartition = null;
+    }
+
+    public void setStatsCounter(StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        this.defaultPartition = null;
+    }
+
+    /**
+     * Returns a snapshot of the cache statistics.
+     */
+    public CacheStatistics getStatistics() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Returns snapshots of the statistics of each partition by its name, when
+     * the cache is a {@link PartitionedHttpResponseCache}, otherwise an empty
+     * map.
+     */
+    public Map<String, CacheStatistics> getPartitionStatistics() {
+        Map<String, CacheStatistics> result = new LinkedHashMap<>();
+
+        if (cache instanceof PartitionedHttpResponseCache) {
+            for (CachePartition partition : ((PartitionedHttpResponseCache) cache).getPartitions()) {
+                result.put(partition.getName(), partition.getStatsCounter().snapshot());
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Unregisters the statistics MBeans registered for this interceptor by
+     * the builder (if any) from the platform MBean server. It should be called
+     * when the interceptor is not used anymore.
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for (ObjectName name : jmxNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (InstanceNotFoundException ex) {
+                // already unregistered
+            } catch (JMException ex) {
+                log.warn("Failed to unregister cache statistics MBean {}: {}", name, ex.toString());
+            }
+        }
+        jmxNames = Collections.emptyList();
+    }
+
+
+    private ClientHttpResponse timedExecute(StatsCounter stats,
+            HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+
+        long start = System.nanoTime();
+        try {
+            return execution.execute(request, body);
+        } finally {
+            stats.recordFetch(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the partition the given request is routed to, when the cache
+     * is a {@link PartitionedHttpResponseCache}, otherwise a partition of
+     * the {@link #cache}, {@link #cachingPolicy} and {@link #statsCounter}
+     * of this interceptor.
+     */
+    private CachePartition partition(HttpRequest request) {
+        if (cache instanceof PartitionedHttpResponseCache) {
+            return ((PartitionedHttpResponseCache) cache).getPartition(request);
+        }
+        CachePartition partition = defaultPartition;
+        if (partition == null) {
+            // racing threads may create it twice, but it's immutable, so that's fine
+            partition = new CachePartition("default", null, null, cache, cachingPolicy, statsCounter);
+            defaultPartition = partition;
+        }
+        return partition;
+    }
 
     private void log(String message, HttpRequest request) {
         log.debug("[{} {}] {}", request.getMethod(), request.getURI(), message);
     }
 
     private Date currentDate() {
-        return new Date();
+        return new Date(clock.currentTimeMillis());
     }
 }
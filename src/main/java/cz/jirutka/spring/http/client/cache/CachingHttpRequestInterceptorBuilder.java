@@ -15,14 +15,34 @@
  */
 package cz.jirutka.spring.http.client.cache;
 
+import cz.jirutka.spring.http.client.cache.internal.AsynchronousRevalidator;
+import cz.jirutka.spring.http.client.cache.internal.BodyStorage;
+import cz.jirutka.spring.http.client.cache.internal.CachePartition;
+import cz.jirutka.spring.http.client.cache.internal.CompressingBodyStorage;
+import cz.jirutka.spring.http.client.cache.internal.DeduplicatingBodyStorage;
 import cz.jirutka.spring.http.client.cache.internal.HttpResponseCache;
 import cz.jirutka.spring.http.client.cache.internal.HttpResponseCacheImpl;
+import cz.jirutka.spring.http.client.cache.internal.OffHeapBodyStorage;
+import cz.jirutka.spring.http.client.cache.internal.PartitionedCachingPolicy;
+import cz.jirutka.spring.http.client.cache.internal.PartitionedHttpResponseCache;
+import cz.jirutka.spring.http.client.cache.internal.RequestCoalescer;
+import cz.jirutka.spring.http.client.cache.internal.StatsCounter;
+import lombok.AccessLevel;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 import org.springframework.cache.Cache;
 import org.springframework.util.Assert;
 import org.springframework.web.client.RestTemplate;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 /**
  * A builder for {@link CachingHttpRequestInterceptor}.
  */
@@ -55,12 +75,143 @@ public final class CachingHttpRequestInterceptorBuilder {
      */
     private CachingPolicy cachingPolicy;
 
+    /**
+     * Specify the generator of cache keys, e.g. {@link
+     * NormalizingCacheKeyGenerator} to map equivalent URIs to the same
+     * entry, or {@link HashedCacheKeyGenerator} for compact keys of long
+     * URIs. The default is {@link SimpleCacheKeyGenerator}.
+     */
+    private CacheKeyGenerator keyGenerator = new SimpleCacheKeyGenerator();
+
     /**
      * Specify the cache backend to use.
      * This cannot be used along with {@link #inMemoryCache()}.
      */
     private Cache cache;
 
+    /**
+     * Whether to coalesce concurrent cache misses for the same request, i.e.
+     * send only one of them to the origin and let the others wait until its
+     * response is cached. The default is <tt>false</tt>.
+     */
+    private boolean coalesceRequests = false;
+
+    /**
+     * Specify how long (in milliseconds) a coalesced request should wait for
+     * the in-flight one, before it's send to the origin directly. The default
+     * is 5 seconds.
+     */
+    private long coalescingTimeout = 5000;
+
+    /**
+     * Whether to serve stale responses that allow it by the
+     * <tt>stale-while-revalidate</tt> directive and revalidate them in the
+     * background. The default is <tt>false</tt>.
+     */
+    private boolean asynchronousRevalidation = false;
+
+    /**
+     * Specify the executor to use for background revalidations. It should use
+     * a bounded queue. The default is a pool with
+     * {@value AsynchronousRevalidator#DEFAULT_MAX_WORKERS} daemon thread and
+     * a queue of size {@value AsynchronousRevalidator#DEFAULT_MAX_QUEUE_SIZE}.
+     */
+    private ExecutorService revalidationExecutor;
+
+    /**
+     * Specify the source of the current time, e.g. {@link CoarseClock} to
+     * avoid reading the system time on each request. The default is {@link
+     * SystemClock}.
+     */
+    private Clock clock = SystemClock.INSTANCE;
+
+    /**
+     * Specify for how many seconds after expiration may be a cached response
+     * served when the origin fails, or responds with a server error, unless
+     * specified by the <tt>stale-if-error</tt> directive of the response.
+     * The default is 0, i.e. only when allowed by the response.
+     */
+    private int staleIfError = 0;
+
+    /**
+     * Whether to compress bodies of the cached responses, when it saves
+     * enough space; see {@link CompressingBodyStorage}. The default is
+     * <tt>false</tt>.
+     */
+    private boolean compressBodies = false;
+
+    /**
+     * Whether to return responses to be cached immediately and cache them
+     * while their body is being read, instead of reading the whole body
+     * first. A response that is not read completely, or exceeds the {@link
+     * #maxResponseSize(int) maxResponseSize}, is not cached. The {@link
+     * #coalesceRequests(boolean) coalesced} requests wait until the leader
+     * reads (or closes) the response. The default is <tt>false</tt>.
+     */
+    private boolean streaming = false;
+
+    /**
+     * Specify the JMX object name (e.g.
+     * <tt>cz.jirutka.spring.http.client.cache:type=CacheStatistics,name=foo</tt>)
+     * to register the {@link CacheStatisticsMXBean} under in the platform
+     * MBean server. The default is none, i.e. the statistics are available
+     * only via {@link CachingHttpRequestInterceptor#getStatistics()}.
+     *
+     * <p>If the name is already taken (e.g. by the interceptor from the
+     * previous {@link #build()}), then <tt>,instance=N</tt> is appended to
+     * make it unique. Use {@link
+     * CachingHttpRequestInterceptor#unregisterMBeans()} to unregister the
+     * MBeans when the interceptor is not used anymore.</p>
+     */
+    private String jmxName;
+
+    /**
+     * The statistics shared by the interceptor, the response cache and the
+     * in-memory cache.
+     */
+    @Setter(AccessLevel.NONE)
+    private final StatsCounter statsCounter = new StatsCounter();
+
+    /**
+     * The partitions added by {@link #partition(String)}.
+     */
+    @Setter(AccessLevel.NONE)
+    private final List<PartitionBuilder> partitions = new ArrayList<>();
+
+    /**
+     * The statistics of the default partition; it's the {@link #statsCounter}
+     * itself when there are no partitions.
+     */
+    @Setter(AccessLevel.NONE)
+    private StatsCounter defaultStatsCounter;
+
+    /**
+     * Whether the {@link #cache} notifies the {@link #defaultStatsCounter}
+     * about removals, set by the {@link InMemoryCacheBuilder}.
+     */
+    @Setter(AccessLevel.NONE)
+    private boolean listenToRemovals = false;
+
+    /**
+     * The listener to notify about removals from the {@link #cache} after the
+     * response cache, set by the {@link InMemoryCacheBuilder}.
+     */
+    @Setter(AccessLevel.NONE)
+    private RemovalListener removalListener;
+
+    /**
+     * The storage of response bodies, set by the {@link InMemoryCacheBuilder}.
+     */
+    @Setter(AccessLevel.NONE)
+    private BodyStorage bodyStorage;
+
+    /**
+     * Whether to deduplicate identical bodies, set by the {@link
+     * InMemoryCacheBuilder}.
+     */
+    @Setter(AccessLevel.NONE)
+    private boolean deduplicateBodies = false;
+
 
     /**
      * Use and configure the default in-memory cache.
@@ -72,6 +223,22 @@ public final class CachingHttpRequestInterceptorBuilder {
         return new InMemoryCacheBuilder();
     }
 
+    /**
+     * Add a partition with its own in-memory cache, size limit and caching
+     * policy for requests that match the given host and/or URI pattern.
+     * Requests that don't match any partition use the cache configured by
+     * this builder, i.e. the default partition. The partitions are matched
+     * in the order they have been added.
+     *
+     * @param name The name of the partition, used for its statistics.
+     */
+    public PartitionBuilder partition(String name) {
+        PartitionBuilder partition = new PartitionBuilder(name);
+        partitions.add(partition);
+
+        return partition;
+    }
+
     /**
      * Build and return configured {@link CachingHttpRequestInterceptor}.
      */
@@ -81,9 +248,60 @@ public final class CachingHttpRequestInterceptorBuilder {
         }
         Assert.notNull(cache, "You must specify cache backend, or use inMemoryCache ");
 
-        HttpResponseCache responseCache = new HttpResponseCacheImpl(cache, sharedCache, maxResponseSize);
+        HttpResponseCacheImpl responseCache = new HttpResponseCacheImpl(cache, sharedCache, maxResponseSize, keyGenerator);
+        if (bodyStorage != null) {
+            responseCache.setBodyStorage(bodyStorage);
+        }
+        responseCache.setStreaming(streaming);
+        responseCache.setStatsCounter(defaultStatsCounter());
+
+        if (listenToRemovals) {
+            // the response cache evicts variants of an evicted VaryEntry
+            responseCache.setDelegateListener(removalListener);
+            defaultStatsCounter().setDelegateListener(responseCache);
+        }
+
+        if (compressBodies) {
+            responseCache.setBodyStorage(new CompressingBodyStorage(responseCache.getBodyStorage()));
+        }
+        if (deduplicateBodies) {
+            responseCache.setBodyStorage(new DeduplicatingBodyStorage(responseCache.getBodyStorage()));
+        }
+
+        HttpResponseCache httpCache = responseCache;
+        CachingPolicy policy = cachingPolicy;
+        List<CachePartition> builtPartitions = new ArrayList<>(partitions.size());
 
-        return new CachingHttpRequestInterceptor(responseCache, cachingPolicy, new DefaultCachedEntrySuitabilityChecker());
+        if (!partitions.isEmpty()) {
+            for (PartitionBuilder partition : partitions) {
+                builtPartitions.add(partition.createPartition());
+            }
+            PartitionedHttpResponseCache partitionedCache = new PartitionedHttpResponseCache(builtPartitions,
+                    new CachePartition("default", null, null, responseCache, cachingPolicy, defaultStatsCounter()));
+
+            httpCache = partitionedCache;
+            policy = new PartitionedCachingPolicy(partitionedCache);
+        }
+
+        CachingHttpRequestInterceptor interceptor = new CachingHttpRequestInterceptor(
+                httpCache, policy, new DefaultCachedEntrySuitabilityChecker(staleIfError));
+        interceptor.setClock(clock);
+        interceptor.setStatsCounter(statsCounter);
+
+        if (coalesceRequests) {
+            interceptor.setRequestCoalescer(new RequestCoalescer(coalescingTimeout, keyGenerator));
+        }
+        if (asynchronousRevalidation) {
+            interceptor.setAsyncRevalidator(revalidationExecutor != null
+                    ? new AsynchronousRevalidator(revalidationExecutor, keyGenerator)
+                    : new AsynchronousRevalidator(AsynchronousRevalidator.createDefaultExecutor(
+                            AsynchronousRevalidator.DEFAULT_MAX_WORKERS, AsynchronousRevalidator.DEFAULT_MAX_QUEUE_SIZE),
+                            keyGenerator));
+        }
+        if (jmxName != null) {
+            interceptor.setJmxNames(registerMBeans(builtPartitions));
+        }
+        return interceptor;
     }
 
     /**
@@ -95,6 +313,88 @@ public final class CachingHttpRequestInterceptorBuilder {
     }
 
 
+    private StatsCounter defaultStatsCounter() {
+        if (defaultStatsCounter == null) {
+            defaultStatsCounter = partitions.isEmpty() ? statsCounter : new StatsCounter(statsCounter);
+        }
+        return defaultStatsCounter;
+    }
+
+    private static ListenableCache createLruCache(String name, boolean concurrent, boolean soft, int capacity, long maxBytes) {
+        long maxWeight = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        Weigher weigher = maxBytes > 0 ? new CacheEntryWeigher() : null;
+
+        if (concurrent) {
+            return soft
+                    ? new SoftReferenceConcurrentLruCache(name, capacity, maxWeight, weigher)
+                    : new ConcurrentLruCache(name, capacity, maxWeight, weigher);
+        } else {
+            return soft
+                    ? new SoftReferenceSynchronizedLruCache(name, capacity, maxWeight, weigher)
+                    : new SynchronizedLruCache(name, capacity, maxWeight, weigher);
+        }
+    }
+
+    /**
+     * Registers the statistics MBeans under the {@link #jmxName}, made unique
+     * if it's already taken, and returns their names. An MBean registered by
+     * someone else is never replaced.
+     */
+    private List<ObjectName> registerMBeans(List<CachePartition> builtPartitions) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        List<ObjectName> registered = new ArrayList<>(builtPartitions.size() + 2);
+
+        String name = jmxName;
+        try {
+            for (int instance = 2; !registerMBean(server, statsCounter, name, registered); instance++) {
+                name = jmxName + ",instance=" + instance;
+            }
+            if (!partitions.isEmpty()) {
+                for (CachePartition partition : builtPartitions) {
+                    String partitionName = name + ",partition=" + partition.getName();
+                    Assert.state(registerMBean(server, partition.getStatsCounter(), partitionName, registered),
+                            "MBean " + partitionName + " is already registered");
+                }
+                Assert.state(registerMBean(server, defaultStatsCounter(), name + ",partition=default", registered),
+                        "MBean " + name + ",partition=default is already registered");
+            }
+            return registered;
+
+        } catch (JMException | IllegalStateException ex) {
+            for (ObjectName objectName : registered) {
+                try {
+                    server.unregisterMBean(objectName);
+                } catch (JMException ignored) {
+                    // nothing to do
+                }
+            }
+            throw new IllegalStateException("Failed to register cache statistics MBeans: " + name, ex);
+        }
+    }
+
+    /**
+     * Registers the given MBean under the given name, if it's not taken yet.
+     *
+     * @return <tt>false</tt> if the name is already taken.
+     */
+    private boolean registerMBean(MBeanServer server, CacheStatisticsMXBean mbean, String name,
+            List<ObjectName> registered) throws JMException {
+
+        ObjectName objectName = new ObjectName(name);
+        if (server.isRegistered(objectName)) {
+            return false;
+        }
+        try {
+            server.registerMBean(mbean, objectName);
+        } catch (InstanceAlreadyExistsException ex) {
+            return false;  // registered concurrently
+        }
+        registered.add(objectName);
+
+        return true;
+    }
+
+
     @Setter @Accessors(fluent=true)
     public final class InMemoryCacheBuilder {
 
@@ -110,14 +410,54 @@ public final class CachingHttpRequestInterceptorBuilder {
          */
         private boolean softReferences = true;
 
+        /**
+         * Whether to use the {@link ConcurrentLruCache} that doesn't block
+         * concurrent reads, instead of the {@link SynchronizedLruCache}.
+         * The default is <tt>false</tt>.
+         */
+        private boolean concurrent = false;
+
+        /**
+         * Specify the maximal total size of the cached responses in bytes,
+         * i.e. sum of their body lengths and headers sizes. When exceeded,
+         * the least recently used responses are evicted. The default is 0,
+         * i.e. not limited (only the {@link #capacity(int) capacity} is).
+         */
+        private long maxBytes = 0;
+
+        /**
+         * Whether to store bodies of the responses outside of the Java heap,
+         * in direct memory managed by the cache. It reduces GC pressure when
+         * the cache holds a lot of data. Soft references are not used with
+         * off-heap bodies. The default is <tt>false</tt>.
+         */
+        private boolean offHeap = false;
+
+        /**
+         * Whether to share bodies of the responses that are byte-identical
+         * (e.g. the same resource under different URIs), instead of storing
+         * each of them separately; see {@link DeduplicatingBodyStorage}.
+         * Soft references are not used with deduplication. The default is
+         * <tt>false</tt>.
+         */
+        private boolean deduplicateBodies = false;
+
+        /**
+         * Specify a second-level cache (e.g. {@link DiskCache}) to demote
+         * responses evicted from the in-memory cache to, see {@link
+         * TieredCache}. This cannot be used along with {@link
+         * #offHeap(boolean) offHeap} and {@link #deduplicateBodies(boolean)
+         * deduplicateBodies}. Demotions are not counted as evictions in the
+         * {@link CacheStatistics}. The default is none.
+         */
+        private Cache secondLevelCache;
+
 
         /**
          * Build and return configured {@link CachingHttpRequestInterceptor}.
          */
         public CachingHttpRequestInterceptor build() {
-            parent.cache = softReferences
-                    ? new SoftReferenceSynchronizedLruCache("http-cache", capacity)
-                    : new SynchronizedLruCache("http-cache", capacity);
+            parent.cache = createCache();
             return parent.build();
         }
 
@@ -128,5 +468,126 @@ public final class CachingHttpRequestInterceptorBuilder {
         public void enhance(RestTemplate restTemplate) {
             restTemplate.getInterceptors().add(build());
         }
+
+
+        private Cache createCache() {
+            // evicted entries must be released, so they cannot be collected by GC, nor demoted
+            boolean releaseEntries = offHeap || deduplicateBodies;
+
+            Assert.isTrue(!releaseEntries || secondLevelCache == null,
+                    "offHeap and deduplicateBodies cannot be used along with secondLevelCache");
+
+            RemovalListener removalListener = releaseEntries ? new CacheEntryReleaser() : null;
+            boolean soft = softReferences && !releaseEntries;
+
+            if (offHeap) {
+                parent.bodyStorage = new OffHeapBodyStorage();
+            }
+            parent.deduplicateBodies = deduplicateBodies;
+            ListenableCache cache = createLruCache("http-cache", concurrent, soft, capacity, maxBytes);
+
+            if (secondLevelCache != null) {
+                // TieredCache listens to the first-level cache itself
+                return new TieredCache("http-cache", cache, secondLevelCache);
+            }
+            cache.setRemovalListener(defaultStatsCounter());
+            parent.listenToRemovals = true;
+            parent.removalListener = removalListener;
+
+            return cache;
+        }
+    }
+
+
+    @Setter @Accessors(fluent=true)
+    public final class PartitionBuilder {
+
+        private final String name;
+
+        /**
+         * Specify the host of the requests to route to this partition (case
+         * insensitive); it may start with <tt>*.</tt> to match also any
+         * subdomain, e.g. <tt>*.example.org</tt>. The default is any host.
+         */
+        private String host;
+
+        /**
+         * Specify a regular expression that must match the whole URI of the
+         * requests to route to this partition. The default is any URI.
+         */
+        private String uriPattern;
+
+        /**
+         * Specify capacity of the partition's in-memory cache, i.e. how many
+         * responses to keep. The default is 64.
+         */
+        private int capacity = 64;
+
+        /**
+         * Specify the maximal total size of the cached responses in bytes,
+         * see {@link InMemoryCacheBuilder#maxBytes(long)}. The default is 0,
+         * i.e. not limited.
+         */
+        private long maxBytes = 0;
+
+        /**
+         * Specify the maximal response size in bytes to store in this
+         * partition. The default is the {@link
+         * CachingHttpRequestInterceptorBuilder#maxResponseSize(int)
+         * maxResponseSize} of the parent builder.
+         */
+        private Integer maxResponseSize;
+
+        /**
+         * Specify {@code CachingPolicy} to use for this partition. The default
+         * is {@link DefaultCachingPolicy} with the partition's {@link
+         * #maxResponseSize(Integer) maxResponseSize}.
+         */
+        private CachingPolicy cachingPolicy;
+
+        /**
+         * Whether to use the {@link ConcurrentLruCache}, instead of the
+         * {@link SynchronizedLruCache}. The default is <tt>false</tt>.
+         */
+        private boolean concurrent = false;
+
+
+        PartitionBuilder(String name) {
+            Assert.hasText(name, "name must not be empty");
+            Assert.isTrue(!"default".equals(name), "default is reserved for the default partition");
+            this.name = name;
+        }
+
+
+        /**
+         * Finish configuration of this partition and return to the parent
+         * builder.
+         */
+        public CachingHttpRequestInterceptorBuilder and() {
+            return parent;
+        }
+
+
+        private CachePartition createPartition() {
+            Assert.isTrue(host != null || uriPattern != null,
+                    "You must specify host or uriPattern of the partition " + name);
+
+            int maxSize = maxResponseSize != null ? maxResponseSize : parent.maxResponseSize;
+            StatsCounter stats = new StatsCounter(statsCounter);
+
+            ListenableCache cache = createLruCache("http-cache-" + name, concurrent, false, capacity, maxBytes);
+            cache.setRemovalListener(stats);
+
+            HttpResponseCacheImpl responseCache = new HttpResponseCacheImpl(cache, sharedCache, maxSize, keyGenerator);
+            responseCache.setStreaming(streaming);
+            responseCache.setStatsCounter(stats);
+            stats.setDelegateListener(responseCache);
+            if (compressBodies) {
+                responseCache.setBodyStorage(new CompressingBodyStorage(responseCache.getBodyStorage()));
+            }
+
+            return new CachePartition(name, host, uriPattern, responseCache,
+                    cachingPolicy != null ? cachingPolicy : new DefaultCachingPolicy(sharedCache, maxSize), stats);
+        }
     }
 }
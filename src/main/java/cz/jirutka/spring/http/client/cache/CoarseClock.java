@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import lombok.Getter;
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+
+/**
+ * {@link Clock} that returns the system time cached in a volatile field,
+ * which is updated by a background daemon thread every few milliseconds.
+ * Reading the time is then just a volatile read, without a system call.
+ *
+ * <p>The returned time lags behind the system time by up to the resolution,
+ * which is negligible for HTTP freshness calculations with a precision of
+ * seconds. The thread is stopped by {@link #close()}.</p>
+ */
+@ThreadSafe
+public class CoarseClock implements Clock, Closeable {
+
+    public static final long DEFAULT_RESOLUTION_MILLIS = 5;
+
+    /**
+     * The interval of updates of the time in milliseconds.
+     */
+    @Getter
+    private final long resolutionMillis;
+
+    private final Thread ticker;
+
+    private volatile long now = System.currentTimeMillis();
+
+
+    public CoarseClock() {
+        this(DEFAULT_RESOLUTION_MILLIS);
+    }
+
+    /**
+     * @param resolutionMillis The interval of updates of the time in
+     *                         milliseconds. It must be greater then zero.
+     */
+    public CoarseClock(long resolutionMillis) {
+        Assert.isTrue(resolutionMillis > 0, "resolutionMillis must be greater then zero");
+
+        this.resolutionMillis = resolutionMillis;
+        this.ticker = new Thread(new Ticker(), "http-cache-clock");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * Stops the background thread. The time is not updated anymore after
+     * that.
+     */
+    public void close() {
+        ticker.interrupt();
+    }
+
+
+    //////// Inner class ////////
+
+    private class Ticker implements Runnable {
+
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(resolutionMillis);
+                    now = System.currentTimeMillis();
+                }
+            } catch (InterruptedException ex) {
+                // closed
+            }
+        }
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import cz.jirutka.spring.http.client.cache.RemovalListener.RemovalCause;
+import cz.jirutka.spring.http.client.cache.SynchronizedLruCache.Removal;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Cache} implementation with adjustable capacity limit and a
+ * segmented LRU eviction policy, that doesn't block reads.
+ *
+ * <p>Entries are stored in a {@link ConcurrentHashMap}. Reads don't modify
+ * the eviction policy directly, but they're recorded into striped lossy ring
+ * buffers that are drained under a lock in batches, when a buffer is
+ * filled up or on a write.</p>
+ *
+ * <p>The eviction policy divides entries into two segments: a probation
+ * segment for new entries and a protected segment for entries that have
+ * been accessed at least once after insertion. Entries are evicted from the
+ * probation segment in LRU order; entries exceeding capacity of the
+ * protected segment are demoted back to the probation segment. Thus entries
+ * that are used only once (e.g. due to a scan) don't flush frequently used
+ * entries from the cache.</p>
+ *
+ * <p>Optionally the cache can be bounded by a total weight of the entries
+ * computed by a {@link Weigher}, e.g. size of the cached responses in
+ * bytes.</p>
+ *
+ * <p>A {@link RemovalListener} may be registered to be notified about
+ * removed entries.</p>
+ *
+ * <p>The design is inspired by the <i>ConcurrentLinkedHashMap</i> and
+ * <i>Caffeine</i> libraries.</p>
+ */
+@ThreadSafe
+public class ConcurrentLruCache implements ListenableCache {
+
+    /**
+     * A ratio of the capacity reserved for the protected segment.
+     */
+    public static final float PROTECTED_RATIO = 0.8f;
+
+    static final int NUMBER_OF_READ_BUFFERS = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+    static final int READ_BUFFERS_MASK = NUMBER_OF_READ_BUFFERS - 1;
+
+    static final int READ_BUFFER_SIZE = 32;
+    static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    /** The number of pending reads in a buffer that triggers draining. */
+    static final int READ_BUFFER_DRAIN_THRESHOLD = 16;
+
+    private final String name;
+
+    private final int capacity;
+
+    private final int protectedCapacity;
+
+    private final long maxWeight;
+
+    private final Weigher weigher;
+
+    private final ConcurrentMap<Object, Node> store;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final AtomicReferenceArray<Node> readBuffers
+            = new AtomicReferenceArray<>(NUMBER_OF_READ_BUFFERS * READ_BUFFER_SIZE);
+
+    private final AtomicLong[] readBufferWriteCounts = new AtomicLong[NUMBER_OF_READ_BUFFERS];
+
+    private final AtomicLong[] readBufferDrainCounts = new AtomicLong[NUMBER_OF_READ_BUFFERS];
+
+    @GuardedBy("evictionLock")
+    private final LinkedNodes probation = new LinkedNodes();
+
+    @GuardedBy("evictionLock")
+    private final LinkedNodes protectedNodes = new LinkedNodes();
+
+    @GuardedBy("evictionLock")
+    private long totalWeight = 0;
+
+    @GuardedBy("evictionLock")
+    private final List<Removal> pendingRemovals = new ArrayList<>();
+
+    private volatile RemovalListener removalListener;
+
+
+    /**
+     * Create a new instance with default initial capacity.
+     *
+     * @param name An arbitrary name of this cache instance.
+     * @param capacity The maximal capacity.
+     */
+    public ConcurrentLruCache(String name, int capacity) {
+        this(name, capacity, capacity);
+    }
+
+    public ConcurrentLruCache(String name, int capacity, int initialCapacity) {
+        this(name, capacity, Long.MAX_VALUE, null, initialCapacity);
+    }
+
+    /**
+     * Create a new instance bounded by the total weight of the entries,
+     * with default initial capacity.
+     *
+     * @param name An arbitrary name of this cache instance.
+     * @param capacity The maximal capacity.
+     * @param maxWeight The maximal total weight of the entries.
+     * @param weigher The weigher to compute weights of the entries, or
+     *                {@code null} to not limit the weight.
+     */
+    public ConcurrentLruCache(String name, int capacity, long maxWeight, Weigher weigher) {
+        this(name, capacity, maxWeight, weigher, capacity);
+    }
+
+    public ConcurrentLruCache(String name, int capacity, long maxWeight, Weigher weigher, int initialCapacity) {
+        Assert.hasText(name, "name should not be blank");
+        Assert.isTrue(capacity > 0, "capacity must be greater then 0");
+        Assert.isTrue(maxWeight > 0, "maxWeight must be greater then 0");
+
+        this.name = name;
+        this.capacity = capacity;
+        this.protectedCapacity = (int) (capacity * PROTECTED_RATIO);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.store = new ConcurrentHashMap<>(initialCapacity, 0.75f, NUMBER_OF_READ_BUFFERS);
+
+        for (int i = 0; i < NUMBER_OF_READ_BUFFERS; i++) {
+            readBufferWriteCounts[i] = new AtomicLong();
+            readBufferDrainCounts[i] = new AtomicLong();
+        }
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+    public Map getNativeCache() {
+        return store;
+    }
+
+    public ValueWrapper get(Object key) {
+        Node node = store.get(key);
+
+        if (node == null) {
+            return null;
+        }
+        recordRead(node);
+
+        return node.value;
+    }
+
+    public void put(Object key, Object value) {
+        Assert.notNull(value, "value must not be null");
+
+        long weight = weigher != null ? weigher.weigh(key, value) : 0;
+
+        Node node = new Node(key, createEntry(value), weight);
+        Node prior = store.put(key, node);
+
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+
+            if (prior != null) {
+                removeNode(prior, RemovalCause.REPLACED);
+            }
+            addNode(node);
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+        notifyRemovals();
+    }
+
+    public void evict(Object key) {
+        Node node = store.remove(key);
+
+        if (node != null) {
+            evictRemoved(node);
+        }
+    }
+
+    public void clear() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+
+            for (Node node : store.values()) {
+                if (store.remove(node.key, node)) {
+                    removeNode(node, RemovalCause.EXPLICIT);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        notifyRemovals();
+    }
+
+    /**
+     * Returns the current number of entries.
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Returns the current total weight of the entries, or 0 if the weight is
+     * not limited.
+     */
+    public long getTotalWeight() {
+        evictionLock.lock();
+        try {
+            return totalWeight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void setRemovalListener(RemovalListener removalListener) {
+        this.removalListener = removalListener;
+    }
+
+
+    protected ValueWrapper createEntry(Object value) {
+        return new SimpleValueWrapper(value);
+    }
+
+    /**
+     * Removes the entry for the given key only if it's still the given one
+     * (as returned by {@link #get(Object)}), i.e. it has not been replaced
+     * by another thread meanwhile.
+     *
+     * @return Whether the entry has been removed.
+     */
+    protected boolean remove(Object key, ValueWrapper expected) {
+        Node node = store.get(key);
+
+        if (node == null || node.value != expected || !store.remove(key, node)) {
+            return false;
+        }
+        evictRemoved(node);
+
+        return true;
+    }
+
+
+    //////// Eviction policy ////////
+
+    /**
+     * Records read of the given node into the read buffer of the current
+     * thread. When the buffer is filled up to the threshold, then tries to
+     * drain read buffers, if the lock is not held by someone else.
+     */
+    /**
+     * Unlinks the node that has been explicitly removed from the store.
+     */
+    private void evictRemoved(Node node) {
+        evictionLock.lock();
+        try {
+            removeNode(node, RemovalCause.EXPLICIT);
+        } finally {
+            evictionLock.unlock();
+        }
+        notifyRemovals();
+    }
+
+    private void recordRead(Node node) {
+        int bufferIdx = (int) Thread.currentThread().getId() & READ_BUFFERS_MASK;
+
+        long writeCount = readBufferWriteCounts[bufferIdx].getAndIncrement();
+        readBuffers.lazySet(bufferIdx * READ_BUFFER_SIZE + (int) (writeCount & READ_BUFFER_MASK), node);
+
+        long pending = writeCount + 1 - readBufferDrainCounts[bufferIdx].get();
+
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies all the recorded reads to the eviction policy. Reads that have
+     * been overwritten before draining are lost.
+     */
+    @GuardedBy("evictionLock")
+    private void drainReadBuffers() {
+        for (int bufferIdx = 0; bufferIdx < NUMBER_OF_READ_BUFFERS; bufferIdx++) {
+            long writeCount = readBufferWriteCounts[bufferIdx].get();
+            long drainCount = Math.max(readBufferDrainCounts[bufferIdx].get(), writeCount - READ_BUFFER_SIZE);
+
+            for (long i = drainCount; i < writeCount; i++) {
+                int idx = bufferIdx * READ_BUFFER_SIZE + (int) (i & READ_BUFFER_MASK);
+                Node node = readBuffers.get(idx);
+
+                if (node != null) {
+                    readBuffers.lazySet(idx, null);
+                    applyRead(node);
+                }
+            }
+            readBufferDrainCounts[bufferIdx].lazySet(writeCount);
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void applyRead(Node node) {
+        if (node.segment == Segment.PROTECTED) {
+            protectedNodes.moveToTail(node);
+
+        } else if (node.segment == Segment.PROBATION && protectedCapacity > 0) {
+            probation.remove(node);
+            protectedNodes.addToTail(node);
+            node.segment = Segment.PROTECTED;
+
+            if (protectedNodes.size > protectedCapacity) {
+                Node demoted = protectedNodes.head;
+                protectedNodes.remove(demoted);
+                probation.addToTail(demoted);
+                demoted.segment = Segment.PROBATION;
+            }
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void addNode(Node node) {
+        if (node.segment == Segment.NONE) {
+            probation.addToTail(node);
+            node.segment = Segment.PROBATION;
+            totalWeight += node.weight;
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void removeNode(Node node, RemovalCause cause) {
+        if (node.segment == Segment.PROBATION) {
+            probation.remove(node);
+            totalWeight -= node.weight;
+        } else if (node.segment == Segment.PROTECTED) {
+            protectedNodes.remove(node);
+            totalWeight -= node.weight;
+        }
+        if (node.segment != Segment.DEAD && removalListener != null) {
+            pendingRemovals.add(new Removal(node.key, node.value.get(), cause));
+        }
+        node.segment = Segment.DEAD;
+    }
+
+    /**
+     * Evicts the least recently used entries from the probation segment (or
+     * the protected segment, if the probation is empty) until the cache size
+     * and the total weight is within the limits.
+     */
+    @GuardedBy("evictionLock")
+    private void evict() {
+        while (probation.size + protectedNodes.size > capacity || totalWeight > maxWeight) {
+            Node victim = probation.head != null ? probation.head : protectedNodes.head;
+            if (victim == null) {
+                break;
+            }
+
+            store.remove(victim.key, victim);
+            removeNode(victim, RemovalCause.SIZE);
+        }
+    }
+
+    /**
+     * Notifies the removal listener about the entries removed since the last
+     * call. It must not be called while holding the lock.
+     */
+    private void notifyRemovals() {
+        RemovalListener listener = removalListener;
+        List<Removal> removals;
+
+        evictionLock.lock();
+        try {
+            if (pendingRemovals.isEmpty()) {
+                return;
+            }
+            removals = new ArrayList<>(pendingRemovals);
+            pendingRemovals.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+        if (listener != null) {
+            for (Removal removal : removals) {
+                listener.onRemoval(removal.key, removal.value, removal.cause);
+            }
+        }
+    }
+
+
+    static int ceilingPowerOfTwo(int x) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(x - 1));
+    }
+
+
+    //////// Inner classes ////////
+
+    enum Segment { NONE, PROBATION, PROTECTED, DEAD }
+
+    static final class Node {
+
+        final Object key;
+        final ValueWrapper value;
+        final long weight;
+
+        @GuardedBy("evictionLock") Segment segment = Segment.NONE;
+        @GuardedBy("evictionLock") Node prev;
+        @GuardedBy("evictionLock") Node next;
+
+        Node(Object key, ValueWrapper value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A simple intrusive doubly-linked list of nodes.
+     */
+    static final class LinkedNodes {
+
+        Node head;
+        Node tail;
+        int size;
+
+        void addToTail(Node node) {
+            node.prev = tail;
+            node.next = null;
+
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToTail(Node node) {
+            if (node != tail) {
+                remove(node);
+                addToTail(node);
+            }
+        }
+    }
+}
@@ -20,16 +20,32 @@ import cz.jirutka.spring.http.client.cache.internal.CacheEntry;
 import net.jcip.annotations.Immutable;
 import org.springframework.http.HttpRequest;
 
-import java.util.Date;
-
 import static cz.jirutka.spring.http.client.cache.internal.CacheControl.parseCacheControl;
 
 @Immutable
 public class DefaultCachedEntrySuitabilityChecker implements CachedEntrySuitabilityChecker {
 
-    public boolean canCachedEntryBeUsed(HttpRequest request, CacheEntry entry, Date now) {
+    private final int defaultStaleIfError;
+
+
+    public DefaultCachedEntrySuitabilityChecker() {
+        this(0);
+    }
+
+    /**
+     * @param defaultStaleIfError For how many seconds after expiration may be
+     *                            a response used when the origin fails, if
+     *                            not specified by the <tt>stale-if-error</tt>
+     *                            directive of the response itself.
+     */
+    public DefaultCachedEntrySuitabilityChecker(int defaultStaleIfError) {
+        this.defaultStaleIfError = defaultStaleIfError;
+    }
+
+
+    public boolean canCachedEntryBeUsed(HttpRequest request, CacheEntry entry, long now) {
 
-        if (now.after(entry.getResponseExpiration())) {
+        if (now > entry.getResponseExpirationMillis()) {
             return false;
         }
         CacheControl cc = parseCacheControl(request.getHeaders());
@@ -41,8 +57,36 @@ public class DefaultCachedEntrySuitabilityChecker implements CachedEntrySuitabil
         return true;
     }
 
+    public boolean canStaleEntryBeUsedWhileRevalidating(HttpRequest request, CacheEntry entry, long now) {
+
+        if (entry.getStaleWhileRevalidate() <= 0 || entry.isMustRevalidate()) {
+            return false;
+        }
+        if (parseCacheControl(request.getHeaders()).getMaxAge() > -1) {
+            return false;
+        }
+
+        return responseStaleness(entry, now) <= entry.getStaleWhileRevalidate();
+    }
+
+    public boolean canStaleEntryBeUsedIfError(HttpRequest request, CacheEntry entry, long now) {
+
+        if (entry.isMustRevalidate()) {
+            return false;
+        }
+        int staleIfError = entry.getStaleIfError() > -1
+                ? entry.getStaleIfError()
+                : defaultStaleIfError;
+
+        return staleIfError > 0 && responseStaleness(entry, now) <= staleIfError;
+    }
+
+
+    private long responseCurrentAge(CacheEntry entry, long now) {
+        return (now - entry.getResponseCreatedMillis()) / 1000L;
+    }
 
-    private long responseCurrentAge(CacheEntry entry, Date now) {
-        return (now.getTime() - entry.getResponseCreated().getTime()) / 1000L;
+    private long responseStaleness(CacheEntry entry, long now) {
+        return (now - entry.getResponseExpirationMillis()) / 1000L;
     }
 }
@@ -30,6 +30,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import static cz.jirutka.spring.http.client.cache.internal.CacheControl.parseCacheControl;
+import static cz.jirutka.spring.http.client.cache.internal.VaryEntry.parseVaryHeader;
 import static java.util.Arrays.asList;
 
 /**
@@ -177,9 +178,8 @@ public class DefaultCachingPolicy implements CachingPolicy {
             return false;
         }
 
-        // dunno how to properly handle Vary
-        if (headers.containsKey("Vary")) {
-            log.trace("Response with Vary header is not cacheable");
+        if (parseVaryHeader(headers).contains("*")) {
+            log.trace("Response with Vary: * is not cacheable");
             return false;
         }
 
@@ -0,0 +1,716 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import cz.jirutka.spring.http.client.cache.internal.DirectBuffers;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+
+/**
+ * Persistent {@link Cache} implementation that stores entries on disk in
+ * segment files accessed through {@link MappedByteBuffer}s, with an in-memory
+ * index from keys to locations of the entries. Keys and values must be
+ * {@link java.io.Serializable}; values are serialized on put and
+ * deserialized on every get.
+ *
+ * <p>Segments are preallocated files of a fixed size. Entries are appended
+ * to the active (latest) segment as records with a header and CRC32
+ * checksum; evicted entries are recorded as tombstones. When the active
+ * segment is full, a new one is created. When the total size of segments
+ * exceeds the limit, the oldest segment is dropped with all its entries
+ * (FIFO). Segments with a large portion of dead space (overwritten or
+ * evicted entries) are compacted, i.e. their live records are copied into
+ * the active segment and the segment is deleted.</p>
+ *
+ * <p>On startup the index is recovered by scanning the segments in order.
+ * Scanning of a segment stops at the first incomplete or corrupted record,
+ * e.g. after the process crashed in the middle of a write. Segments are
+ * flushed to disk ({@link MappedByteBuffer#force()}) when they're full and
+ * when the cache is closed, so a crash of the operating system may lose the
+ * records written into the active segment since it's been created.</p>
+ *
+ * <p>Buffers of the dropped segments are unmapped explicitly (if supported
+ * by the JVM, see {@link DirectBuffers}), so the disk space of the deleted
+ * files is released immediately, not after they're garbage collected.</p>
+ *
+ * <p>The cache should be {@linkplain #close() closed} when it's not used
+ * anymore. Only one instance may use the same directory at a time.</p>
+ */
+@Slf4j
+@ThreadSafe
+public class DiskCache implements Cache, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The portion of dead space in a segment above which it's compacted.
+     */
+    public static final double COMPACTION_THRESHOLD = 0.5;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int RECORD_MAGIC = 0xCAC4E001;
+
+    // magic, key length, value length, CRC32
+    private static final int HEADER_SIZE = 16;
+
+    private static final int TOMBSTONE = -1;
+
+    private final String name;
+
+    @Getter
+    private final File directory;
+
+    private final long maxSize;
+
+    private final int segmentSize;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @GuardedBy("lock")
+    private final Map<Object, Location> index = new HashMap<>();
+
+    @GuardedBy("lock")
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+    @GuardedBy("lock")
+    private Segment active;
+
+    @GuardedBy("lock")
+    private boolean closed = false;
+
+
+    /**
+     * Create a new instance with default segment size and recover entries
+     * stored in the given directory, if any.
+     *
+     * @param name An arbitrary name of this cache instance.
+     * @param directory The directory to store segment files in.
+     * @param maxSize The maximal total size of segment files in bytes.
+     * @throws IOException if failed to create the directory or read the
+     *         segment files.
+     */
+    public DiskCache(String name, File directory, long maxSize) throws IOException {
+        this(name, directory, maxSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a new instance and recover entries stored in the given
+     * directory, if any.
+     *
+     * @param name An arbitrary name of this cache instance.
+     * @param directory The directory to store segment files in.
+     * @param maxSize The maximal total size of segment files in bytes.
+     * @param segmentSize The size of a segment file in bytes; entries bigger
+     *                    than this are not cached.
+     * @throws IOException if failed to create the directory or read the
+     *         segment files.
+     */
+    public DiskCache(String name, File directory, long maxSize, int segmentSize) throws IOException {
+        Assert.hasText(name, "name should not be blank");
+        Assert.notNull(directory, "directory must not be null");
+        Assert.isTrue(segmentSize > HEADER_SIZE, "segmentSize is too small");
+        Assert.isTrue(maxSize >= segmentSize, "maxSize must not be less then segmentSize");
+
+        this.name = name;
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory);
+        }
+        lock.writeLock().lock();
+        try {
+            recover();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+    public Object getNativeCache() {
+        return this;
+    }
+
+    public ValueWrapper get(Object key) {
+        byte[] value;
+
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            value = segments.get(location.segmentId).readValue(location);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        try {
+            return new SimpleValueWrapper(deserialize(value));
+
+        } catch (IOException | ClassNotFoundException ex) {
+            log.warn("Failed to deserialize entry {} from disk cache: {}", key, ex.toString());
+            evict(key);
+            return null;
+        }
+    }
+
+    public void put(Object key, Object value) {
+        Assert.notNull(value, "value must not be null");
+
+        byte[] keyBytes, valueBytes;
+        try {
+            keyBytes = serialize(key);
+            valueBytes = serialize(value);
+        } catch (IOException ex) {
+            log.warn("Failed to serialize entry {} for disk cache: {}", key, ex.toString());
+            evict(key);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (HEADER_SIZE + keyBytes.length + valueBytes.length > segmentSize) {
+                log.debug("Entry {} is too big to be stored in disk cache", key);
+                remove(key, keyBytes);
+            } else {
+                Location prior = index.put(key, append(keyBytes, valueBytes));
+                if (prior != null) {
+                    markDead(prior);
+                }
+            }
+            maintain();
+
+        } catch (IOException ex) {
+            log.warn("Failed to write entry {} to disk cache: {}", key, ex.toString());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void evict(Object key) {
+        byte[] keyBytes;
+        try {
+            keyBytes = serialize(key);
+        } catch (IOException ex) {
+            return;  // such key can't be in the cache
+        }
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            remove(key, keyBytes);
+            maintain();
+
+        } catch (IOException ex) {
+            log.warn("Failed to evict entry {} from disk cache: {}", key, ex.toString());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                dropSegment(segment);
+            }
+            active = createSegment(1);
+
+        } catch (IOException ex) {
+            log.warn("Failed to clear disk cache: {}", ex.toString());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the current number of entries.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the current number of segment files.
+     */
+    public int getSegmentsCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes the segments to disk and closes them. The cache must not be
+     * used anymore after that.
+     */
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active = null;
+
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            index.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    //////// Internal operations ////////
+
+    /**
+     * Ensures that the cache has not been closed, the segments are unmapped
+     * then, so any access would crash the JVM.
+     */
+    @GuardedBy("lock")
+    private void ensureOpen() {
+        Assert.state(!closed, "Disk cache " + name + " has been already closed");
+    }
+
+    /**
+     * Loads the segment files and rebuilds the index from their records.
+     */
+    @GuardedBy("lock")
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().matches("[0-9]+\\" + SEGMENT_SUFFIX);
+            }
+        });
+        int[] ids = new int[files != null ? files.length : 0];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Integer.parseInt(files[i].getName().replace(SEGMENT_SUFFIX, ""));
+        }
+        Arrays.sort(ids);
+
+        for (int id : ids) {
+            Segment segment = Segment.open(segmentFile(id), id, segmentSize);
+            segments.put(id, segment);
+
+            Record record;
+            int offset = 0;
+
+            while ((record = segment.readRecord(offset)) != null) {
+                Object key;
+                try {
+                    key = deserialize(record.key);
+                } catch (IOException | ClassNotFoundException ex) {
+                    log.warn("Corrupted record in segment {} at offset {}", id, offset);
+                    break;
+                }
+                Location prior = record.value != null
+                        ? index.put(key, new Location(id, offset, record.key.length, record.value.length))
+                        : index.remove(key);
+                if (prior != null) {
+                    markDead(prior);
+                }
+                if (record.value != null) {
+                    segment.liveBytes += record.size();
+                }
+                offset += record.size();
+            }
+            segment.writePosition = offset;
+        }
+        active = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+        maintain();
+
+        log.info("Recovered {} entries from {} segments in {}", index.size(), segments.size(), directory);
+    }
+
+    /**
+     * Removes the key from the index and records a tombstone for it.
+     */
+    @GuardedBy("lock")
+    private void remove(Object key, byte[] keyBytes) throws IOException {
+        Location prior = index.remove(key);
+
+        if (prior != null) {
+            markDead(prior);
+            append(keyBytes, null);
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, or to a new one if the active
+     * segment is full.
+     *
+     * @param value The value, or {@code null} for a tombstone.
+     */
+    @GuardedBy("lock")
+    private Location append(byte[] key, byte[] value) throws IOException {
+        int size = HEADER_SIZE + key.length + (value != null ? value.length : 0);
+
+        if (active.remaining() < size) {
+            active.flush();
+            active = createSegment(active.id + 1);
+        }
+        return active.append(key, value);
+    }
+
+    @GuardedBy("lock")
+    private void markDead(Location location) {
+        Segment segment = segments.get(location.segmentId);
+
+        if (segment != null) {
+            segment.liveBytes -= location.size();
+        }
+    }
+
+    /**
+     * Drops the oldest segments while the total size exceeds the limit and
+     * compacts one of the segments with too much dead space, if any.
+     */
+    @GuardedBy("lock")
+    private void maintain() throws IOException {
+        while ((long) segments.size() * segmentSize > maxSize && segments.size() > 1) {
+            dropSegment(segments.firstEntry().getValue());
+        }
+        for (Segment segment : segments.values()) {
+            if (segment != active && segment.deadRatio() > COMPACTION_THRESHOLD) {
+                compact(segment);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Copies live records from the given segment into the active segment and
+     * deletes it. Tombstones are copied as well, unless the segment is the
+     * oldest one, because older records of the same key may still exist.
+     */
+    @GuardedBy("lock")
+    private void compact(Segment segment) throws IOException {
+        boolean oldest = segment.id == segments.firstKey();
+
+        Record record;
+        for (int offset = 0; offset < segment.writePosition; offset += record.size()) {
+            record = segment.readRecord(offset);
+            if (record == null) {
+                break;
+            }
+            Object key;
+            try {
+                key = deserialize(record.key);
+            } catch (IOException | ClassNotFoundException ex) {
+                break;  // should not happen, it's been already read on recovery
+            }
+            Location current = index.get(key);
+
+            if (record.value != null) {
+                if (current != null && current.segmentId == segment.id && current.offset == offset) {
+                    index.put(key, append(record.key, record.value));
+                }
+            } else if (current == null && !oldest) {
+                append(record.key, null);
+            }
+        }
+        log.debug("Compacted segment {} of disk cache {}", segment.id, name);
+        dropSegment(segment);
+    }
+
+    /**
+     * Removes all entries of the given segment from the index and deletes
+     * the segment file.
+     */
+    @GuardedBy("lock")
+    private void dropSegment(Segment segment) throws IOException {
+        for (Iterator<Location> it = index.values().iterator(); it.hasNext(); ) {
+            if (it.next().segmentId == segment.id) {
+                it.remove();
+            }
+        }
+        segments.remove(segment.id);
+        segment.release();
+
+        if (!segment.file.delete()) {
+            log.warn("Failed to delete segment file: {}", segment.file);
+        }
+    }
+
+    @GuardedBy("lock")
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = Segment.open(segmentFile(id), id, segmentSize);
+        segments.put(id, segment);
+
+        return segment;
+    }
+
+    private File segmentFile(int id) {
+        return new File(directory, String.format("%08d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+
+    //////// Inner classes ////////
+
+    /**
+     * Location of a record in a segment.
+     */
+    static final class Location {
+
+        final int segmentId;
+        final int offset;
+        final int keyLength;
+        final int valueLength;
+
+        Location(int segmentId, int offset, int keyLength, int valueLength) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+        }
+
+        int size() {
+            return HEADER_SIZE + keyLength + valueLength;
+        }
+    }
+
+    static final class Record {
+
+        final byte[] key;
+        final byte[] value;
+
+        Record(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        int size() {
+            return HEADER_SIZE + key.length + (value != null ? value.length : 0);
+        }
+    }
+
+    /**
+     * Segment file mapped into memory. Records have the following format:
+     * magic number, key length, value length (or -1 for a tombstone), CRC32
+     * of the key and value (all 32bit integers), serialized key and
+     * serialized value.
+     */
+    @NotThreadSafe
+    static final class Segment {
+
+        final int id;
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        int writePosition = 0;
+        long liveBytes = 0;
+
+        private Segment(int id, File file, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(File file, int id, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(READ_WRITE, 0, (int) Math.min(raf.length(), Integer.MAX_VALUE));
+
+                return new Segment(id, file, channel, buffer);
+
+            } catch (IOException | RuntimeException ex) {
+                raf.close();
+                throw ex;
+            }
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        double deadRatio() {
+            return writePosition > 0 ? 1.0 - (double) liveBytes / writePosition : 0.0;
+        }
+
+        Location append(byte[] key, byte[] value) {
+            int valueLength = value != null ? value.length : TOMBSTONE;
+
+            ByteBuffer buf = buffer.duplicate();
+            buf.position(writePosition + 4);
+            buf.putInt(key.length).putInt(valueLength).putInt(checksum(key, value)).put(key);
+            if (value != null) {
+                buf.put(value);
+            }
+            // terminate the records, so nothing after this one is recognized
+            if (buf.remaining() >= 4) {
+                buf.putInt(buf.position(), 0);
+            }
+            // the magic is written last, so an incomplete record is not recognized
+            buffer.putInt(writePosition, RECORD_MAGIC);
+
+            Location location = new Location(id, writePosition, key.length, Math.max(valueLength, 0));
+            writePosition = buf.position();
+
+            if (value != null) {
+                liveBytes += location.size();
+            }
+            return location;
+        }
+
+        /**
+         * Reads a record at the given offset.
+         *
+         * @return The record, or {@code null} if there's no valid record.
+         */
+        Record readRecord(int offset) {
+            if (offset > buffer.capacity() - HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer buf = buffer.duplicate();
+            buf.position(offset);
+
+            if (buf.getInt() != RECORD_MAGIC) {
+                return null;
+            }
+            int keyLength = buf.getInt();
+            int valueLength = buf.getInt();
+            int crc = buf.getInt();
+
+            if (keyLength <= 0 || keyLength > buf.remaining() || valueLength < TOMBSTONE
+                    || valueLength > buf.remaining() - keyLength) {
+                return null;
+            }
+            byte[] key = new byte[keyLength];
+            buf.get(key);
+
+            byte[] value = null;
+            if (valueLength != TOMBSTONE) {
+                value = new byte[valueLength];
+                buf.get(value);
+            }
+            return checksum(key, value) == crc ? new Record(key, value) : null;
+        }
+
+        byte[] readValue(Location location) {
+            ByteBuffer buf = buffer.duplicate();
+            buf.position(location.offset + HEADER_SIZE + location.keyLength);
+
+            byte[] value = new byte[location.valueLength];
+            buf.get(value);
+
+            return value;
+        }
+
+        /**
+         * Writes changes of the mapped buffer to the file.
+         */
+        void flush() {
+            buffer.force();
+        }
+
+        /**
+         * Flushes, unmaps and closes the segment.
+         */
+        void close() throws IOException {
+            flush();
+            release();
+        }
+
+        /**
+         * Unmaps and closes the segment without flushing, e.g. before
+         * deleting its file.
+         */
+        void release() throws IOException {
+            DirectBuffers.unmap(buffer);
+            channel.close();
+        }
+
+        private static int checksum(byte[] key, byte[] value) {
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            if (value != null) {
+                crc.update(value);
+            }
+            return (int) crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import lombok.Getter;
+import net.jcip.annotations.Immutable;
+import org.springframework.util.Assert;
+
+import java.io.Serializable;
+
+/**
+ * A fixed-size cache key that holds a 128-bit digest (MurmurHash3 x64 128)
+ * of the request method and URI, instead of the URI itself. The digest is
+ * computed directly from the method name and the URI, without concatenating
+ * them.
+ *
+ * <p>Optionally, the key may retain the method and URI to verify equality
+ * of keys with the same digest. Otherwise two keys are considered equal
+ * when their digests are equal; the probability of a collision is
+ * negligible for any realistic number of cached URIs.</p>
+ */
+@Immutable
+public final class HashedCacheKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * The higher 64 bits of the digest.
+     */
+    @Getter
+    private final long high;
+
+    /**
+     * The lower 64 bits of the digest.
+     */
+    @Getter
+    private final long low;
+
+    private final String method;
+
+    private final String uri;
+
+
+    private HashedCacheKey(long high, long low, String method, String uri) {
+        this.high = high;
+        this.low = low;
+        this.method = method;
+        this.uri = uri;
+    }
+
+    /**
+     * Creates a key for the given method and URI.
+     *
+     * @param method The request method.
+     * @param uri The request URI (normalized, if desired).
+     * @param retainUri Whether to retain the method and URI for verification
+     *                  of equality, in case of a digest collision.
+     */
+    public static HashedCacheKey of(String method, String uri, boolean retainUri) {
+        Assert.notNull(method, "method must not be null");
+        Assert.notNull(uri, "uri must not be null");
+
+        // the hashed data are UTF-16LE code units of "method:uri"
+        int length = method.length() + 1 + uri.length();
+        long h1 = 0, h2 = 0;
+        int i = 0;
+
+        for (; i + 8 <= length; i += 8) {
+            long k1 = pack(method, uri, i, 4);
+            long k2 = pack(method, uri, i + 4, 4);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int remaining = length - i;
+        if (remaining > 4) {
+            h2 ^= mixK2(pack(method, uri, i + 4, remaining - 4));
+        }
+        if (remaining > 0) {
+            h1 ^= mixK1(pack(method, uri, i, Math.min(remaining, 4)));
+        }
+
+        h1 ^= length * 2L;
+        h2 ^= length * 2L;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        return retainUri
+                ? new HashedCacheKey(h1, h2, method, uri)
+                : new HashedCacheKey(h1, h2, null, null);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return (int) low;
+    }
+
+    /**
+     * Two keys are equal when their digests are equal and, if both retain
+     * the method and URI, when these are equal too.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof HashedCacheKey)) {
+            return false;
+        }
+        HashedCacheKey other = (HashedCacheKey) obj;
+
+        if (high != other.high || low != other.low) {
+            return false;
+        }
+        if (uri != null && other.uri != null) {
+            return method.equals(other.method) && uri.equals(other.uri);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        String digest = String.format("%016x%016x", high, low);
+        return uri != null ? digest + " " + method + ":" + uri : digest;
+    }
+
+
+    /**
+     * Packs the specified number (at most 4) of chars of "method:uri",
+     * starting at the given index, into a long, in little-endian order.
+     */
+    private static long pack(String method, String uri, int index, int count) {
+        long result = 0;
+
+        for (int j = 0; j < count; j++) {
+            result |= (long) charAt(method, uri, index + j) << (16 * j);
+        }
+        return result;
+    }
+
+    private static char charAt(String method, String uri, int index) {
+        int methodLength = method.length();
+
+        if (index < methodLength) {
+            return method.charAt(index);
+        } else if (index == methodLength) {
+            return ':';
+        } else {
+            return uri.charAt(index - methodLength - 1);
+        }
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import net.jcip.annotations.Immutable;
+import org.springframework.http.HttpRequest;
+
+import java.net.URI;
+
+/**
+ * {@link CacheKeyGenerator} that creates compact {@link HashedCacheKey}s,
+ * i.e. keys of a fixed size regardless of the URI length.
+ */
+@Immutable
+public class HashedCacheKeyGenerator implements CacheKeyGenerator {
+
+    private final NormalizingCacheKeyGenerator normalizer;
+
+    private final boolean retainUri;
+
+
+    /**
+     * Creates a generator that hashes URIs as is and doesn't retain them.
+     */
+    public HashedCacheKeyGenerator() {
+        this(null, false);
+    }
+
+    /**
+     * @param normalizer The normalizer of URIs to hash, or {@code null} to
+     *                   hash them as is.
+     * @param retainUri Whether to retain the URI in keys to verify equality
+     *                  in case of a digest collision; this costs memory.
+     */
+    public HashedCacheKeyGenerator(NormalizingCacheKeyGenerator normalizer, boolean retainUri) {
+        this.normalizer = normalizer;
+        this.retainUri = retainUri;
+    }
+
+
+    public HashedCacheKey createKey(HttpRequest request) {
+        URI uri = request.getURI();
+
+        return HashedCacheKey.of(request.getMethod().name(),
+                normalizer != null ? normalizer.normalize(uri) : uri.toString(), retainUri);
+    }
+}
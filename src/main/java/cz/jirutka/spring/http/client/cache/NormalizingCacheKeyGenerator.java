@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import net.jcip.annotations.Immutable;
+import org.springframework.http.HttpRequest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * {@link CacheKeyGenerator} that normalizes the request URI, so equivalent
+ * URIs are mapped to the same key. It:
+ *
+ * <ul>
+ *   <li>lowercases the scheme and host,</li>
+ *   <li>drops the default port (80 for http, 443 for https),</li>
+ *   <li>replaces an empty path with <tt>/</tt> and removes dot segments,</li>
+ *   <li>decodes percent-encoded unreserved characters and uppercases hex
+ *       digits of the other percent-encoded characters,</li>
+ *   <li>sorts query parameters by name (values of a repeated parameter
+ *       keep their order), drops empty and ignored parameters and an empty
+ *       query,</li>
+ *   <li>drops the fragment.</li>
+ * </ul>
+ *
+ * @see <a href="http://tools.ietf.org/html/rfc3986#section-6.2.2">RFC 3986 section 6.2.2</a>
+ */
+@Immutable
+public class NormalizingCacheKeyGenerator implements CacheKeyGenerator {
+
+    private static final Comparator<String> BY_PARAM_NAME = new Comparator<String>() {
+        public int compare(String p1, String p2) {
+            return paramName(p1).compareTo(paramName(p2));
+        }
+    };
+
+    private final Set<String> ignoredParams;
+
+
+    public NormalizingCacheKeyGenerator() {
+        this(Collections.<String>emptySet());
+    }
+
+    /**
+     * @param ignoredParams Names of the query parameters to ignore, e.g.
+     *                      tracking parameters like <tt>utm_source</tt>.
+     */
+    public NormalizingCacheKeyGenerator(Collection<String> ignoredParams) {
+        this.ignoredParams = ignoredParams.isEmpty()
+                ? Collections.<String>emptySet()
+                : unmodifiableSet(new HashSet<>(ignoredParams));
+    }
+
+
+    public String createKey(HttpRequest request) {
+        return request.getMethod().name() + ":" + normalize(request.getURI());
+    }
+
+    /**
+     * Returns the normalized form of the given URI. An opaque URI, or URI
+     * without a host, is returned as is.
+     */
+    public String normalize(URI uri) {
+        if (uri.isOpaque() || uri.getHost() == null) {
+            return uri.toString();
+        }
+        uri = uri.normalize();
+
+        String scheme = uri.getScheme().toLowerCase();
+        StringBuilder sb = new StringBuilder(scheme).append("://");
+
+        if (uri.getRawUserInfo() != null) {
+            sb.append(uri.getRawUserInfo()).append('@');
+        }
+        sb.append(uri.getHost().toLowerCase());
+
+        int port = uri.getPort();
+        if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https"))) {
+            sb.append(':').append(port);
+        }
+
+        String path = uri.getRawPath();
+        sb.append(path == null || path.isEmpty() ? "/" : normalizeEscapes(path));
+
+        String query = uri.getRawQuery();
+        if (query != null && !query.isEmpty()) {
+            appendQuery(sb, query);
+        }
+        return sb.toString();
+    }
+
+
+    private void appendQuery(StringBuilder sb, String query) {
+        List<String> params = new ArrayList<>();
+
+        for (String param : query.split("&")) {
+            if (!param.isEmpty()) {
+                param = normalizeEscapes(param);
+                if (!ignoredParams.contains(paramName(param))) {
+                    params.add(param);
+                }
+            }
+        }
+        // stable sort, so values of a repeated parameter keep their order
+        Collections.sort(params, BY_PARAM_NAME);
+
+        for (int i = 0; i < params.size(); i++) {
+            sb.append(i == 0 ? '?' : '&').append(params.get(i));
+        }
+    }
+
+    private static String paramName(String param) {
+        int idx = param.indexOf('=');
+        return idx >= 0 ? param.substring(0, idx) : param;
+    }
+
+    /**
+     * Decodes percent-encoded unreserved characters and uppercases hex digits
+     * of the other percent-encoded characters.
+     */
+    private static String normalizeEscapes(String str) {
+        if (str.indexOf('%') < 0) {
+            return str;
+        }
+        StringBuilder sb = new StringBuilder(str.length());
+
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            int hi, lo;
+
+            if (ch == '%' && i + 2 < str.length()
+                    && (hi = Character.digit(str.charAt(i + 1), 16)) >= 0
+                    && (lo = Character.digit(str.charAt(i + 2), 16)) >= 0) {
+
+                char decoded = (char) (hi << 4 | lo);
+                if (isUnreserved(decoded)) {
+                    sb.append(decoded);
+                } else {
+                    sb.append('%').append(Character.toUpperCase(str.charAt(i + 1)))
+                            .append(Character.toUpperCase(str.charAt(i + 2)));
+                }
+                i += 2;
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isUnreserved(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+                || ch == '-' || ch == '.' || ch == '_' || ch == '~';
+    }
+}
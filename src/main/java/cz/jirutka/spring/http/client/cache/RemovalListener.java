@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+/**
+ * Listener that is notified when an entry is removed from the cache, e.g.
+ * to release resources held by the entry.
+ *
+ * <p>The listener is invoked after the entry has been removed, generally
+ * outside of the cache's internal locks, and it may be invoked concurrently
+ * from multiple threads.</p>
+ */
+public interface RemovalListener {
+
+    /**
+     * @param key The key of the removed entry.
+     * @param value The removed value, or {@code null} if it has been already
+     *              collected by GC (for caches with soft references).
+     * @param cause The reason why the entry has been removed.
+     */
+    void onRemoval(Object key, Object value, RemovalCause cause);
+
+
+    enum RemovalCause {
+
+        /**
+         * The entry has been removed explicitly by {@link
+         * org.springframework.cache.Cache#evict(Object) evict} or {@link
+         * org.springframework.cache.Cache#clear() clear}.
+         */
+        EXPLICIT,
+
+        /**
+         * The entry has been replaced by a new value for the same key.
+         */
+        REPLACED,
+
+        /**
+         * The entry has been evicted, because the cache exceeded its
+         * capacity or maximal weight.
+         */
+        SIZE
+    }
+}
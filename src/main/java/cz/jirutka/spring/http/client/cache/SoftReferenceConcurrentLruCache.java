@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import cz.jirutka.spring.http.client.cache.SoftReferenceSynchronizedLruCache.SoftReferenceWrapper;
+import net.jcip.annotations.ThreadSafe;
+
+@ThreadSafe
+public class SoftReferenceConcurrentLruCache extends ConcurrentLruCache {
+
+    /**
+     * Create a new instance with default initial capacity.
+     *
+     * @param name An arbitrary name of this cache instance.
+     * @param capacity The maximal capacity.
+     */
+    public SoftReferenceConcurrentLruCache(String name, int capacity) {
+        super(name, capacity);
+    }
+
+    public SoftReferenceConcurrentLruCache(String name, int capacity, int initialCapacity) {
+        super(name, capacity, initialCapacity);
+    }
+
+    /**
+     * Create a new instance bounded by the total weight of the entries.
+     *
+     * @param name An arbitrary name of this cache instance.
+     * @param capacity The maximal capacity.
+     * @param maxWeight The maximal total weight of the entries.
+     * @param weigher The weigher to compute weights of the entries, or
+     *                {@code null} to not limit the weight.
+     */
+    public SoftReferenceConcurrentLruCache(String name, int capacity, long maxWeight, Weigher weigher) {
+        super(name, capacity, maxWeight, weigher);
+    }
+
+
+    @Override
+    public ValueWrapper get(Object key) {
+        ValueWrapper wrapped = super.get(key);
+
+        if (wrapped != null && wrapped.get() == null) {
+            // remove entry from cache if it's not valid, perhaps removed by GC;
+            // only this one, another thread may have put a new value meanwhile
+            remove(key, wrapped);
+        }
+        return wrapped;
+    }
+
+    @Override
+    protected ValueWrapper createEntry(Object value) {
+        return new SoftReferenceWrapper(value);
+    }
+}
@@ -36,6 +36,19 @@ public class SoftReferenceSynchronizedLruCache extends SynchronizedLruCache {
         super(name, capacity, initialCapacity, loadFactory);
     }
 
+    /**
+     * Create a new instance bounded by the total weight of the entries.
+     *
+     * @param name An arbitrary name of this cache instance.
+     * @param capacity The maximal capacity.
+     * @param maxWeight The maximal total weight of the entries.
+     * @param weigher The weigher to compute weights of the entries, or
+     *                {@code null} to not limit the weight.
+     */
+    public SoftReferenceSynchronizedLruCache(String name, int capacity, long maxWeight, Weigher weigher) {
+        super(name, capacity, maxWeight, weigher);
+    }
+
 
     @Override
     public synchronized ValueWrapper get(Object key) {
@@ -15,20 +15,33 @@
  */
 package cz.jirutka.spring.http.client.cache;
 
+import cz.jirutka.spring.http.client.cache.RemovalListener.RemovalCause;
+import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 import org.springframework.cache.Cache;
 import org.springframework.cache.support.SimpleValueWrapper;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Simple LRU {@link Cache} implementation with adjustable capacity limit
  * based on {@link LinkedHashMap} from JDK.
+ *
+ * <p>Optionally the cache can be bounded by a total weight of the entries
+ * computed by a {@link Weigher}, e.g. size of the cached responses in bytes.
+ * Then the least recently used entries are evicted until the total weight
+ * is within the limit.</p>
+ *
+ * <p>A {@link RemovalListener} may be registered to be notified about
+ * removed entries.</p>
  */
 @ThreadSafe
-public class SynchronizedLruCache implements Cache {
+public class SynchronizedLruCache implements ListenableCache {
 
     public static final int DEFAULT_INITIAL_CAPACITY = 16;
 
@@ -38,8 +51,21 @@ public class SynchronizedLruCache implements Cache {
 
     private final int capacity;
 
+    private final long maxWeight;
+
+    private final Weigher weigher;
+
+    @GuardedBy("this")
     private final LinkedHashMap<Object, ValueWrapper> store;
 
+    @GuardedBy("this")
+    private long totalWeight = 0;
+
+    @GuardedBy("this")
+    private final List<Removal> pendingRemovals = new ArrayList<>();
+
+    private volatile RemovalListener removalListener;
+
 
     /**
      * Create a new instance with default initial capacity and load factor.
@@ -48,21 +74,45 @@ public class SynchronizedLruCache implements Cache {
      * @param capacity The maximal capacity.
      */
     public SynchronizedLruCache(String name, int capacity) {
-        this(name, capacity,
-             DEFAULT_INITIAL_CAPACITY > capacity ? capacity : DEFAULT_INITIAL_CAPACITY,
-             DEFAULT_LOAD_FACTOR);
+        this(name, capacity, defaultInitialCapacity(capacity), DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Create a new instance bounded by the total weight of the entries,
+     * with default initial capacity and load factor.
+     *
+     * @param name An arbitrary name of this cache instance.
+     * @param capacity The maximal capacity.
+     * @param maxWeight The maximal total weight of the entries.
+     * @param weigher The weigher to compute weights of the entries, or
+     *                {@code null} to not limit the weight.
+     */
+    public SynchronizedLruCache(String name, int capacity, long maxWeight, Weigher weigher) {
+        this(name, capacity, maxWeight, weigher, defaultInitialCapacity(capacity), DEFAULT_LOAD_FACTOR);
     }
 
     public SynchronizedLruCache(String name, int capacity, int initialCapacity, float loadFactory) {
+        this(name, capacity, Long.MAX_VALUE, null, initialCapacity, loadFactory);
+    }
+
+    public SynchronizedLruCache(String name, int capacity, long maxWeight, Weigher weigher,
+                                int initialCapacity, float loadFactory) {
         Assert.hasText(name, "name should not be blank");
         Assert.isTrue(capacity > 0, "capacity must be greater then 0");
+        Assert.isTrue(maxWeight > 0, "maxWeight must be greater then 0");
 
         this.name = name;
         this.capacity = capacity;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
 
         this.store = new LinkedHashMap<Object, ValueWrapper>(initialCapacity, loadFactory, true) {
-            protected boolean removeEldestEntry(Map.Entry eldest) {
-                return this.size() > SynchronizedLruCache.this.capacity;
+            protected boolean removeEldestEntry(Map.Entry<Object, ValueWrapper> eldest) {
+                if (this.size() > SynchronizedLruCache.this.capacity) {
+                    onRemoval(eldest.getKey(), eldest.getValue(), RemovalCause.SIZE);
+                    return true;
+                }
+                return false;
             }
         };
     }
@@ -80,22 +130,146 @@ public class SynchronizedLruCache implements Cache {
         return store.get(key);
     }
 
-    public synchronized void put(Object key, Object value) {
+    public void put(Object key, Object value) {
         Assert.notNull(value, "value must not be null");
 
-        store.put(key, createEntry(value));
+        synchronized (this) {
+            ValueWrapper entry = createEntry(value);
+
+            if (weigher != null) {
+                long weight = weigher.weigh(key, value);
+                entry = new WeightedValueWrapper(entry, weight);
+                totalWeight += weight;
+            }
+            ValueWrapper prior = store.put(key, entry);
+            if (prior != null) {
+                onRemoval(key, prior, RemovalCause.REPLACED);
+            }
+            evictExcessiveWeight();
+        }
+        notifyRemovals();
+    }
+
+    public void evict(Object key) {
+        synchronized (this) {
+            ValueWrapper removed = store.remove(key);
+            if (removed != null) {
+                onRemoval(key, removed, RemovalCause.EXPLICIT);
+            }
+        }
+        notifyRemovals();
     }
 
-    public synchronized void evict(Object key) {
-        store.remove(key);
+    public void clear() {
+        synchronized (this) {
+            if (removalListener != null) {
+                for (Map.Entry<Object, ValueWrapper> entry : store.entrySet()) {
+                    onRemoval(entry.getKey(), entry.getValue(), RemovalCause.EXPLICIT);
+                }
+            }
+            store.clear();
+            totalWeight = 0;
+        }
+        notifyRemovals();
     }
 
-    public synchronized void clear() {
-        store.clear();
+    /**
+     * Returns the current total weight of the entries, or 0 if the weight is
+     * not limited.
+     */
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    public void setRemovalListener(RemovalListener removalListener) {
+        this.removalListener = removalListener;
     }
 
 
     protected ValueWrapper createEntry(Object value) {
         return new SimpleValueWrapper(value);
     }
+
+
+    @GuardedBy("this")
+    private void onRemoval(Object key, ValueWrapper entry, RemovalCause cause) {
+        if (entry instanceof WeightedValueWrapper) {
+            totalWeight -= ((WeightedValueWrapper) entry).weight;
+        }
+        if (removalListener != null) {
+            pendingRemovals.add(new Removal(key, entry.get(), cause));
+        }
+    }
+
+    /**
+     * Notifies the removal listener about the entries removed since the last
+     * call. It must not be called while holding the lock.
+     */
+    private void notifyRemovals() {
+        RemovalListener listener = removalListener;
+        List<Removal> removals;
+
+        synchronized (this) {
+            if (pendingRemovals.isEmpty()) {
+                return;
+            }
+            removals = new ArrayList<>(pendingRemovals);
+            pendingRemovals.clear();
+        }
+        if (listener != null) {
+            for (Removal removal : removals) {
+                listener.onRemoval(removal.key, removal.value, removal.cause);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the total weight is
+     * within the limit.
+     */
+    @GuardedBy("this")
+    private void evictExcessiveWeight() {
+        Iterator<Map.Entry<Object, ValueWrapper>> it = store.entrySet().iterator();
+
+        while (totalWeight > maxWeight && it.hasNext()) {
+            Map.Entry<Object, ValueWrapper> eldest = it.next();
+            it.remove();
+            onRemoval(eldest.getKey(), eldest.getValue(), RemovalCause.SIZE);
+        }
+    }
+
+    private static int defaultInitialCapacity(int capacity) {
+        return DEFAULT_INITIAL_CAPACITY > capacity ? capacity : DEFAULT_INITIAL_CAPACITY;
+    }
+
+
+    //////// Inner classes ////////
+
+    static final class Removal {
+
+        final Object key;
+        final Object value;
+        final RemovalCause cause;
+
+        Removal(Object key, Object value, RemovalCause cause) {
+            this.key = key;
+            this.value = value;
+            this.cause = cause;
+        }
+    }
+
+    static class WeightedValueWrapper implements ValueWrapper {
+
+        private final ValueWrapper delegate;
+        private final long weight;
+
+        WeightedValueWrapper(ValueWrapper delegate, long weight) {
+            this.delegate = delegate;
+            this.weight = weight;
+        }
+
+        public Object get() {
+            return delegate.get();
+        }
+    }
 }
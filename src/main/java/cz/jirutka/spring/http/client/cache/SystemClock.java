@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * {@link Clock} that returns the system time, i.e.
+ * {@link System#currentTimeMillis()}.
+ */
+@Immutable
+public final class SystemClock implements Clock {
+
+    public static final SystemClock INSTANCE = new SystemClock();
+
+
+    private SystemClock() {
+    }
+
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.cache.Cache;
+import org.springframework.util.Assert;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier {@link Cache} composed of a small and fast first-level cache (e.g.
+ * {@link ConcurrentLruCache}) and a bigger and slower second-level cache
+ * (e.g. {@link DiskCache}). The tiers are exclusive, i.e. an entry is stored
+ * in one of them only.
+ *
+ * <p>New entries are put into the first-level cache. Entries evicted from it
+ * due to its size limits are demoted to the second-level cache. Entries
+ * found in the second-level cache are promoted back to the first-level cache
+ * when they've been accessed there for the
+ * {@linkplain #setPromotionThreshold(int) promotion threshold} times.</p>
+ *
+ * <p>The first-level cache must not have any other removal listener, this
+ * cache registers itself as its listener.</p>
+ */
+@ThreadSafe
+public class TieredCache implements Cache, RemovalListener {
+
+    public static final int DEFAULT_PROMOTION_THRESHOLD = 2;
+
+    /**
+     * The maximal number of keys to track access frequency for.
+     */
+    private static final int MAX_TRACKED_KEYS = 1024;
+
+    private final String name;
+
+    private final ListenableCache firstLevel;
+
+    private final Cache secondLevel;
+
+    private volatile int promotionThreshold = DEFAULT_PROMOTION_THRESHOLD;
+
+    @GuardedBy("frequencies")
+    private final Map<Object, Integer> frequencies = new LinkedHashMap<Object, Integer>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Object, Integer> eldest) {
+            return size() > MAX_TRACKED_KEYS;
+        }
+    };
+
+    private final AtomicLong firstLevelHits = new AtomicLong();
+    private final AtomicLong secondLevelHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong promotions = new AtomicLong();
+    private final AtomicLong demotions = new AtomicLong();
+
+
+    /**
+     * @param name An arbitrary name of this cache instance.
+     * @param firstLevel The first-level (fast) cache.
+     * @param secondLevel The second-level (big) cache.
+     */
+    public TieredCache(String name, ListenableCache firstLevel, Cache secondLevel) {
+        Assert.hasText(name, "name should not be blank");
+        Assert.notNull(firstLevel, "firstLevel must not be null");
+        Assert.notNull(secondLevel, "secondLevel must not be null");
+
+        this.name = name;
+        this.firstLevel = firstLevel;
+        this.secondLevel = secondLevel;
+
+        firstLevel.setRemovalListener(this);
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+    public Object getNativeCache() {
+        return this;
+    }
+
+    public ValueWrapper get(Object key) {
+        ValueWrapper wrapper = firstLevel.get(key);
+
+        if (wrapper != null && wrapper.get() != null) {
+            firstLevelHits.incrementAndGet();
+            return wrapper;
+        }
+        wrapper = secondLevel.get(key);
+
+        if (wrapper == null || wrapper.get() == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        secondLevelHits.incrementAndGet();
+
+        if (recordAccess(key)) {
+            // evict first, the put may demote the entry right back
+            secondLevel.evict(key);
+            firstLevel.put(key, wrapper.get());
+            promotions.incrementAndGet();
+        }
+        return wrapper;
+    }
+
+    public void put(Object key, Object value) {
+        // evict first, the put may demote the entry right back
+        secondLevel.evict(key);
+        firstLevel.put(key, value);
+    }
+
+    public void evict(Object key) {
+        firstLevel.evict(key);
+        secondLevel.evict(key);
+    }
+
+    public void clear() {
+        firstLevel.clear();
+        secondLevel.clear();
+
+        synchronized (frequencies) {
+            frequencies.clear();
+        }
+    }
+
+    /**
+     * Demotes entries evicted from the first-level cache due to its size
+     * limits to the second-level cache.
+     */
+    public void onRemoval(Object key, Object value, RemovalCause cause) {
+        if (cause == RemovalCause.SIZE && value != null) {
+            secondLevel.put(key, value);
+            demotions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sets how many times an entry must be accessed in the second-level
+     * cache to be promoted to the first-level cache. The default is
+     * {@value #DEFAULT_PROMOTION_THRESHOLD}.
+     */
+    public void setPromotionThreshold(int promotionThreshold) {
+        Assert.isTrue(promotionThreshold > 0, "promotionThreshold must be greater then 0");
+        this.promotionThreshold = promotionThreshold;
+    }
+
+    public int getPromotionThreshold() {
+        return promotionThreshold;
+    }
+
+    /**
+     * Returns number of hits in the first-level cache.
+     */
+    public long getFirstLevelHitCount() {
+        return firstLevelHits.get();
+    }
+
+    /**
+     * Returns number of hits in the second-level cache, i.e. misses in the
+     * first-level cache that have been found in the second-level cache.
+     */
+    public long getSecondLevelHitCount() {
+        return secondLevelHits.get();
+    }
+
+    /**
+     * Returns number of misses in both levels.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns number of entries promoted to the first-level cache.
+     */
+    public long getPromotionCount() {
+        return promotions.get();
+    }
+
+    /**
+     * Returns number of entries demoted to the second-level cache.
+     */
+    public long getDemotionCount() {
+        return demotions.get();
+    }
+
+
+    /**
+     * Records access to the key in the second-level cache.
+     *
+     * @return Whether the entry should be promoted.
+     */
+    private boolean recordAccess(Object key) {
+        synchronized (frequencies) {
+            Integer count = frequencies.get(key);
+            count = count != null ? count + 1 : 1;
+
+            if (count >= promotionThreshold) {
+                frequencies.remove(key);
+                return true;
+            }
+            frequencies.put(key, count);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache;
+
+/**
+ * Calculates weights of cache entries, i.e. how much of the cache's
+ * capacity they take.
+ */
+public interface Weigher {
+
+    /**
+     * Returns the weight of the given entry. It must be non-negative.
+     *
+     * @param key The key of the entry.
+     * @param value The value of the entry.
+     * @return The entry's weight.
+     */
+    long weigh(Object key, Object value);
+}
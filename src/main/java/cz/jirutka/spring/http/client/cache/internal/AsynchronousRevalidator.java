@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import cz.jirutka.spring.http.client.cache.CacheKeyGenerator;
+import cz.jirutka.spring.http.client.cache.SimpleCacheKeyGenerator;
+import lombok.extern.slf4j.Slf4j;
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.http.HttpRequest;
+import org.springframework.util.Assert;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Executes revalidations of stale cache entries in the background. At most
+ * one revalidation of the same request (or the same cache key) is scheduled
+ * at a time, the others are ignored.
+ */
+@Slf4j
+@ThreadSafe
+public class AsynchronousRevalidator {
+
+    public static final int DEFAULT_MAX_WORKERS = 1;
+
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 100;
+
+    private final Set<Object> scheduled = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    private final ExecutorService executor;
+
+    private final CacheKeyGenerator keyGenerator;
+
+
+    /**
+     * Creates a new instance with the {@linkplain #createDefaultExecutor(int,
+     * int) default executor} and default settings.
+     */
+    public AsynchronousRevalidator() {
+        this(createDefaultExecutor(DEFAULT_MAX_WORKERS, DEFAULT_MAX_QUEUE_SIZE));
+    }
+
+    /**
+     * @param executor The executor to run revalidations. It should use a
+     *                 bounded queue.
+     */
+    public AsynchronousRevalidator(ExecutorService executor) {
+        this(executor, new SimpleCacheKeyGenerator());
+    }
+
+    /**
+     * @param executor The executor to run revalidations. It should use a
+     *                 bounded queue.
+     * @param keyGenerator The generator used to identify the same requests.
+     */
+    public AsynchronousRevalidator(ExecutorService executor, CacheKeyGenerator keyGenerator) {
+        Assert.notNull(executor, "executor must not be null");
+        Assert.notNull(keyGenerator, "keyGenerator must not be null");
+
+        this.executor = executor;
+        this.keyGenerator = keyGenerator;
+    }
+
+
+    /**
+     * Creates a thread pool executor with daemon threads and a bounded queue.
+     *
+     * @param maxWorkers The maximal number of threads.
+     * @param maxQueueSize The maximal number of revalidations waiting for
+     *                     a thread.
+     */
+    public static ExecutorService createDefaultExecutor(int maxWorkers, int maxQueueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxWorkers, maxWorkers, 60, SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueueSize), new DaemonThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /**
+     * Schedules the given revalidation task, unless there's already scheduled
+     * revalidation of the same request, or the executor is full.
+     *
+     * @param request The request to revalidate.
+     * @param revalidation The task that revalidates the request.
+     * @return <tt>true</tt> if the task has been scheduled.
+     */
+    public boolean schedule(HttpRequest request, Runnable revalidation) {
+        return schedule(keyGenerator.createKey(request), request, revalidation);
+    }
+
+    /**
+     * Schedules the given revalidation task, unless there's already scheduled
+     * revalidation with the same key, or the executor is full.
+     *
+     * @param key The key identifying the revalidated entry, e.g. the variant
+     *            key for responses that vary by request headers.
+     * @param request The request to revalidate.
+     * @param revalidation The task that revalidates the request.
+     * @return <tt>true</tt> if the task has been scheduled.
+     */
+    public boolean schedule(final Object key, HttpRequest request, final Runnable revalidation) {
+        Assert.notNull(key, "key must not be null");
+
+        if (!scheduled.add(key)) {
+            log.trace("[{} {}] revalidation is already scheduled", request.getMethod(), request.getURI());
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        revalidation.run();
+                    } finally {
+                        scheduled.remove(key);
+                    }
+                }
+            });
+            return true;
+
+        } catch (RejectedExecutionException ex) {
+            log.warn("[{} {}] revalidation has been rejected by executor", request.getMethod(), request.getURI());
+            scheduled.remove(key);
+            return false;
+        }
+    }
+
+    /**
+     * Shuts down the underlying executor.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+
+    //////// Inner class ////////
+
+    static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "http-cache-revalidator-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
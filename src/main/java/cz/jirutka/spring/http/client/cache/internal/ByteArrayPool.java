@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.util.Assert;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of byte arrays of a fixed size. When the pool is empty, a new
+ * array is allocated; when it's full, a released array is left to GC.
+ */
+@ThreadSafe
+public class ByteArrayPool {
+
+    private final int arraySize;
+
+    private final int maxPooled;
+
+    private final Queue<byte[]> pool = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+
+    /**
+     * @param arraySize Size of the arrays in bytes.
+     * @param maxPooled The maximal number of arrays to keep in the pool.
+     */
+    public ByteArrayPool(int arraySize, int maxPooled) {
+        Assert.isTrue(arraySize > 0, "arraySize must be greater then zero");
+        Assert.isTrue(maxPooled >= 0, "maxPooled must not be negative");
+
+        this.arraySize = arraySize;
+        this.maxPooled = maxPooled;
+    }
+
+
+    /**
+     * Returns an array from the pool, or a new one when the pool is empty.
+     * Its content is undefined.
+     */
+    public byte[] acquire() {
+        byte[] array = pool.poll();
+
+        if (array == null) {
+            return new byte[arraySize];
+        }
+        pooledCount.decrementAndGet();
+
+        return array;
+    }
+
+    /**
+     * Returns the given array to the pool. It must not be used by the caller
+     * anymore.
+     */
+    public void release(byte[] array) {
+        Assert.isTrue(array.length == arraySize, "array has not been acquired from this pool");
+
+        if (pooledCount.incrementAndGet() <= maxPooled) {
+            pool.offer(array);
+        } else {
+            pooledCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of arrays currently in the pool.
+     */
+    public int getPooledCount() {
+        return pooledCount.get();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link InputStream} over a {@link ByteBuffer}. It reads from the current
+ * position to the limit of the given buffer, so it should be given a
+ * {@linkplain ByteBuffer#duplicate() duplicate} of a shared buffer.
+ */
+@NotThreadSafe
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.min(Math.max(n, 0), buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
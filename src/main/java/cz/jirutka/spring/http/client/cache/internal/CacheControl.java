@@ -15,29 +15,46 @@
  */
 package cz.jirutka.spring.http.client.cache.internal;
 
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.jcip.annotations.Immutable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.util.Assert;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Represents a HTTP Cache-Control response header and parses it from string.
  *
+ * <p>The header is parsed in a single pass, without regular expressions and
+ * substrings. Parsed values are memoized in a small direct-mapped table keyed
+ * by the raw header value, so the same header is parsed just once, even
+ * though it's inspected several times during a single exchange.</p>
+ *
  * <p>Note: This class ignores <tt>1#field-name</tt> parameter for
- * <tt>private</tt> and <tt>no-cache</tt> directive and cache extensions.</p>
+ * <tt>private</tt> and <tt>no-cache</tt> directive and cache extensions,
+ * except the <tt>stale-while-revalidate</tt> and <tt>stale-if-error</tt>
+ * extensions. A directive with an invalid argument is ignored as well.</p>
  *
  * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9">HTTP/1.1 section 14.9</a>
+ * @see <a href="http://tools.ietf.org/html/rfc5861">RFC 5861</a>
  */
-@Data
-@NoArgsConstructor
-public class CacheControl {
+@Immutable
+@Getter @EqualsAndHashCode @ToString
+public final class CacheControl {
+
+    /**
+     * Cache-Control without any directive.
+     */
+    public static final CacheControl EMPTY = new CacheControl(-1, -1, false, false, false, false, false, false, false, -1, -1);
+
+    /** Number of slots of the memo table, must be a power of two. */
+    private static final int MEMO_SIZE = 256;
 
-    // copied from org.apache.abdera.protocol.util.CacheControlUtil
-    private static final Pattern PATTERN
-            = Pattern.compile("\\s*([\\w\\-]+)\\s*(=)?\\s*(\\-?\\d+|\\\"([^\"\\\\]*(\\\\.[^\"\\\\]*)*)+\\\")?\\s*");
+    private static final AtomicReferenceArray<Memo> MEMO = new AtomicReferenceArray<>(MEMO_SIZE);
+
+    private static final String SEPARATORS = "()<>@,;:\\\"/[]?={} \t";
 
     /**
      * Corresponds to the <tt>max-age</tt> cache control directive.
@@ -45,7 +62,7 @@ public class CacheControl {
      *
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.3">HTTP/1.1 section 14.9.3</a>
      */
-    private int maxAge = -1;
+    private final int maxAge;
 
     /**
      * Corresponds to the <tt>s-maxage</tt> cache control directive.
@@ -53,7 +70,7 @@ public class CacheControl {
      *
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.3">HTTP/1.1 section 14.9.3</a>
      */
-    private int sMaxAge = -1;
+    private final int sMaxAge;
 
     /**
      * Whether the <tt>must-revalidate</tt> directive is specified.
@@ -61,7 +78,7 @@ public class CacheControl {
      *
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.4">HTTP/1.1 section 14.9.4</a>
      */
-    private boolean isMustRevalidate = false;
+    private final boolean isMustRevalidate;
 
     /**
      * Whether the <tt>no-cache</tt> directive is specified.
@@ -69,7 +86,7 @@ public class CacheControl {
      *
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.1">HTTP/1.1 section 14.9.1</a>
      */
-    private boolean isNoCache = false;
+    private final boolean isNoCache;
 
     /**
      * Whether the <tt>no-store</tt> directive is specified.
@@ -77,7 +94,7 @@ public class CacheControl {
      *
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.2">HTTP/1.1 section 14.9.2</a>
      */
-    private boolean isNoStore = false;
+    private final boolean isNoStore;
 
     /**
      * Whether the <tt>no-transform</tt> directive is specified.
@@ -85,7 +102,7 @@ public class CacheControl {
      *
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.5">HTTP/1.1 section 14.9.5</a>
      */
-    private boolean isNoTransform = false;
+    private final boolean isNoTransform;
 
     /**
      * Whether the <tt>private</tt> directive is specified.
@@ -93,7 +110,7 @@ public class CacheControl {
      *
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.1">HTTP/1.1 section 14.9.1</a>
      */
-    private boolean isPrivate = false;
+    private final boolean isPrivate;
 
     /**
      * Whether the <tt>public</tt> directive is specified.
@@ -101,7 +118,7 @@ public class CacheControl {
      *
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.1">HTTP/1.1 section 14.9.1</a>
      */
-    private boolean isPublic = false;
+    private final boolean isPublic;
 
     /**
      * Whether the <tt>proxy-revalidate</tt> directive is specified.
@@ -109,43 +126,62 @@ public class CacheControl {
      *
      * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.4">HTTP/1.1 section 14.9.4</a>
      */
-    private boolean isProxyRevalidate = false;
+    private final boolean isProxyRevalidate;
 
+    /**
+     * Corresponds to the <tt>stale-while-revalidate</tt> cache control
+     * extension. The default value is <tt>-1</tt>, i.e. not specified.
+     *
+     * @see <a href="http://tools.ietf.org/html/rfc5861#section-3">RFC 5861 section 3</a>
+     */
+    private final int staleWhileRevalidate;
 
     /**
-     * Creates a new instance of CacheControl by parsing the supplied string.
+     * Corresponds to the <tt>stale-if-error</tt> cache control extension.
+     * The default value is <tt>-1</tt>, i.e. not specified.
+     *
+     * @see <a href="http://tools.ietf.org/html/rfc5861#section-4">RFC 5861 section 4</a>
+     */
+    private final int staleIfError;
+
+
+
+    private CacheControl(int maxAge, int sMaxAge, boolean isMustRevalidate, boolean isNoCache, boolean isNoStore,
+            boolean isNoTransform, boolean isPrivate, boolean isPublic, boolean isProxyRevalidate,
+            int staleWhileRevalidate, int staleIfError) {
+        this.maxAge = maxAge;
+        this.sMaxAge = sMaxAge;
+        this.isMustRevalidate = isMustRevalidate;
+        this.isNoCache = isNoCache;
+        this.isNoStore = isNoStore;
+        this.isNoTransform = isNoTransform;
+        this.isPrivate = isPrivate;
+        this.isPublic = isPublic;
+        this.isProxyRevalidate = isProxyRevalidate;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleIfError = staleIfError;
+    }
+
+
+    /**
+     * Returns an instance of CacheControl for the supplied string; either
+     * memoized, or newly parsed.
      *
      * @param value A value the Cache-Control header.
      */
     public static CacheControl valueOf(String value) {
-        CacheControl cc = new CacheControl();
-
-        if (value != null) {
-            Matcher matcher = PATTERN.matcher(value);
-            while (matcher.find()) {
-                switch (matcher.group(1).toLowerCase()) {
-                    case "max-age":
-                        cc.setMaxAge(Integer.parseInt(matcher.group(3))); break;
-                    case "s-maxage":
-                        cc.setSMaxAge(Integer.parseInt(matcher.group(3))); break;
-                    case "must-revalidate":
-                        cc.setMustRevalidate(true); break;
-                    case "no-cache":
-                        cc.setNoCache(true); break;
-                    case "no-store":
-                        cc.setNoStore(true); break;
-                    case "no-transform":
-                        cc.setNoTransform(true); break;
-                    case "private":
-                        cc.setPrivate(true); break;
-                    case "public":
-                        cc.setPublic(true); break;
-                    case "proxy-revalidate":
-                        cc.setProxyRevalidate(true); break;
-                    default: //ignore
-                }
-            }
+        if (value == null || value.isEmpty()) {
+            return EMPTY;
         }
+        int slot = value.hashCode() & (MEMO_SIZE - 1);
+        Memo memo = MEMO.get(slot);
+
+        if (memo != null && memo.value.equals(value)) {
+            return memo.cacheControl;
+        }
+        CacheControl cc = parse(value);
+        MEMO.lazySet(slot, new Memo(value, cc));
+
         return cc;
     }
 
@@ -155,6 +191,90 @@ public class CacheControl {
         return valueOf(headers.getCacheControl());
     }
 
+    /**
+     * Parses the supplied string, bypassing the memo table.
+     *
+     * @param value A value the Cache-Control header.
+     */
+    public static CacheControl parse(String value) {
+        int maxAge = -1, sMaxAge = -1, staleWhileRevalidate = -1, staleIfError = -1;
+        boolean mustRevalidate = false, noCache = false, noStore = false, noTransform = false,
+                isPrivate = false, isPublic = false, proxyRevalidate = false;
+
+        int length = value != null ? value.length() : 0;
+        int pos = 0;
+
+        while (pos < length) {
+            pos = skipWhitespaces(value, pos);
+
+            int nameStart = pos;
+            while (pos < length && isTokenChar(value.charAt(pos))) {
+                pos++;
+            }
+            int nameEnd = pos;
+            int argStart = -1, argEnd = -1;
+
+            pos = skipWhitespaces(value, pos);
+            if (pos < length && value.charAt(pos) == '=') {
+                pos = skipWhitespaces(value, pos + 1);
+
+                if (pos < length && value.charAt(pos) == '"') {
+                    argStart = ++pos;
+                    while (pos < length && value.charAt(pos) != '"') {
+                        pos += value.charAt(pos) == '\\' ? 2 : 1;
+                    }
+                    argEnd = Math.min(pos, length);
+                } else {
+                    argStart = pos;
+                    while (pos < length && isTokenChar(value.charAt(pos))) {
+                        pos++;
+                    }
+                    argEnd = pos;
+                }
+            }
+            // skip anything else up to the next directive
+            while (pos < length && value.charAt(pos) != ',') {
+                pos++;
+            }
+            pos++;
+
+            switch (nameEnd - nameStart) {
+                case 6:
+                    if (matches(value, nameStart, "public")) isPublic = true;
+                    break;
+                case 7:
+                    if (matches(value, nameStart, "max-age")) maxAge = parseSeconds(value, argStart, argEnd);
+                    else if (matches(value, nameStart, "private")) isPrivate = true;
+                    break;
+                case 8:
+                    if (matches(value, nameStart, "no-cache")) noCache = true;
+                    else if (matches(value, nameStart, "no-store")) noStore = true;
+                    else if (matches(value, nameStart, "s-maxage")) sMaxAge = parseSeconds(value, argStart, argEnd);
+                    break;
+                case 12:
+                    if (matches(value, nameStart, "no-transform")) noTransform = true;
+                    break;
+                case 14:
+                    if (matches(value, nameStart, "stale-if-error")) staleIfError = parseSeconds(value, argStart, argEnd);
+                    break;
+                case 15:
+                    if (matches(value, nameStart, "must-revalidate")) mustRevalidate = true;
+                    break;
+                case 16:
+                    if (matches(value, nameStart, "proxy-revalidate")) proxyRevalidate = true;
+                    break;
+                case 22:
+                    if (matches(value, nameStart, "stale-while-revalidate")) {
+                        staleWhileRevalidate = parseSeconds(value, argStart, argEnd);
+                    }
+                    break;
+                default: //ignore
+            }
+        }
+        return new CacheControl(maxAge, sMaxAge, mustRevalidate, noCache, noStore, noTransform, isPrivate, isPublic,
+                proxyRevalidate, staleWhileRevalidate, staleIfError);
+    }
+
     /**
      * Returns <tt>max-age</tt>, or <tt>s-maxage</tt> according to whether
      * considering a shared cache, or a private cache. If shared cache and the
@@ -173,4 +293,56 @@ public class CacheControl {
             return maxAge;
         }
     }
+
+
+    private static boolean matches(String value, int offset, String directive) {
+        return value.regionMatches(true, offset, directive, 0, directive.length());
+    }
+
+    private static boolean isTokenChar(char ch) {
+        return ch > 32 && ch < 127 && SEPARATORS.indexOf(ch) < 0;
+    }
+
+    private static int skipWhitespaces(String value, int pos) {
+        while (pos < value.length() && (value.charAt(pos) == ' ' || value.charAt(pos) == '\t')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Parses delta-seconds from the given range of the value. Returns -1 when
+     * it's not a non-negative integer, or {@link Integer#MAX_VALUE} when it
+     * overflows.
+     */
+    private static int parseSeconds(String value, int start, int end) {
+        if (start < 0 || start == end) {
+            return -1;
+        }
+        long result = 0;
+
+        for (int i = start; i < end; i++) {
+            char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            result = Math.min(result * 10 + (ch - '0'), Integer.MAX_VALUE);
+        }
+        return (int) result;
+    }
+
+
+    //////// Inner class ////////
+
+    @Immutable
+    private static final class Memo {
+
+        final String value;
+        final CacheControl cacheControl;
+
+        Memo(String value, CacheControl cacheControl) {
+            this.value = value;
+            this.cacheControl = cacheControl;
+        }
+    }
 }
@@ -17,20 +17,36 @@ package cz.jirutka.spring.http.client.cache.internal;
 
 import lombok.EqualsAndHashCode;
 import net.jcip.annotations.Immutable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.client.ClientHttpResponse;
 
 import java.io.Serializable;
 import java.util.Date;
 
+/**
+ * A cached response along with its freshness metadata. The metadata needed
+ * to decide whether the entry can be used (dates, stale windows and
+ * validators) are computed once when the entry is created and stored as
+ * primitives, so checking them doesn't allocate anything.
+ */
 @Immutable
 @EqualsAndHashCode
 public class CacheEntry implements Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    private final HttpStatus statusCode;
+    private final CompactHeaders headers;
+    private final CachedBody body;
 
-    private final InMemoryClientHttpResponse response;
-    private final Date responseCreated;
-    private final Date responseExpiration;
+    private final long responseCreated;
+    private final long responseExpiration;
+    private final int staleWhileRevalidate;
+    private final int staleIfError;
+    private final boolean mustRevalidate;
+    private final String eTag;
+    private final String lastModified;
 
     /**
      * @param response The response to cache.
@@ -38,21 +54,195 @@ public class CacheEntry implements Serializable {
      * @param responseExpiration When the response will expire.
      */
     public CacheEntry(InMemoryClientHttpResponse response, Date responseCreated, Date responseExpiration) {
-        this.response = response;
-        this.responseCreated = responseCreated;
-        this.responseExpiration = responseExpiration;
+        this(response.getStatusCode(), response.getHeaders(), new HeapBody(response.getBodyAsByteArray()),
+                responseCreated, responseExpiration);
     }
 
+    /**
+     * @param statusCode The status code of the response to cache.
+     * @param headers The headers of the response to cache; they're copied
+     *                into {@link CompactHeaders}.
+     * @param body The body of the response to cache; the entry takes over
+     *             one reference to it.
+     * @param responseCreated When the response was originally created.
+     * @param responseExpiration When the response will expire.
+     */
+    public CacheEntry(HttpStatus statusCode, HttpHeaders headers, CachedBody body,
+                      Date responseCreated, Date responseExpiration) {
+        this.statusCode = statusCode;
+        this.headers = CompactHeaders.of(headers);
+        this.body = body;
+        this.responseCreated = responseCreated.getTime();
+        this.responseExpiration = responseExpiration.getTime();
 
+        CacheControl cc = CacheControl.parseCacheControl(headers);
+        this.staleWhileRevalidate = cc.getStaleWhileRevalidate();
+        this.staleIfError = cc.getStaleIfError();
+        this.mustRevalidate = cc.isMustRevalidate() || cc.isProxyRevalidate();
+        this.eTag = headers.getFirst("ETag");
+        this.lastModified = headers.getFirst("Last-Modified");
+    }
+
+
+    /**
+     * Returns a response created from the cached one. The body is shared
+     * with the cached response (i.e. it's not copied), the headers are
+     * copied on the first access. The body is retained until the returned
+     * response is closed.
+     *
+     * @throws IllegalStateException if the body has been already released.
+     */
     public ClientHttpResponse getResponse() {
-        return response.deepCopy();
+        return new CachedClientHttpResponse(statusCode, headers, body);
     }
 
     public Date getResponseCreated() {
-        return new Date(responseCreated.getTime());
+        return new Date(responseCreated);
     }
 
     public Date getResponseExpiration() {
-        return new Date(responseExpiration.getTime());
+        return new Date(responseExpiration);
+    }
+
+    /**
+     * Returns when the response was originally created, in milliseconds since
+     * the epoch.
+     */
+    public long getResponseCreatedMillis() {
+        return responseCreated;
+    }
+
+    /**
+     * Returns when the response expires, in milliseconds since the epoch.
+     */
+    public long getResponseExpirationMillis() {
+        return responseExpiration;
+    }
+
+    /**
+     * Returns the <tt>stale-while-revalidate</tt> window of the response in
+     * seconds, or <tt>-1</tt> if not specified.
+     */
+    public int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * Returns the <tt>stale-if-error</tt> window of the response in seconds,
+     * or <tt>-1</tt> if not specified.
+     */
+    public int getStaleIfError() {
+        return staleIfError;
+    }
+
+    /**
+     * Whether the response specifies the <tt>must-revalidate</tt> or
+     * <tt>proxy-revalidate</tt> directive, i.e. it must not be served stale.
+     */
+    public boolean isMustRevalidate() {
+        return mustRevalidate;
+    }
+
+    /**
+     * Returns size of the cached response's body in bytes.
+     */
+    public int getBodySize() {
+        return body.size();
+    }
+
+    /**
+     * Returns size of the cached response's body as stored in bytes, e.g.
+     * after compression.
+     */
+    public int getStoredBodySize() {
+        return body.storedSize();
+    }
+
+    /**
+     * Returns an estimated size of the cached response's headers in bytes,
+     * i.e. their size when serialized as in a HTTP/1.1 message.
+     */
+    public int getHeadersSize() {
+        return headers.getSerializedSize();
+    }
+
+    /**
+     * Returns parsed <tt>Cache-Control</tt> header of the cached response.
+     */
+    public CacheControl getCacheControl() {
+        return CacheControl.valueOf(headers.getFirst("Cache-Control"));
+    }
+
+    /**
+     * Returns value of the <tt>ETag</tt> header of the cached response, or
+     * {@code null} if not specified.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Returns value of the <tt>Last-Modified</tt> header of the cached
+     * response, or {@code null} if not specified.
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Whether the cached response contains any validator, i.e. it can be
+     * revalidated using a conditional request.
+     */
+    public boolean isRevalidatable() {
+        return eTag != null || lastModified != null;
+    }
+
+
+    /**
+     * Retains the body of this entry, i.e. prevents its memory from being
+     * reused while the entry is used (even if it's meanwhile evicted from the
+     * cache). Each successful call must be paired with {@link #release()}.
+     *
+     * @return Whether the body has been retained, i.e. {@code false} if it
+     *         has been already released.
+     * @see CachedBody#retain()
+     */
+    public boolean retain() {
+        return body.retain();
+    }
+
+    /**
+     * Releases one reference to the body of this entry.
+     *
+     * @see CachedBody#release()
+     */
+    public void release() {
+        body.release();
+    }
+
+
+    HttpStatus getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns a mutable copy of the cached headers.
+     */
+    HttpHeaders getHeaders() {
+        return headers.toHttpHeaders();
+    }
+
+    /**
+     * Returns the cached headers itself, they're immutable.
+     */
+    CompactHeaders getCompactHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the cached body itself, not a copy!
+     */
+    CachedBody getBody() {
+        return body;
     }
 }
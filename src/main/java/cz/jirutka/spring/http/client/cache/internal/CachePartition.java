@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import cz.jirutka.spring.http.client.cache.CachingPolicy;
+import lombok.Getter;
+import net.jcip.annotations.Immutable;
+import org.springframework.http.HttpRequest;
+import org.springframework.util.Assert;
+
+import java.util.regex.Pattern;
+
+/**
+ * A partition of the {@link PartitionedHttpResponseCache}: its own cache,
+ * caching policy and statistics, with a rule that selects requests routed
+ * to it.
+ */
+@Immutable
+@Getter
+public class CachePartition {
+
+    private final String name;
+
+    /** Pattern of the request host, or {@code null} to match any. */
+    private final Pattern hostPattern;
+
+    /** Pattern of the whole request URI, or {@code null} to match any. */
+    private final Pattern uriPattern;
+
+    private final HttpResponseCache cache;
+
+    private final CachingPolicy cachingPolicy;
+
+    private final StatsCounter statsCounter;
+
+
+    /**
+     * @param name The name of the partition.
+     * @param host The request host (case insensitive), it may start with
+     *             <tt>*.</tt> to match any subdomain; or {@code null} to
+     *             match any host.
+     * @param uriRegex A regular expression that must match the whole request
+     *                 URI, or {@code null} to match any URI.
+     * @param cache The cache to store responses for the matching requests.
+     * @param cachingPolicy The caching policy for the matching requests.
+     * @param statsCounter The statistics of this partition.
+     */
+    public CachePartition(String name, String host, String uriRegex, HttpResponseCache cache,
+            CachingPolicy cachingPolicy, StatsCounter statsCounter) {
+
+        Assert.hasText(name, "name must not be empty");
+        Assert.notNull(cache, "cache must not be null");
+        Assert.notNull(cachingPolicy, "cachingPolicy must not be null");
+        Assert.notNull(statsCounter, "statsCounter must not be null");
+
+        this.name = name;
+        this.hostPattern = host != null ? compileHost(host) : null;
+        this.uriPattern = uriRegex != null ? Pattern.compile(uriRegex) : null;
+        this.cache = cache;
+        this.cachingPolicy = cachingPolicy;
+        this.statsCounter = statsCounter;
+    }
+
+
+    /**
+     * Whether the given request belongs to this partition.
+     */
+    public boolean matches(HttpRequest request) {
+        if (hostPattern != null) {
+            String host = request.getURI().getHost();
+            if (host == null || !hostPattern.matcher(host).matches()) {
+                return false;
+            }
+        }
+        return uriPattern == null || uriPattern.matcher(request.getURI().toString()).matches();
+    }
+
+
+    private static Pattern compileHost(String host) {
+        String regex = host.startsWith("*.")
+                ? "(?:.+\\.)?" + Pattern.quote(host.substring(2))
+                : Pattern.quote(host);
+
+        return Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import java.io.InputStream;
+import java.io.Serializable;
+
+/**
+ * Body of a cached response. Implementations may store the body outside of
+ * the Java heap; such bodies are reference counted and their memory is
+ * reused after the last reference is released.
+ *
+ * <p>The body is owned by a {@link CacheEntry}, which holds one reference
+ * while it's stored in the cache. Readers must {@link #retain() retain}
+ * the body while they use it and {@link #release() release} it afterwards.
+ * </p>
+ */
+public interface CachedBody extends Serializable {
+
+    /**
+     * Returns size of the body in bytes.
+     */
+    int size();
+
+    /**
+     * Returns size of the body as stored in bytes, e.g. after compression.
+     */
+    int storedSize();
+
+    /**
+     * Returns a new stream over the body. The body must be retained while
+     * the stream is used.
+     */
+    InputStream openStream();
+
+    /**
+     * Returns a copy of the body.
+     */
+    byte[] toByteArray();
+
+    /**
+     * Increments the reference count.
+     *
+     * @return Whether the body has been retained, i.e. {@code false} if it
+     *         has been already released.
+     */
+    boolean retain();
+
+    /**
+     * Decrements the reference count and frees the memory of the body if it
+     * drops to zero.
+     */
+    void release();
+}
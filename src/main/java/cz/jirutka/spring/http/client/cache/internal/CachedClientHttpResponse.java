@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A response served from the cache. It shares the body of the cached
+ * response, i.e. the body is not copied, only a read-only stream over it is
+ * provided. The headers are copied lazily on the first access, so they can
+ * be modified (e.g. to add the <tt>Age</tt> header) without affecting the
+ * cached response.
+ *
+ * <p>The body is retained until this response is closed.</p>
+ */
+@NotThreadSafe
+public class CachedClientHttpResponse implements ClientHttpResponse {
+
+    private final HttpStatus statusCode;
+
+    private final CompactHeaders cachedHeaders;
+
+    private final CachedBody body;
+
+    private HttpHeaders headers;
+
+    private InputStream stream;
+
+    private boolean closed = false;
+
+
+    /**
+     * @param statusCode The cached status code.
+     * @param cachedHeaders The cached headers; they're copied.
+     * @param body The cached body.
+     * @throws IllegalStateException if the body has been already released.
+     */
+    public CachedClientHttpResponse(HttpStatus statusCode, HttpHeaders cachedHeaders, CachedBody body) {
+        this(statusCode, CompactHeaders.of(cachedHeaders), body);
+    }
+
+    /**
+     * @param statusCode The cached status code.
+     * @param cachedHeaders The cached headers.
+     * @param body The cached body.
+     * @throws IllegalStateException if the body has been already released.
+     */
+    public CachedClientHttpResponse(HttpStatus statusCode, CompactHeaders cachedHeaders, CachedBody body) {
+        Assert.notNull(statusCode, "statusCode must not be null");
+        Assert.notNull(cachedHeaders, "cachedHeaders must not be null");
+        Assert.state(body.retain(), "body has been already released");
+
+        this.statusCode = statusCode;
+        this.cachedHeaders = cachedHeaders;
+        this.body = body;
+    }
+
+
+    public InputStream getBody() {
+        if (stream == null) {
+            stream = body.openStream();
+        }
+        return stream;
+    }
+
+    public HttpHeaders getHeaders() {
+        if (headers == null) {
+            headers = cachedHeaders.toHttpHeaders();
+        }
+        return headers;
+    }
+
+    public HttpStatus getStatusCode() {
+        return statusCode;
+    }
+
+    public int getRawStatusCode() {
+        return statusCode.value();
+    }
+
+    public String getStatusText() {
+        return statusCode.getReasonPhrase();
+    }
+
+    public void close() {
+        if (!closed) {
+            closed = true;
+            closeQuietly(stream);
+            body.release();
+        }
+    }
+
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            if (stream != null) {
+                stream.close();
+            }
+        } catch (IOException ex) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import lombok.EqualsAndHashCode;
+import net.jcip.annotations.Immutable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.Assert;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Compact immutable representation of headers of a cached response. Headers
+ * are stored in two parallel arrays of names and values, one element per
+ * header value. Names, and values of the headers that usually repeat across
+ * responses (e.g. <tt>Content-Type</tt>, <tt>Server</tt>, or
+ * <tt>Cache-Control</tt>), are interned, so they're shared by all the cached
+ * responses. The intern table is bounded and a newly interned string
+ * replaces the one with a colliding hash, so rare values don't prevent
+ * interning of the common ones.
+ */
+@Immutable
+@EqualsAndHashCode
+public final class CompactHeaders implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Lower-cased names of the headers whose values are interned.
+     */
+    private static final Set<String> INTERNED_VALUES_OF = new HashSet<>(asList(
+            "accept-ranges", "access-control-allow-credentials", "access-control-allow-headers",
+            "access-control-allow-methods", "access-control-allow-origin", "cache-control", "connection",
+            "content-encoding", "content-language", "content-type", "pragma", "server", "transfer-encoding",
+            "vary", "via", "x-content-type-options", "x-frame-options", "x-powered-by", "x-xss-protection"));
+
+    /**
+     * Size of the intern table; must be a power of two.
+     */
+    private static final int INTERN_TABLE_SIZE = 4096;
+
+    /**
+     * Direct-mapped table of the interned strings, indexed by their hash.
+     */
+    private static final AtomicReferenceArray<String> INTERNED = new AtomicReferenceArray<>(INTERN_TABLE_SIZE);
+
+    private final String[] names;
+    private final String[] values;
+
+
+    private CompactHeaders(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * Creates a compact copy of the given headers.
+     */
+    public static CompactHeaders of(HttpHeaders headers) {
+        Assert.notNull(headers, "headers must not be null");
+
+        int count = 0;
+        for (List<String> values : headers.values()) {
+            count += values.size();
+        }
+        String[] names = new String[count];
+        String[] values = new String[count];
+
+        int i = 0;
+        for (Entry<String, List<String>> entry : headers.entrySet()) {
+            String name = intern(entry.getKey());
+            boolean internValues = INTERNED_VALUES_OF.contains(name.toLowerCase());
+
+            for (String value : entry.getValue()) {
+                names[i] = name;
+                values[i] = internValues ? intern(value) : value;
+                i++;
+            }
+        }
+        return new CompactHeaders(names, values);
+    }
+
+
+    /**
+     * Returns a new mutable copy of the headers.
+     */
+    public HttpHeaders toHttpHeaders() {
+        HttpHeaders result = new HttpHeaders();
+
+        for (int i = 0; i < names.length; i++) {
+            List<String> list = result.get(names[i]);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                result.put(names[i], list);
+            }
+            list.add(values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first value of the specified header, or {@code null} if
+     * there's no such header.
+     *
+     * @param name The header name (case insensitive).
+     */
+    public String getFirst(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an estimated size of the headers in bytes, i.e. their size when
+     * serialized as in a HTTP/1.1 message.
+     */
+    public int getSerializedSize() {
+        int size = 0;
+
+        for (int i = 0; i < names.length; i++) {
+            size += names[i].length() + values[i].length() + 4;  // ": " and CRLF
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+
+        for (int i = 0; i < names.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(names[i]).append(": ").append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+
+    /**
+     * Interns the strings again after deserialization, so they're shared
+     * with the other entries.
+     */
+    private Object readResolve() {
+        String[] names = Arrays.copyOf(this.names, this.names.length);
+        String[] values = Arrays.copyOf(this.values, this.values.length);
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = intern(names[i]);
+            if (INTERNED_VALUES_OF.contains(names[i].toLowerCase())) {
+                values[i] = intern(values[i]);
+            }
+        }
+        return new CompactHeaders(names, values);
+    }
+
+    private static String intern(String str) {
+        int hash = str.hashCode();
+        int index = (hash ^ (hash >>> 16)) & (INTERN_TABLE_SIZE - 1);
+
+        String interned = INTERNED.get(index);
+        if (str.equals(interned)) {
+            return interned;
+        }
+        // evicts the colliding string, if any
+        INTERNED.lazySet(index, str);
+
+        return str;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * {@link BodyStorage} decorator that compresses bodies by the <i>deflate</i>
+ * algorithm before they're stored by the delegate storage. Only bodies of at
+ * least the minimal size are compressed and only when it saves enough space,
+ * i.e. the compressed size divided by the original size is at most the
+ * maximal ratio; others are stored as they are.
+ */
+@ThreadSafe
+public class CompressingBodyStorage implements BodyStorage {
+
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    public static final double DEFAULT_MAX_RATIO = 0.8;
+
+    private final BodyStorage delegate;
+
+    private final int minSize;
+
+    private final double maxRatio;
+
+    private final int level;
+
+
+    public CompressingBodyStorage(BodyStorage delegate) {
+        this(delegate, DEFAULT_MIN_SIZE, DEFAULT_MAX_RATIO, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param delegate The storage to store the (compressed) bodies.
+     * @param minSize The minimal size of a body in bytes to be compressed.
+     * @param maxRatio The maximal ratio of the compressed and original size
+     *                 for the compressed body to be used.
+     * @param level The compression level (0-9), see {@link Deflater}.
+     */
+    public CompressingBodyStorage(BodyStorage delegate, int minSize, double maxRatio, int level) {
+        Assert.notNull(delegate, "delegate must not be null");
+        Assert.isTrue(maxRatio > 0 && maxRatio <= 1, "maxRatio must be in range (0, 1]");
+
+        this.delegate = delegate;
+        this.minSize = minSize;
+        this.maxRatio = maxRatio;
+        this.level = level;
+    }
+
+
+    public CachedBody store(byte[] body) {
+        if (body.length < minSize) {
+            return delegate.store(body);
+        }
+        byte[] compressed = deflate(body);
+
+        if (compressed.length > body.length * maxRatio) {
+            return delegate.store(body);
+        }
+        return new DeflatedBody(delegate.store(compressed), body.length);
+    }
+
+
+    private byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4 + 64);
+            byte[] buffer = new byte[4096];
+
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.util.Assert;
+
+import java.net.URI;
+
+/**
+ * {@link HttpRequest} decorator that turns the given request into a
+ * conditional request to revalidate the given cache entry. It adds the
+ * <tt>If-None-Match</tt> and/or <tt>If-Modified-Since</tt> header according
+ * to the validators of the cached response; the original request is not
+ * modified.
+ *
+ * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec13.html#sec13.3.4">HTTP/1.1 section 13.3.4</a>
+ */
+@NotThreadSafe
+public class ConditionalHttpRequest implements HttpRequest {
+
+    private final HttpRequest request;
+
+    private final HttpHeaders headers = new HttpHeaders();
+
+
+    /**
+     * @param request The original request to decorate.
+     * @param entry The cache entry to revalidate.
+     */
+    public ConditionalHttpRequest(HttpRequest request, CacheEntry entry) {
+        Assert.notNull(request, "request must not be null");
+        Assert.notNull(entry, "entry must not be null");
+
+        this.request = request;
+        this.headers.putAll(request.getHeaders());
+
+        if (entry.getETag() != null) {
+            headers.set("If-None-Match", entry.getETag());
+        }
+        if (entry.getLastModified() != null) {
+            headers.set("If-Modified-Since", entry.getLastModified());
+        }
+    }
+
+
+    public HttpMethod getMethod() {
+        return request.getMethod();
+    }
+
+    public URI getURI() {
+        return request.getURI();
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+}
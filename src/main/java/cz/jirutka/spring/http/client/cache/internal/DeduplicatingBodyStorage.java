@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import lombok.EqualsAndHashCode;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.util.Assert;
+
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link BodyStorage} decorator that deduplicates byte-identical bodies. The
+ * bodies are kept in a content-addressed store keyed by their SHA-256 hash,
+ * so entries with the same body share one instance stored by the delegate
+ * storage. The shared bodies are reference counted; a body is removed from
+ * the store and released when the last entry referencing it is released.
+ *
+ * <p>Thus the cache must release evicted entries, see {@link
+ * cz.jirutka.spring.http.client.cache.CacheEntryReleaser CacheEntryReleaser},
+ * otherwise the store would grow infinitely.</p>
+ */
+@ThreadSafe
+public class DeduplicatingBodyStorage implements BodyStorage {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final ConcurrentMap<ContentHash, SharedBody> store = new ConcurrentHashMap<>();
+
+    private final BodyStorage delegate;
+
+
+    public DeduplicatingBodyStorage(BodyStorage delegate) {
+        Assert.notNull(delegate, "delegate must not be null");
+        this.delegate = delegate;
+    }
+
+
+    public CachedBody store(byte[] body) {
+        ContentHash hash = new ContentHash(digest(body));
+
+        for (;;) {
+            SharedBody existing = store.get(hash);
+
+            if (existing != null) {
+                if (existing.retain()) {
+                    return existing;
+                }
+                // it's being released right now, so replace it
+                store.remove(hash, existing);
+                continue;
+            }
+            SharedBody created = new SharedBody(hash, delegate.store(body));
+
+            if (store.putIfAbsent(hash, created) == null) {
+                return created;
+            }
+            created.body.release();
+        }
+    }
+
+    /**
+     * Returns the current number of unique bodies in the store.
+     */
+    public int getUniqueBodiesCount() {
+        return store.size();
+    }
+
+
+    private static byte[] digest(byte[] body) {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM).digest(body);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);  // every JVM must support SHA-256
+        }
+    }
+
+
+    //////// Inner classes ////////
+
+    @Immutable
+    @EqualsAndHashCode
+    static final class ContentHash {
+
+        private final byte[] hash;
+
+        ContentHash(byte[] hash) {
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Body shared by multiple cache entries. When serialized, it's replaced
+     * by the delegate body.
+     */
+    @ThreadSafe
+    final class SharedBody implements CachedBody {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient ContentHash hash;
+
+        private final transient CachedBody body;
+
+        private final transient AtomicInteger refCount = new AtomicInteger(1);
+
+
+        SharedBody(ContentHash hash, CachedBody body) {
+            this.hash = hash;
+            this.body = body;
+        }
+
+
+        public int size() {
+            return body.size();
+        }
+
+        public int storedSize() {
+            return body.storedSize();
+        }
+
+        public InputStream openStream() {
+            return body.openStream();
+        }
+
+        public byte[] toByteArray() {
+            return body.toByteArray();
+        }
+
+        public boolean retain() {
+            for (;;) {
+                int count = refCount.get();
+                if (count <= 0) {
+                    return false;
+                }
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void release() {
+            int count = refCount.decrementAndGet();
+
+            if (count == 0) {
+                store.remove(hash, this);
+                body.release();
+            } else if (count < 0) {
+                throw new IllegalStateException("body has been already released");
+            }
+        }
+
+        int refCount() {
+            return refCount.get();
+        }
+
+
+        private Object writeReplace() throws ObjectStreamException {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import lombok.EqualsAndHashCode;
+import net.jcip.annotations.Immutable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * {@link CachedBody} compressed by the <i>deflate</i> algorithm. It's
+ * decompressed lazily when read.
+ *
+ * @see CompressingBodyStorage
+ */
+@Immutable
+@EqualsAndHashCode
+public class DeflatedBody implements CachedBody {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CachedBody compressed;
+
+    private final int size;
+
+
+    /**
+     * @param compressed The compressed body.
+     * @param size The size of the decompressed body.
+     */
+    public DeflatedBody(CachedBody compressed, int size) {
+        this.compressed = compressed;
+        this.size = size;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+    public int storedSize() {
+        return compressed.storedSize();
+    }
+
+    public InputStream openStream() {
+        return new InflaterInputStream(compressed.openStream());
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        byte[] buffer = new byte[4096];
+
+        try (InputStream in = openStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to decompress body", ex);
+        }
+        return out.toByteArray();
+    }
+
+    public boolean retain() {
+        return compressed.retain();
+    }
+
+    public void release() {
+        compressed.release();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases memory of direct and mapped {@link ByteBuffer}s explicitly,
+ * instead of waiting until they're garbage collected. There's no public API
+ * for that, so it uses the internal cleaner of the JDK: {@code
+ * sun.misc.Unsafe#invokeCleaner} on Java 9+, or {@code
+ * sun.nio.ch.DirectBuffer#cleaner()} on Java 7 and 8. If neither is
+ * available, then it does nothing and the memory is released by GC.
+ *
+ * <p><b>The buffer, nor any of its views (duplicates, slices), must not be
+ * accessed after unmapping</b>; it would crash the JVM.</p>
+ */
+@Slf4j
+public final class DirectBuffers {
+
+    // Java 9+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    // Java 7 and 8
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null, cleaner = null, clean = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+
+        } catch (Exception | LinkageError ex) {
+            invokeCleaner = null;
+            try {
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+
+            } catch (Exception | LinkageError ex2) {
+                log.info("Unmapping of direct buffers is not supported, their memory will be released by GC");
+                cleaner = clean = null;
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private DirectBuffers() {}
+
+
+    /**
+     * Releases memory of the given direct (or mapped) buffer.
+     *
+     * @param buffer The buffer that's not going to be used anymore.
+     * @return Whether it has been released, <tt>false</tt> if the buffer is
+     *         not direct, or unmapping is not supported.
+     */
+    public static boolean unmap(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return false;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return true;
+            }
+            if (CLEANER != null) {
+                Object cleaner = CLEANER.invoke(buffer);
+                if (cleaner != null) {
+                    CLEAN.invoke(cleaner);
+                    return true;
+                }
+            }
+        } catch (Exception ex) {
+            // e.g. a view (slice, duplicate) of a buffer that can't be unmapped itself
+            log.debug("Failed to unmap direct buffer: {}", ex.toString());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import lombok.EqualsAndHashCode;
+import net.jcip.annotations.Immutable;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * {@link CachedBody} stored on the Java heap in a byte array. It's not
+ * reference counted, the memory is reclaimed by GC.
+ */
+@Immutable
+@EqualsAndHashCode
+public class HeapBody implements CachedBody {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] bytes;
+
+
+    /**
+     * @param bytes The body; it must not be modified afterwards!
+     */
+    public HeapBody(byte[] bytes) {
+        this.bytes = bytes != null ? bytes : new byte[0];
+    }
+
+
+    public int size() {
+        return bytes.length;
+    }
+
+    public int storedSize() {
+        return bytes.length;
+    }
+
+    public InputStream openStream() {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+
+    public boolean retain() {
+        return true;
+    }
+
+    public void release() {
+        // do nothing
+    }
+}
@@ -28,7 +28,9 @@ public interface HttpResponseCache {
     void evict(HttpRequest request);
 
     /**
-     * Returns a cached response for the given request.
+     * Returns a cached response for the given request. The returned entry is
+     * {@linkplain CacheEntry#retain() retained}, so the caller must
+     * {@linkplain CacheEntry#release() release} it when it's done.
      *
      * @param request The request whose associated response is to be returned.
      * @return A cached response for the given request, or {@code null} if
@@ -36,6 +38,15 @@ public interface HttpResponseCache {
      */
     CacheEntry getCacheEntry(HttpRequest request);
 
+    /**
+     * Returns the key under which the given entry is stored for the given
+     * request, i.e. the variant key if the entry varies by request headers.
+     *
+     * @param request The request with which the given entry is associated.
+     * @param entry The cached entry for the request.
+     */
+    Object getCacheKey(HttpRequest request, CacheEntry entry);
+
     /**
      * Store {@link org.springframework.http.client.ClientHttpResponse}, if possible, and return it.
      *
@@ -46,4 +57,20 @@ public interface HttpResponseCache {
      */
     ClientHttpResponse cacheAndReturnResponse(
             HttpRequest request, ClientHttpResponse response, Date requestSent, Date responseReceived) throws IOException;
+
+    /**
+     * Update the cached entry after it has been successfully revalidated,
+     * i.e. the origin responded with <tt>304 Not Modified</tt>. The headers
+     * of the given response are merged into the cached response, its body is
+     * kept untouched.
+     *
+     * @param request The request with which the given entry is associated.
+     * @param entry The cached entry to update; it must be retained by the caller.
+     * @param notModifiedResponse The <tt>304 Not Modified</tt> response.
+     * @param requestSent When the conditional request was send.
+     * @param responseReceived When the response was received.
+     * @return The updated entry.
+     */
+    CacheEntry updateCacheEntry(HttpRequest request, CacheEntry entry,
+            ClientHttpResponse notModifiedResponse, Date requestSent, Date responseReceived);
 }
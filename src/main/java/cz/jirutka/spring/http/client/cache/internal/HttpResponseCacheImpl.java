@@ -17,6 +17,7 @@ package cz.jirutka.spring.http.client.cache.internal;
 
 import cz.jirutka.spring.http.client.cache.CacheKeyGenerator;
 import cz.jirutka.spring.http.client.cache.DefaultResponseExpirationResolver;
+import cz.jirutka.spring.http.client.cache.RemovalListener;
 import cz.jirutka.spring.http.client.cache.ResponseExpirationResolver;
 import cz.jirutka.spring.http.client.cache.SimpleCacheKeyGenerator;
 import cz.jirutka.spring.http.client.cache.internal.SizeLimitedHttpResponseReader.ResponseSizeLimitExceededException;
@@ -25,26 +26,110 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cache.Cache;
 import org.springframework.cache.Cache.ValueWrapper;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.util.Assert;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Pattern;
 
+import static cz.jirutka.spring.http.client.cache.internal.VaryEntry.parseVaryHeader;
+import static java.util.Arrays.asList;
+
+/**
+ * The default {@link HttpResponseCache} implementation that stores responses
+ * in the Spring's {@link Cache}.
+ *
+ * <p>Responses with the <tt>Vary</tt> header are stored under a variant key
+ * composed of the primary key and normalized values of the nominated request
+ * headers. The primary key is then mapped to a {@link VaryEntry} that
+ * records names of these headers and keys of the variants. The variants are
+ * evicted along with the <tt>VaryEntry</tt>; when it's evicted by the cache
+ * itself (e.g. due to its size), then this object must be registered as the
+ * cache's {@link RemovalListener} to evict them.</p>
+ *
+ * <p>Bodies of the responses are stored by the {@link BodyStorage}, on the
+ * Java heap by default.</p>
+ *
+ * <p>In the streaming mode, a response to be cached is returned immediately,
+ * without reading its body. The body is copied into a buffer while the caller
+ * reads it and the response is cached when it's read completely. If it's
+ * closed before that, or the body exceeds the size limit, then it's not
+ * cached.</p>
+ */
 @Slf4j
-public class HttpResponseCacheImpl implements HttpResponseCache {
+public class HttpResponseCacheImpl implements HttpResponseCache, RemovalListener {
+
+    /**
+     * Headers of a <tt>304 Not Modified</tt> response that must not replace
+     * the cached ones, because they describe the (empty) body of the 304
+     * response.
+     */
+    private static final Set<String> NOT_MERGED_HEADERS = new HashSet<>(asList(
+            "content-length", "content-encoding", "transfer-encoding"));
+
+    private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+
+    /**
+     * Number of the locks guarding updates of the entries under the same
+     * primary key; must be a power of two.
+     */
+    private static final int LOCK_STRIPES = 64;
 
     private final Cache cache;
 
+    /**
+     * Locks striped by the primary key; a {@link VaryEntry} is updated by
+     * read-modify-write, so concurrent stores of the variants of the same
+     * resource must not interleave.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
     private final CacheKeyGenerator keyGenerator;
 
+    private final int maxResponseSize;
+
     @Getter @Setter
     private ResponseExpirationResolver expirationResolver;
 
     @Getter @Setter
     private HttpResponseReader responseReader;
 
+    @Getter @Setter
+    private BodyStorage bodyStorage = new HeapBodyStorage();
+
+    /**
+     * Whether to return responses to be cached before reading their body and
+     * cache them while the body is being read by the caller.
+     */
+    @Getter @Setter
+    private boolean streaming = false;
+
+    /**
+     * The statistics to record responses that exceeded the size limit into.
+     */
+    @Getter @Setter
+    private StatsCounter statsCounter = new StatsCounter();
+
+    /**
+     * The listener to notify about removals from the cache, after evicting
+     * variants of a removed {@link VaryEntry}.
+     */
+    @Getter @Setter
+    private volatile RemovalListener delegateListener;
+
 
     public HttpResponseCacheImpl(Cache cache, boolean sharedCache, int maxResponseSize) {
         this(cache, sharedCache, maxResponseSize, new SimpleCacheKeyGenerator());
@@ -53,8 +138,13 @@ public class HttpResponseCacheImpl implements HttpResponseCache {
     public HttpResponseCacheImpl(Cache cache, boolean sharedCache, int maxResponseSize, CacheKeyGenerator keyGenerator) {
         this.cache = cache;
         this.keyGenerator = keyGenerator;
+        this.maxResponseSize = maxResponseSize;
         this.expirationResolver = new DefaultResponseExpirationResolver(sharedCache);
         this.responseReader = new SizeLimitedHttpResponseReader(maxResponseSize);
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
     }
 
 
@@ -63,37 +153,243 @@ public class HttpResponseCacheImpl implements HttpResponseCache {
     }
 
     public void evict(HttpRequest request) {
-        cache.evict(toKey(request));
+        Object key = toKey(request);
+
+        synchronized (lockFor(key)) {
+            Object value = getValue(key);
+
+            if (value instanceof VaryEntry) {
+                evictVariants((VaryEntry) value);
+            }
+            cache.evict(key);
+        }
     }
 
     public CacheEntry getCacheEntry(HttpRequest request) {
-        ValueWrapper wrapper = cache.get(toKey(request));
+        Object key = toKey(request);
+        Object value = getValue(key);
+
+        if (value instanceof VaryEntry) {
+            value = getValue(toVariantKey(key, ((VaryEntry) value).getHeaderNames(), request));
+        }
+        CacheEntry entry = (CacheEntry) value;
 
-        return wrapper != null ? (CacheEntry) wrapper.get() : null;
+        // the entry may have been evicted and released meanwhile
+        return entry != null && entry.retain() ? entry : null;
+    }
+
+    public Object getCacheKey(HttpRequest request, CacheEntry entry) {
+        Object key = toKey(request);
+        Collection<String> varyHeaders = parseVaryHeader(entry.getHeaders());
+
+        return varyHeaders.isEmpty() ? key : toVariantKey(key, varyHeaders, request);
     }
 
     public ClientHttpResponse cacheAndReturnResponse(
             HttpRequest request, ClientHttpResponse response, Date requestSent, Date responseReceived) throws IOException {
 
+        if (streaming) {
+            return streamAndCacheResponse(request, response, requestSent, responseReceived);
+        }
         try {
             InMemoryClientHttpResponse fetchedResp = responseReader.readResponse(response);
-
-            Date initialDate = expirationResolver.resolveInitialDate(fetchedResp, requestSent, responseReceived);
-            Date expirationDate = expirationResolver.resolveExpirationDate(fetchedResp, initialDate);
-
-            cache.put(toKey(request), new CacheEntry(fetchedResp, initialDate, expirationDate));
+            store(request, fetchedResp, requestSent, responseReceived);
 
             return fetchedResp;
 
         } catch (ResponseSizeLimitExceededException ex) {
+            statsCounter.recordOversize();
             log.info("[{} {}] {}", request.getMethod(), request.getURI(), "actual content length exceeded the limit");
             return ex.getResponse();
         }
     }
 
+    public CacheEntry updateCacheEntry(HttpRequest request, CacheEntry entry,
+            ClientHttpResponse notModifiedResponse, Date requestSent, Date responseReceived) {
+
+        HttpHeaders mergedHeaders = mergeHeaders(entry.getHeaders(), notModifiedResponse.getHeaders());
+
+        // the body is not needed to resolve the dates
+        InMemoryClientHttpResponse updatedHead = new InMemoryClientHttpResponse(null, entry.getStatusCode(), mergedHeaders);
+
+        Date initialDate = expirationResolver.resolveInitialDate(updatedHead, requestSent, responseReceived);
+        Date expirationDate = expirationResolver.resolveExpirationDate(updatedHead, initialDate);
+
+        CachedBody body = entry.getBody();
+        Assert.state(body.retain(), "body of the entry has been already released");
+
+        CacheEntry updatedEntry = new CacheEntry(entry.getStatusCode(), mergedHeaders, body, initialDate, expirationDate);
+        store(request, updatedEntry);
+
+        return updatedEntry;
+    }
+
+    /**
+     * Evicts variants of a {@link VaryEntry} that has been evicted by the
+     * cache due to its size.
+     */
+    public void onRemoval(Object key, Object value, RemovalCause cause) {
+        if (cause == RemovalCause.SIZE && value instanceof VaryEntry) {
+            evictVariants((VaryEntry) value);
+        }
+        RemovalListener listener = delegateListener;
+        if (listener != null) {
+            listener.onRemoval(key, value, cause);
+        }
+    }
+
+
+    private ClientHttpResponse streamAndCacheResponse(final HttpRequest request, final ClientHttpResponse response,
+            final Date requestSent, final Date responseReceived) throws IOException {
+
+        final HttpStatus status = response.getStatusCode();
+        final HttpHeaders headers = response.getHeaders();
+
+        TeeInputStream body = new TeeInputStream(response.getBody(), maxResponseSize, headers.getContentLength(),
+                new TeeInputStream.Callback() {
+
+            public void completed(byte[] body) {
+                try {
+                    store(request, new InMemoryClientHttpResponse(body, status, headers), requestSent, responseReceived);
+                } catch (RuntimeException ex) {
+                    // the caller is reading the response, it must not fail due to the cache
+                    log.warn("[{} {}] failed to cache response", request.getMethod(), request.getURI(), ex);
+                }
+            }
+            public void discarded(boolean sizeLimitExceeded) {
+                if (sizeLimitExceeded) {
+                    statsCounter.recordOversize();
+                }
+                log.info("[{} {}] {}", request.getMethod(), request.getURI(),
+                        "response has not been read completely or exceeded the size limit");
+            }
+        });
+        return new TeeClientHttpResponse(response, body);
+    }
+
+    private void store(HttpRequest request, InMemoryClientHttpResponse fetchedResp, Date requestSent, Date responseReceived) {
+        Date initialDate = expirationResolver.resolveInitialDate(fetchedResp, requestSent, responseReceived);
+        Date expirationDate = expirationResolver.resolveExpirationDate(fetchedResp, initialDate);
+
+        CachedBody body = bodyStorage.store(fetchedResp.getBodyAsByteArray());
+        store(request, new CacheEntry(fetchedResp.getStatusCode(), fetchedResp.getHeaders(), body,
+                initialDate, expirationDate));
+    }
+
+    private void store(HttpRequest request, CacheEntry entry) {
+        Object key = toKey(request);
+        Collection<String> varyHeaders = parseVaryHeader(entry.getHeaders());
+        Object variantKey = varyHeaders.isEmpty() ? null : toVariantKey(key, varyHeaders, request);
+
+        synchronized (lockFor(key)) {
+            Object prior = getValue(key);
+            VaryEntry priorVary = prior instanceof VaryEntry ? (VaryEntry) prior : null;
+
+            if (priorVary != null && !priorVary.getHeaderNames().equals(new ArrayList<>(varyHeaders))) {
+                // variants selected by other headers are not reachable anymore
+                evictVariants(priorVary);
+                priorVary = null;
+            }
+            if (variantKey == null) {
+                cache.put(key, entry);
+            } else {
+                VaryEntry varyEntry = priorVary != null ? priorVary : new VaryEntry(varyHeaders);
+
+                cache.put(key, varyEntry.withVariantKey(variantKey));
+                cache.put(variantKey, entry);
+            }
+        }
+    }
+
+    private Object lockFor(Object primaryKey) {
+        int hash = primaryKey.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    private void evictVariants(VaryEntry varyEntry) {
+        for (Object variantKey : varyEntry.getVariantKeys()) {
+            cache.evict(variantKey);
+        }
+    }
+
+    private Object getValue(Object key) {
+        ValueWrapper wrapper = cache.get(key);
 
-    private String toKey(HttpRequest request) {
+        return wrapper != null ? wrapper.get() : null;
+    }
+
+    private HttpHeaders mergeHeaders(HttpHeaders cachedHeaders, HttpHeaders newHeaders) {
+        HttpHeaders result = new HttpHeaders();
+
+        for (Entry<String, List<String>> entry : cachedHeaders.entrySet()) {
+            result.put(entry.getKey(), new LinkedList<>(entry.getValue()));
+        }
+        for (Entry<String, List<String>> entry : newHeaders.entrySet()) {
+            if (!NOT_MERGED_HEADERS.contains(entry.getKey().toLowerCase())) {
+                result.put(entry.getKey(), new LinkedList<>(entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    private Object toKey(HttpRequest request) {
         Assert.notNull(request, "request must not be null");
         return keyGenerator.createKey(request);
     }
+
+    /**
+     * Creates a variant key composed of the primary key and
+     * <tt>{header1=value1&amp;header2=value2}</tt>, where values are
+     * normalized and URL encoded. If the primary key is a string, then the
+     * variant key is a string in format
+     * <tt>{header1=value1&amp;header2=value2}primaryKey</tt>, otherwise it's
+     * a {@link VariantKey}.
+     */
+    private Object toVariantKey(Object key, Collection<String> varyHeaders, HttpRequest request) {
+        StringBuilder sb = new StringBuilder("{");
+
+        for (String name : varyHeaders) {
+            if (sb.length() > 1) {
+                sb.append('&');
+            }
+            sb.append(name).append('=').append(encode(normalizeHeaderValues(request.getHeaders().get(name))));
+        }
+        sb.append('}');
+
+        return key instanceof String
+                ? sb.append(key).toString()
+                : new VariantKey(key, sb.toString());
+    }
+
+    /**
+     * Joins the given header values into a single comma-separated value with
+     * trimmed elements and collapsed whitespaces.
+     */
+    private String normalizeHeaderValues(List<String> values) {
+        if (values == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+
+        for (String value : values) {
+            for (String element : value.split(",")) {
+                element = WHITESPACES.matcher(element.trim()).replaceAll(" ");
+                if (!element.isEmpty()) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(element);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link CachedBody} stored outside of the Java heap in a chunk of a direct
+ * {@link ByteBuffer} allocated by the {@link SlabAllocator}. The chunk is
+ * returned to the allocator when the last reference is released.
+ *
+ * <p>When serialized, it's replaced by a {@link HeapBody}.</p>
+ */
+@ThreadSafe
+public class OffHeapBody implements CachedBody {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient SlabAllocator allocator;
+
+    /**
+     * The chunk with the body between position 0 and the limit. It's never
+     * read directly, only via duplicates.
+     */
+    private final transient ByteBuffer chunk;
+
+    private final transient AtomicInteger refCount = new AtomicInteger(1);
+
+
+    /**
+     * Copies the given bytes into a chunk allocated by the given allocator.
+     * The created body has one reference, owned by the caller.
+     */
+    public OffHeapBody(SlabAllocator allocator, byte[] bytes) {
+        ByteBuffer buffer = allocator.allocate(bytes.length);
+        buffer.put(bytes).flip();
+
+        this.allocator = allocator;
+        this.chunk = buffer;
+    }
+
+
+    public int size() {
+        return chunk.limit();
+    }
+
+    /**
+     * Returns size of the allocated chunk.
+     */
+    public int storedSize() {
+        return chunk.capacity();
+    }
+
+    public InputStream openStream() {
+        return new ByteBufferInputStream(chunk.duplicate());
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[size()];
+        chunk.duplicate().get(bytes);
+
+        return bytes;
+    }
+
+    public boolean retain() {
+        for (;;) {
+            int count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        int count = refCount.decrementAndGet();
+
+        if (count == 0) {
+            allocator.release(chunk);
+        } else if (count < 0) {
+            throw new IllegalStateException("body has been already released");
+        }
+    }
+
+    /**
+     * Returns the current number of references; intended for testing.
+     */
+    int refCount() {
+        return refCount.get();
+    }
+
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new HeapBody(toByteArray());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import lombok.Getter;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link BodyStorage} that copies bodies outside of the Java heap, into
+ * chunks allocated by the {@link SlabAllocator}. It reduces GC pressure when
+ * the cache holds a lot of data.
+ *
+ * <p>The chunks are reused only when released, so the cache must release
+ * evicted entries, see {@link cz.jirutka.spring.http.client.cache.CacheEntryReleaser
+ * CacheEntryReleaser}.</p>
+ */
+@ThreadSafe
+public class OffHeapBodyStorage implements BodyStorage {
+
+    @Getter
+    private final SlabAllocator allocator;
+
+
+    public OffHeapBodyStorage() {
+        this(new SlabAllocator());
+    }
+
+    public OffHeapBodyStorage(SlabAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+
+    public CachedBody store(byte[] body) {
+        return new OffHeapBody(allocator, body);
+    }
+}
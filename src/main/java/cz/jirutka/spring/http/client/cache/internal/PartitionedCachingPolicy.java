@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import cz.jirutka.spring.http.client.cache.CachingPolicy;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * {@link CachingPolicy} that delegates to the policy of the partition of
+ * the {@link PartitionedHttpResponseCache} the request is routed to.
+ */
+public class PartitionedCachingPolicy implements CachingPolicy {
+
+    private final PartitionedHttpResponseCache cache;
+
+
+    public PartitionedCachingPolicy(PartitionedHttpResponseCache cache) {
+        this.cache = cache;
+    }
+
+
+    public boolean isResponseCacheable(HttpRequest request, ClientHttpResponse response) {
+        return cache.getPartition(request).getCachingPolicy().isResponseCacheable(request, response);
+    }
+
+    public boolean isServableFromCache(HttpRequest request) {
+        return cache.getPartition(request).getCachingPolicy().isServableFromCache(request);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link HttpResponseCache} that routes requests to separate caches
+ * ({@link CachePartition partitions}), e.g. by host, so responses of one
+ * service cannot evict responses of the others. A request is routed to the
+ * first partition that matches it, or to the default partition if none
+ * matches.
+ *
+ * @see PartitionedCachingPolicy
+ */
+@ThreadSafe
+public class PartitionedHttpResponseCache implements HttpResponseCache {
+
+    private final List<CachePartition> partitions;
+
+    private final CachePartition defaultPartition;
+
+
+    /**
+     * @param partitions The partitions in order of precedence.
+     * @param defaultPartition The partition for requests that don't match
+     *                         any of the {@code partitions}; its rule is
+     *                         ignored.
+     */
+    public PartitionedHttpResponseCache(List<CachePartition> partitions, CachePartition defaultPartition) {
+        Assert.notNull(partitions, "partitions must not be null");
+        Assert.notNull(defaultPartition, "defaultPartition must not be null");
+
+        this.partitions = new ArrayList<>(partitions);
+        this.defaultPartition = defaultPartition;
+    }
+
+
+    /**
+     * Returns the partition for the given request.
+     */
+    public CachePartition getPartition(HttpRequest request) {
+        for (CachePartition partition : partitions) {
+            if (partition.matches(request)) {
+                return partition;
+            }
+        }
+        return defaultPartition;
+    }
+
+    /**
+     * Returns all the partitions, the default one is the last.
+     */
+    public List<CachePartition> getPartitions() {
+        List<CachePartition> result = new ArrayList<>(partitions);
+        result.add(defaultPartition);
+
+        return Collections.unmodifiableList(result);
+    }
+
+    public void clear() {
+        for (CachePartition partition : getPartitions()) {
+            partition.getCache().clear();
+        }
+    }
+
+    public void evict(HttpRequest request) {
+        getPartition(request).getCache().evict(request);
+    }
+
+    public CacheEntry getCacheEntry(HttpRequest request) {
+        return getPartition(request).getCache().getCacheEntry(request);
+    }
+
+    public Object getCacheKey(HttpRequest request, CacheEntry entry) {
+        return getPartition(request).getCache().getCacheKey(request, entry);
+    }
+
+    public ClientHttpResponse cacheAndReturnResponse(
+            HttpRequest request, ClientHttpResponse response, Date requestSent, Date responseReceived) throws IOException {
+
+        return getPartition(request).getCache().cacheAndReturnResponse(request, response, requestSent, responseReceived);
+    }
+
+    public CacheEntry updateCacheEntry(HttpRequest request, CacheEntry entry,
+            ClientHttpResponse notModifiedResponse, Date requestSent, Date responseReceived) {
+
+        return getPartition(request).getCache()
+                .updateCacheEntry(request, entry, notModifiedResponse, requestSent, responseReceived);
+    }
+}
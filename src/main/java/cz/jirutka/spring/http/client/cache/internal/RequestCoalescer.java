@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import cz.jirutka.spring.http.client.cache.CacheKeyGenerator;
+import cz.jirutka.spring.http.client.cache.SimpleCacheKeyGenerator;
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.http.HttpRequest;
+import org.springframework.util.Assert;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Coalesces concurrent requests for the same resource, so that only one of
+ * them (the leader) is send to the origin and the others wait until it
+ * completes.
+ */
+@ThreadSafe
+public class RequestCoalescer {
+
+    private final ConcurrentMap<Object, CountDownLatch> inFlight = new ConcurrentHashMap<>();
+
+    private final CacheKeyGenerator keyGenerator;
+
+    private final long timeout;
+
+
+    /**
+     * @param timeout How long (in milliseconds) to wait for the in-flight
+     *                request to complete.
+     */
+    public RequestCoalescer(long timeout) {
+        this(timeout, new SimpleCacheKeyGenerator());
+    }
+
+    /**
+     * @param timeout How long (in milliseconds) to wait for the in-flight
+     *                request to complete.
+     * @param keyGenerator The generator used to identify the same requests.
+     */
+    public RequestCoalescer(long timeout, CacheKeyGenerator keyGenerator) {
+        Assert.isTrue(timeout >= 0, "timeout must not be negative");
+        Assert.notNull(keyGenerator, "keyGenerator must not be null");
+
+        this.timeout = timeout;
+        this.keyGenerator = keyGenerator;
+    }
+
+
+    /**
+     * Joins the flight of the given request. If there's no in-flight request
+     * for the same resource yet, then the caller becomes the leader and
+     * <b>must</b> {@linkplain Flight#complete() complete} the returned flight
+     * when done, otherwise it should {@linkplain Flight#await() wait} for the
+     * leader.
+     *
+     * @param request The request to be send to the origin.
+     * @return A flight of the request.
+     */
+    public Flight join(HttpRequest request) {
+        Object key = keyGenerator.createKey(request);
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch existing = inFlight.putIfAbsent(key, latch);
+
+        return existing == null
+                ? new Flight(key, latch, true)
+                : new Flight(key, existing, false);
+    }
+
+
+    //////// Inner class ////////
+
+    public final class Flight {
+
+        private final Object key;
+        private final CountDownLatch latch;
+        private final boolean leader;
+
+        private Flight(Object key, CountDownLatch latch, boolean leader) {
+            this.key = key;
+            this.latch = latch;
+            this.leader = leader;
+        }
+
+        /**
+         * Whether the caller is the leader of this flight, i.e. it should
+         * send the request to the origin.
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Waits until the leader completes the flight, or the timeout elapses.
+         *
+         * @return <tt>true</tt> if the leader has completed the flight,
+         *         <tt>false</tt> if the timeout elapsed.
+         * @throws InterruptedIOException If the current thread is interrupted
+         *         while waiting.
+         */
+        public boolean await() throws InterruptedIOException {
+            try {
+                return latch.await(timeout, MILLISECONDS);
+
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for in-flight request");
+            }
+        }
+
+        /**
+         * Completes the flight and wakes up all the waiting requests. This
+         * must be called by the leader only.
+         */
+        public void complete() {
+            Assert.state(leader, "only the leader can complete the flight");
+
+            inFlight.remove(key, latch);
+            latch.countDown();
+        }
+    }
+}
@@ -17,31 +17,43 @@ package cz.jirutka.spring.http.client.cache.internal;
 
 import net.jcip.annotations.Immutable;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.util.Assert;
 
-import java.io.*;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * HttpResponseReader implementation that reads a response until the specified
  * size limit.
+ *
+ * <p>When the response declares its <tt>Content-Length</tt>, the body is read
+ * directly into an array of exactly that size. Otherwise it's read into a
+ * buffer from a shared pool and then into segments of geometrically growing
+ * size, that are copied into the resulting array just once at the end.</p>
  */
 @Immutable
 public class SizeLimitedHttpResponseReader implements HttpResponseReader {
 
     public static final int DEFAULT_BUFFER_SIZE = 2048;
-    private static final double INITIAL_CAPACITY_FACTOR = 0.3;
+
+    /**
+     * The maximal number of idle buffers to keep in the pool.
+     */
+    public static final int MAX_POOLED_BUFFERS = 32;
 
     private final int maxBodySize;
-    private final int bufferSize;
+    private final ByteArrayPool bufferPool;
 
     /**
      * Construct with a {@link #DEFAULT_BUFFER_SIZE default buffer size}.
      *
      * @param maxBodySize The maximal size to read in bytes. It must be
-     *                    greater then zero and should be multiple of the
-     *                    {@link #DEFAULT_BUFFER_SIZE}.
+     *                    greater then zero.
      */
     public SizeLimitedHttpResponseReader(int maxBodySize) {
         this(maxBodySize, DEFAULT_BUFFER_SIZE);
@@ -49,16 +61,16 @@ public class SizeLimitedHttpResponseReader implements HttpResponseReader {
 
     /**
      * @param maxBodySize The maximal size to read in bytes. It must be
-     *                    greater then zero and should be multiple of the
-     *                    {@code bufferSize}.
-     * @param bufferSize The buffer size in bytes. It must be greater then zero.
+     *                    greater then zero.
+     * @param bufferSize The size of the pooled buffers in bytes. It must be
+     *                   greater then zero.
      */
     public SizeLimitedHttpResponseReader(int maxBodySize, int bufferSize) {
         Assert.isTrue(maxBodySize > 0, "bytesLimit must be greater then zero");
-        Assert.isTrue(maxBodySize > 0, "bufferSize must be greater then zero");
+        Assert.isTrue(bufferSize > 0, "bufferSize must be greater then zero");
 
         this.maxBodySize = maxBodySize;
-        this.bufferSize = bufferSize;
+        this.bufferPool = new ByteArrayPool(bufferSize, MAX_POOLED_BUFFERS);
     }
 
 
@@ -81,45 +93,106 @@ public class SizeLimitedHttpResponseReader implements HttpResponseReader {
         Assert.notNull(response, "response must not be null");
 
         InputStream bodyStream = response.getBody();
-        ByteArrayOutputStream out = new ByteArrayOutputStream(initialCapacity());
-
-        long bytesTotal = 0;
-        byte[] buffer = new byte[bufferSize];
-        int bytesRead = -1;
+        long contentLength = contentLength(response);
 
-        while ((bytesRead = bodyStream.read(buffer)) != -1) {
-            out.write(buffer, 0, bytesRead);
-            bytesTotal += bytesRead;
+        if (contentLength >= maxBodySize) {
+            throw new ResponseSizeLimitExceededException( new CombinedClientHttpResponse(response, bodyStream) );
+        }
 
-            if (bytesTotal > maxBodySize -1) {
-                throw new ResponseSizeLimitExceededException( createCombinedResponse(response, out, bodyStream) );
+        byte[] body;
+        if (contentLength >= 0) {
+            body = readBody(response, bodyStream, new byte[(int) contentLength], false);
+        } else {
+            byte[] buffer = bufferPool.acquire();
+            try {
+                body = readBody(response, bodyStream, buffer, true);
+            } finally {
+                bufferPool.release(buffer);
             }
         }
         response.close();
 
-        return createInMemoryResponse(response, out);
+        return new InMemoryClientHttpResponse(body, response.getStatusCode(), response.getHeaders());
     }
 
 
-    private int initialCapacity() {
-        return new Double(maxBodySize * INITIAL_CAPACITY_FACTOR).intValue();
+    /**
+     * Reads the body stream into the given first segment and then into new
+     * segments, each as big as all the previous ones together, until the end
+     * of the stream. When the whole body fits exactly into the first segment
+     * that is not pooled, then it's returned as is, otherwise the segments
+     * are copied into a new array.
+     */
+    private byte[] readBody(ClientHttpResponse response, InputStream bodyStream, byte[] firstSegment, boolean pooled)
+            throws IOException {
+
+        List<byte[]> fullSegments = new ArrayList<>();
+        byte[] segment = firstSegment;
+        int position = 0;
+        int bytesTotal = 0;
+
+        while (true) {
+            if (position == segment.length) {
+                // check if the end has been reached before allocating a new segment
+                int next = bodyStream.read();
+                if (next == -1) {
+                    break;
+                }
+                fullSegments.add(segment);
+                segment = new byte[Math.max(1, Math.min(bytesTotal, maxBodySize - bytesTotal))];
+                segment[0] = (byte) next;
+                position = 1;
+                bytesTotal++;
+
+            } else {
+                int bytesRead = bodyStream.read(segment, position, segment.length - position);
+                if (bytesRead == -1) {
+                    break;
+                }
+                position += bytesRead;
+                bytesTotal += bytesRead;
+            }
+
+            if (bytesTotal > maxBodySize -1) {
+                byte[] consumedBody = concat(fullSegments, segment, position, bytesTotal);
+                throw new ResponseSizeLimitExceededException( createCombinedResponse(response, consumedBody, bodyStream) );
+            }
+        }
+
+        if (!pooled && fullSegments.isEmpty() && position == segment.length) {
+            return segment;
+        }
+        return concat(fullSegments, segment, position, bytesTotal);
     }
 
-    private CombinedClientHttpResponse createCombinedResponse(
-            ClientHttpResponse originalResponse, ByteArrayOutputStream consumedBody, InputStream originalBody) {
+    private long contentLength(ClientHttpResponse response) {
+        HttpHeaders headers = response.getHeaders();
+        try {
+            return headers != null ? headers.getContentLength() : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
 
-        InputStream combinedBody = new SequenceInputStream(new ByteArrayInputStream(consumedBody.toByteArray()), originalBody);
+    private byte[] concat(List<byte[]> fullSegments, byte[] lastSegment, int lastLength, int totalLength) {
+        byte[] result = new byte[totalLength];
+        int offset = 0;
 
-        return new CombinedClientHttpResponse(originalResponse, combinedBody);
+        for (byte[] segment : fullSegments) {
+            System.arraycopy(segment, 0, result, offset, segment.length);
+            offset += segment.length;
+        }
+        System.arraycopy(lastSegment, 0, result, offset, lastLength);
+
+        return result;
     }
 
-    private InMemoryClientHttpResponse createInMemoryResponse(
-            ClientHttpResponse originalResponse, ByteArrayOutputStream body) throws IOException {
+    private CombinedClientHttpResponse createCombinedResponse(
+            ClientHttpResponse originalResponse, byte[] consumedBody, InputStream originalBody) {
 
-        HttpStatus status = originalResponse.getStatusCode();
-        HttpHeaders headers = originalResponse.getHeaders();
+        InputStream combinedBody = new SequenceInputStream(new ByteArrayInputStream(consumedBody), originalBody);
 
-        return new InMemoryClientHttpResponse(body.toByteArray(), status, headers);
+        return new CombinedClientHttpResponse(originalResponse, combinedBody);
     }
 
 
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.springframework.util.Assert;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocator of chunks of direct (off-heap) memory with size classes, inspired
+ * by the slab allocator of <i>memcached</i>.
+ *
+ * <p>The memory is reserved in slabs of a fixed size. Each slab is dedicated
+ * to one size class and divided into chunks of that size. The size classes
+ * are powers of two from the minimal chunk size up to the slab size.
+ * Released chunks are returned to their slab and reused for subsequent
+ * allocations. When all chunks of a slab are released, the slab is dropped
+ * (and its memory freed by GC), unless it's the last slab of its size class
+ * with free chunks; that one is kept to avoid reallocating a slab over and
+ * over. Thus the reserved memory shrinks along with the cache, up to one
+ * slab per size class.</p>
+ *
+ * <p>Requests bigger than the slab size are served by a dedicated direct
+ * buffer that's not pooled, i.e. it's freed by GC after release.</p>
+ */
+@ThreadSafe
+public class SlabAllocator {
+
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 256;
+
+    private final int slabSize;
+
+    private final int minChunkShift;
+
+    private final SizeClass[] sizeClasses;
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+
+    public SlabAllocator() {
+        this(DEFAULT_SLAB_SIZE, DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * @param slabSize Size of a slab in bytes; must be a power of two.
+     * @param minChunkSize Size of the smallest chunk in bytes; must be a power
+     *                     of two, not greater than the slab size.
+     */
+    public SlabAllocator(int slabSize, int minChunkSize) {
+        Assert.isTrue(Integer.bitCount(slabSize) == 1, "slabSize must be a power of two");
+        Assert.isTrue(Integer.bitCount(minChunkSize) == 1, "minChunkSize must be a power of two");
+        Assert.isTrue(minChunkSize <= slabSize, "minChunkSize must not be greater than slabSize");
+
+        this.slabSize = slabSize;
+        this.minChunkShift = Integer.numberOfTrailingZeros(minChunkSize);
+
+        int classes = Integer.numberOfTrailingZeros(slabSize) - minChunkShift + 1;
+        this.sizeClasses = new SizeClass[classes];
+
+        for (int i = 0; i < classes; i++) {
+            sizeClasses[i] = new SizeClass(1 << (i + minChunkShift));
+        }
+    }
+
+
+    /**
+     * Allocates a chunk for the given number of bytes. The returned buffer
+     * has position 0 and limit set to the requested size; its capacity is the
+     * size of the chunk.
+     */
+    public ByteBuffer allocate(int size) {
+        Assert.isTrue(size >= 0, "size must not be negative");
+
+        if (size > slabSize) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer chunk = sizeClasses[sizeClass(size)].allocate();
+        chunk.clear();
+        chunk.limit(size);
+
+        return chunk;
+    }
+
+    /**
+     * Returns the chunk previously allocated by this allocator to its slab.
+     * It must not be used anymore after release!
+     */
+    public void release(ByteBuffer chunk) {
+        if (chunk.capacity() <= slabSize) {
+            sizeClasses[sizeClass(chunk.capacity())].release(chunk);
+        }
+    }
+
+    /**
+     * Returns the total size of the slabs currently allocated in bytes (not
+     * counting the dedicated buffers for the big requests).
+     */
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+
+    private int sizeClass(int size) {
+        int shift = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+
+        return Math.max(shift - minChunkShift, 0);
+    }
+
+
+    //////// Inner classes ////////
+
+    /**
+     * Slabs of one size class.
+     */
+    @ThreadSafe
+    private final class SizeClass {
+
+        private final int chunkSize;
+
+        /** Slabs with at least one free chunk. */
+        @GuardedBy("this")
+        private final Deque<Slab> available = new ArrayDeque<>();
+
+        /** The slab of each allocated chunk. */
+        @GuardedBy("this")
+        private final Map<ByteBuffer, Slab> owners = new IdentityHashMap<>();
+
+
+        SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+
+        synchronized ByteBuffer allocate() {
+            Slab slab = available.peekFirst();
+
+            if (slab == null) {
+                slab = new Slab(slabSize / chunkSize);
+                available.addFirst(slab);
+                reservedBytes.addAndGet(slabSize);
+            }
+            ByteBuffer chunk = slab.freeChunks.pop();
+            owners.put(chunk, slab);
+
+            if (slab.freeChunks.isEmpty()) {
+                available.removeFirst();
+            }
+            return chunk;
+        }
+
+        synchronized void release(ByteBuffer chunk) {
+            Slab slab = owners.remove(chunk);
+            if (slab == null) {
+                return;  // not allocated from a slab, or already released
+            }
+            slab.freeChunks.push(chunk);
+
+            if (slab.freeChunks.size() == 1) {
+                available.addFirst(slab);
+            }
+            if (slab.freeChunks.size() == slab.chunksCount && available.size() > 1) {
+                available.remove(slab);
+                reservedBytes.addAndGet(-slabSize);
+            }
+        }
+
+        /**
+         * A slab divided into chunks of the size class.
+         */
+        private final class Slab {
+
+            private final int chunksCount;
+
+            private final Deque<ByteBuffer> freeChunks;
+
+
+            Slab(int chunksCount) {
+                ByteBuffer memory = ByteBuffer.allocateDirect(slabSize);
+
+                this.chunksCount = chunksCount;
+                this.freeChunks = new ArrayDeque<>(chunksCount);
+
+                for (int offset = slabSize - chunkSize; offset >= 0; offset -= chunkSize) {
+                    memory.limit(offset + chunkSize).position(offset);
+                    freeChunks.push(memory.slice());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import cz.jirutka.spring.http.client.cache.CacheStatistics;
+import cz.jirutka.spring.http.client.cache.CacheStatisticsMXBean;
+import cz.jirutka.spring.http.client.cache.RemovalListener;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records statistics of the HTTP cache using {@link StripedCounter}s, so
+ * it adds just a little overhead even under high concurrency. It exposes
+ * the live values through {@link CacheStatisticsMXBean} and immutable
+ * snapshots through {@link #snapshot()}.
+ *
+ * <p>It's also a {@link RemovalListener} that counts evictions due to
+ * the cache capacity and passes all removals to the delegate listener, if
+ * any.</p>
+ *
+ * <p>A counter may have a parent counter (e.g. of a whole partitioned
+ * cache) that records everything recorded by its children as well.</p>
+ */
+@ThreadSafe
+public class StatsCounter implements CacheStatisticsMXBean, RemovalListener {
+
+    /**
+     * Upper bounds of the fetch latency histogram buckets in milliseconds.
+     */
+    private static final long[] LATENCY_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter staleHits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter notServable = new StripedCounter();
+    private final StripedCounter notCacheable = new StripedCounter();
+    private final StripedCounter oversize = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+    private final StripedCounter bytesFromCache = new StripedCounter();
+    private final StripedCounter bytesFromOrigin = new StripedCounter();
+    private final StripedCounter fetchNanos = new StripedCounter();
+
+    // fetches are slow anyway, so contention on the buckets doesn't matter
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BOUNDS.length + 1);
+
+    private final StatsCounter parent;
+
+    private volatile RemovalListener delegateListener;
+
+
+    public StatsCounter() {
+        this(null);
+    }
+
+    /**
+     * @param parent The counter to record everything into as well, or
+     *               {@code null}.
+     */
+    public StatsCounter(StatsCounter parent) {
+        this.parent = parent;
+    }
+
+
+    public void recordHit(long bodySize) {
+        hits.increment();
+        bytesFromCache.add(bodySize);
+        if (parent != null) {
+            parent.recordHit(bodySize);
+        }
+    }
+
+    public void recordStaleHit(long bodySize) {
+        staleHits.increment();
+        bytesFromCache.add(bodySize);
+        if (parent != null) {
+            parent.recordStaleHit(bodySize);
+        }
+    }
+
+    /**
+     * Records a response body served from the cache on a miss, e.g. after
+     * successful revalidation.
+     */
+    public void recordBytesFromCache(long bodySize) {
+        bytesFromCache.add(bodySize);
+        if (parent != null) {
+            parent.recordBytesFromCache(bodySize);
+        }
+    }
+
+    public void recordMiss() {
+        misses.increment();
+        if (parent != null) {
+            parent.recordMiss();
+        }
+    }
+
+    public void recordNotServable() {
+        notServable.increment();
+        if (parent != null) {
+            parent.recordNotServable();
+        }
+    }
+
+    public void recordNotCacheable() {
+        notCacheable.increment();
+        if (parent != null) {
+            parent.recordNotCacheable();
+        }
+    }
+
+    public void recordOversize() {
+        oversize.increment();
+        if (parent != null) {
+            parent.recordOversize();
+        }
+    }
+
+    /**
+     * @param bodySize Size of the response body in bytes, or a negative
+     *                 number if unknown.
+     */
+    public void recordBytesFromOrigin(long bodySize) {
+        if (bodySize > 0) {
+            bytesFromOrigin.add(bodySize);
+        }
+        if (parent != null) {
+            parent.recordBytesFromOrigin(bodySize);
+        }
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+        if (parent != null) {
+            parent.recordEviction();
+        }
+    }
+
+    /**
+     * Records latency of a request sent to the origin.
+     */
+    public void recordFetch(long nanos) {
+        fetchNanos.add(nanos);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BOUNDS.length && millis > LATENCY_BOUNDS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets.incrementAndGet(bucket);
+        if (parent != null) {
+            parent.recordFetch(nanos);
+        }
+    }
+
+    /**
+     * Sets the listener to notify about removals from the cache, after
+     * counting them.
+     */
+    public void setDelegateListener(RemovalListener listener) {
+        this.delegateListener = listener;
+    }
+
+    public void onRemoval(Object key, Object value, RemovalCause cause) {
+        if (cause == RemovalCause.SIZE) {
+            recordEviction();
+        }
+        RemovalListener listener = delegateListener;
+        if (listener != null) {
+            listener.onRemoval(key, value, cause);
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of the current statistics.
+     */
+    public CacheStatistics snapshot() {
+        return new CacheStatistics(this);
+    }
+
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getNotServableCount() {
+        return notServable.sum();
+    }
+
+    public long getNotCacheableCount() {
+        return notCacheable.sum();
+    }
+
+    public long getOversizeCount() {
+        return oversize.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getBytesFromCache() {
+        return bytesFromCache.sum();
+    }
+
+    public long getBytesFromOrigin() {
+        return bytesFromOrigin.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = getHitCount() + getStaleHitCount();
+        long total = hits + getMissCount();
+
+        return total > 0 ? (double) hits / total : Double.NaN;
+    }
+
+    public long getFetchCount() {
+        long count = 0;
+        for (int i = 0; i < latencyBuckets.length(); i++) {
+            count += latencyBuckets.get(i);
+        }
+        return count;
+    }
+
+    public double getFetchLatencyMeanMillis() {
+        long count = getFetchCount();
+        return count > 0 ? fetchNanos.sum() / 1e6 / count : Double.NaN;
+    }
+
+    public long[] getFetchLatencyBucketBounds() {
+        return LATENCY_BOUNDS.clone();
+    }
+
+    public long[] getFetchLatencyBucketCounts() {
+        long[] counts = new long[latencyBuckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencyBuckets.get(i);
+        }
+        return counts;
+    }
+}
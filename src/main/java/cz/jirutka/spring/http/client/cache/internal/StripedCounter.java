@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads updates over several cells (stripes) selected by
+ * the current thread, so concurrent updates don't contend on a single
+ * memory location. The cells are padded to separate cache lines. It's a
+ * simplified variant of the {@code LongAdder} from Java 8.
+ *
+ * <p>The {@link #sum()} is not an atomic snapshot, when the counter is
+ * concurrently updated.</p>
+ */
+@ThreadSafe
+public class StripedCounter {
+
+    /** Number of longs between two cells, i.e. 64 bytes. */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES = stripesCount();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(cellIndex(), delta);
+    }
+
+    /**
+     * Returns the current sum of all the cells.
+     */
+    public long sum() {
+        long sum = 0;
+
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+
+    private static int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+
+        return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * Returns the smallest power of two not less than twice the number of
+     * processors, but at most 64.
+     */
+    private static int stripesCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(64, Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link ClientHttpResponse} decorator that's cached while its body is being
+ * read, using the {@link TeeInputStream}. Closing the response closes the
+ * tee stream as well, so an incompletely read body is not cached.
+ */
+@NotThreadSafe
+public class TeeClientHttpResponse implements ClientHttpResponse {
+
+    private final ClientHttpResponse response;
+
+    private final TeeInputStream body;
+
+
+    /**
+     * @param response The original response.
+     * @param body The tee stream over the body of the original response.
+     */
+    public TeeClientHttpResponse(ClientHttpResponse response, TeeInputStream body) {
+        Assert.notNull(response, "response must not be null");
+        Assert.notNull(body, "body must not be null");
+
+        this.response = response;
+        this.body = body;
+    }
+
+
+    /**
+     * Registers a listener to run when the response has been cached, or it's
+     * been decided that it won't be cached, i.e. when the body is read to
+     * the end, or the response is closed.
+     *
+     * @see TeeInputStream#onDone(Runnable)
+     */
+    public void onDone(Runnable listener) {
+        body.onDone(listener);
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    public HttpHeaders getHeaders() {
+        return response.getHeaders();
+    }
+
+    public HttpStatus getStatusCode() throws IOException {
+        return response.getStatusCode();
+    }
+
+    public int getRawStatusCode() throws IOException {
+        return response.getRawStatusCode();
+    }
+
+    public String getStatusText() throws IOException {
+        return response.getStatusText();
+    }
+
+    public void close() {
+        try {
+            body.close();
+        } catch (IOException ex) {
+            // ignore
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link InputStream} decorator that copies all bytes read from the
+ * underlying stream into a buffer, up to the size limit. When the end of the
+ * stream is reached, the buffered bytes are passed to the {@link Callback}.
+ * If the limit is exceeded, the stream is skipped, or it's closed before
+ * reaching the end, then the buffer is discarded.
+ *
+ * <p>When the expected length is known (i.e. <tt>Content-Length</tt>), then
+ * the stream is considered complete also when it's closed after reading
+ * exactly that number of bytes, even without reading the end.</p>
+ */
+@NotThreadSafe
+public class TeeInputStream extends FilterInputStream {
+
+    private final int limit;
+
+    private final long expectedLength;
+
+    private final Callback callback;
+
+    /**
+     * The buffer, or {@code null} if it's been already completed or
+     * discarded.
+     */
+    private ByteArrayOutputStream buffer;
+
+    /**
+     * The listener to run after completion or discarding, or {@code null}.
+     */
+    private Runnable doneListener;
+
+
+    /**
+     * @param source The stream to read.
+     * @param limit The maximal number of bytes to buffer (exclusive).
+     * @param expectedLength The expected number of bytes, or -1 if unknown.
+     * @param callback The callback to notify about completion.
+     */
+    public TeeInputStream(InputStream source, int limit, long expectedLength, Callback callback) {
+        super(source);
+        this.limit = limit;
+        this.expectedLength = expectedLength;
+        this.callback = callback;
+
+        if (expectedLength < limit) {
+            this.buffer = new ByteArrayOutputStream(expectedLength >= 0 ? (int) expectedLength : 256);
+        } else {
+            callback.discarded(true);
+        }
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+
+        if (b == -1) {
+            complete();
+        } else if (buffer != null && ensureCapacity(1)) {
+            buffer.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+
+        if (n == -1) {
+            complete();
+        } else if (buffer != null && ensureCapacity(n)) {
+            buffer.write(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        discard(false);
+        return in.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (buffer != null && buffer.size() == expectedLength) {
+                complete();
+            } else {
+                discard(false);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Registers a listener to run after the buffer has been completed (and
+     * passed to the callback) or discarded. If it's been already done, then
+     * the listener is run immediately. Only one listener is supported.
+     */
+    public void onDone(Runnable listener) {
+        Assert.notNull(listener, "listener must not be null");
+
+        if (buffer == null) {
+            listener.run();
+        } else {
+            this.doneListener = listener;
+        }
+    }
+
+
+    private boolean ensureCapacity(int n) {
+        if (buffer.size() + n >= limit) {
+            discard(true);
+            return false;
+        }
+        return true;
+    }
+
+    private void complete() {
+        if (buffer != null) {
+            byte[] body = buffer.toByteArray();
+            buffer = null;
+            try {
+                callback.completed(body);
+            } finally {
+                done();
+            }
+        }
+    }
+
+    private void discard(boolean sizeLimitExceeded) {
+        if (buffer != null) {
+            buffer = null;
+            try {
+                callback.discarded(sizeLimitExceeded);
+            } finally {
+                done();
+            }
+        }
+    }
+
+    private void done() {
+        Runnable listener = doneListener;
+        doneListener = null;
+
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+
+    //////// Inner class ////////
+
+    public interface Callback {
+
+        /**
+         * Called when the whole stream has been read.
+         *
+         * @param body All the bytes read from the stream.
+         */
+        void completed(byte[] body);
+
+        /**
+         * Called when the buffered bytes have been discarded.
+         *
+         * @param sizeLimitExceeded Whether it's been discarded because the
+         *                          stream exceeded the size limit.
+         */
+        void discarded(boolean sizeLimitExceeded);
+    }
+}
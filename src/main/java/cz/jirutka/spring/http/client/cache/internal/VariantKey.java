@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import net.jcip.annotations.Immutable;
+import org.springframework.util.Assert;
+
+import java.io.Serializable;
+
+/**
+ * A key of a response variant selected by the request headers, composed of
+ * the primary key of the resource and a description of the variant. It's
+ * used for primary keys that are not strings.
+ *
+ * @see VaryEntry
+ */
+@Immutable
+@Getter
+@EqualsAndHashCode
+public class VariantKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object primaryKey;
+
+    private final String variant;
+
+
+    public VariantKey(Object primaryKey, String variant) {
+        Assert.notNull(primaryKey, "primaryKey must not be null");
+        Assert.notNull(variant, "variant must not be null");
+
+        this.primaryKey = primaryKey;
+        this.variant = variant;
+    }
+
+    @Override
+    public String toString() {
+        return variant + primaryKey;
+    }
+}
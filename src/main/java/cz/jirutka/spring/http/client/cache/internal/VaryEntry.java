@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal;
+
+import lombok.EqualsAndHashCode;
+import net.jcip.annotations.Immutable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.Assert;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An entry stored under the primary key of a resource whose responses vary
+ * by the request headers. It records names of the request headers
+ * nominated by the <tt>Vary</tt> header of the response; the responses
+ * itself are stored under the variant keys.
+ *
+ * <p>It also tracks the variant keys, so the variants can be evicted along
+ * with this entry. Only the {@value #MAX_VARIANT_KEYS} most recently stored
+ * variants are tracked, the older ones are left to be evicted by the cache
+ * itself.</p>
+ *
+ * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec13.html#sec13.6">HTTP/1.1 section 13.6</a>
+ */
+@Immutable
+@EqualsAndHashCode
+public class VaryEntry implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    /**
+     * The maximal number of tracked variant keys.
+     */
+    public static final int MAX_VARIANT_KEYS = 64;
+
+    private final List<String> headerNames;
+
+    private final Set<Object> variantKeys;
+
+
+    /**
+     * @param headerNames Lowercased names of the request headers that
+     *                    select the variant.
+     */
+    public VaryEntry(Collection<String> headerNames) {
+        this(headerNames, Collections.emptySet());
+    }
+
+    /**
+     * @param headerNames Lowercased names of the request headers that
+     *                    select the variant.
+     * @param variantKeys Keys of the stored variants.
+     */
+    public VaryEntry(Collection<String> headerNames, Collection<?> variantKeys) {
+        Assert.notEmpty(headerNames, "headerNames must not be empty");
+        Assert.notNull(variantKeys, "variantKeys must not be null");
+
+        this.headerNames = Collections.unmodifiableList(new ArrayList<>(headerNames));
+        this.variantKeys = Collections.unmodifiableSet(new LinkedHashSet<Object>(variantKeys));
+    }
+
+
+    /**
+     * Parses the <tt>Vary</tt> header(s) from the given headers.
+     *
+     * @param headers HTTP headers of the response.
+     * @return Sorted set of the lowercased header names; may contain
+     *         <tt>*</tt>. If there's no <tt>Vary</tt> header, then returns
+     *         an empty set.
+     */
+    public static SortedSet<String> parseVaryHeader(HttpHeaders headers) {
+        SortedSet<String> result = new TreeSet<>();
+
+        List<String> values = headers.get("Vary");
+        if (values != null) {
+            for (String value : values) {
+                for (String name : value.split(",")) {
+                    name = name.trim();
+                    if (!name.isEmpty()) {
+                        result.add(name.toLowerCase());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns lowercased names of the request headers that select the variant.
+     */
+    public List<String> getHeaderNames() {
+        return headerNames;
+    }
+
+    /**
+     * Returns keys of the stored variants, from the least recently stored.
+     */
+    public Set<Object> getVariantKeys() {
+        return variantKeys;
+    }
+
+    /**
+     * Returns a copy of this entry that tracks also the given variant key,
+     * as the most recently stored one.
+     */
+    public VaryEntry withVariantKey(Object variantKey) {
+        Assert.notNull(variantKey, "variantKey must not be null");
+
+        Set<Object> keys = new LinkedHashSet<>(variantKeys);
+        keys.remove(variantKey);
+        keys.add(variantKey);
+
+        Iterator<Object> it = keys.iterator();
+        while (keys.size() > MAX_VARIANT_KEYS) {
+            it.next();
+            it.remove();
+        }
+        return new VaryEntry(headerNames, keys);
+    }
+}
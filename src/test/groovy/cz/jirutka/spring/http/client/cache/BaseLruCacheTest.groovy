@@ -18,6 +18,8 @@ package cz.jirutka.spring.http.client.cache
 import org.springframework.cache.Cache
 import spock.lang.Specification
 
+import static cz.jirutka.spring.http.client.cache.RemovalListener.RemovalCause.*
+
 abstract class BaseLruCacheTest extends Specification {
 
     def cache = createCache(16)
@@ -100,6 +102,42 @@ abstract class BaseLruCacheTest extends Specification {
             (keys - 'k1').each { assert cache.get(it) }
     }
 
+    def 'should notify removal listener about replaced entry'() {
+        setup:
+            def listener = Mock(RemovalListener)
+            cache.removalListener = listener
+        when:
+            cache.put('key1', 'new-value')
+        then:
+            1 * listener.onRemoval('key1', 'value1', REPLACED)
+    }
+
+    def 'should notify removal listener about evicted entries'() {
+        setup:
+            def listener = Mock(RemovalListener)
+            cache.removalListener = listener
+        when:
+            cache.evict('key1')
+        then:
+            1 * listener.onRemoval('key1', 'value1', EXPLICIT)
+        when:
+            cache.clear()
+        then:
+            4 * listener.onRemoval(_, _, EXPLICIT)
+    }
+
+    def 'should notify removal listener about entry removed when full'() {
+        setup:
+            def cache = createCache(4)
+            def listener = Mock(RemovalListener)
+            cache.removalListener = listener
+        when:
+            ['k1', 'k2', 'k3', 'k4', 'k5'].each { cache.put(it, 'value') }
+        then:
+            1 * listener.onRemoval('k1', 'value', SIZE)
+            0 * listener._
+    }
+
 
     def seed(cache, entries=5) {
         entries.times { idx ->
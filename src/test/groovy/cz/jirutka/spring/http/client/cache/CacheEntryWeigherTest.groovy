@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache
+
+import cz.jirutka.spring.http.client.cache.internal.CacheEntry
+import cz.jirutka.spring.http.client.cache.internal.DeduplicatingBodyStorage
+import cz.jirutka.spring.http.client.cache.internal.HeapBodyStorage
+import cz.jirutka.spring.http.client.cache.internal.InMemoryClientHttpResponse
+import cz.jirutka.spring.http.client.cache.internal.VaryEntry
+import org.springframework.http.HttpHeaders
+import spock.lang.Specification
+
+import static org.springframework.http.HttpStatus.OK
+
+class CacheEntryWeigherTest extends Specification {
+
+    def weigher = new CacheEntryWeigher()
+
+
+    def 'weigh cache entry by size of body and headers'() {
+        setup:
+            def headers = new HttpHeaders()
+            headers.add('ETag', '"abc"')
+            headers.add('Cache-Control', 'max-age=60')
+            def response = new InMemoryClientHttpResponse(new byte[100], OK, headers)
+            def entry = new CacheEntry(response, new Date(), new Date())
+        expect:
+            weigher.weigh('key', entry) == 100 + ('ETag'.length() + 5 + 4) + ('Cache-Control'.length() + 10 + 4)
+    }
+
+    def 'weigh shared body in full to the entries that remain after evicting the first one'() {
+        setup:
+            def storage = new DeduplicatingBodyStorage(new HeapBodyStorage())
+            def cache = new SynchronizedLruCache('test', 16, Long.MAX_VALUE, weigher)
+            def bytes = new byte[100]
+        when:
+            ['first', 'second'].each {
+                cache.put(it, new CacheEntry(OK, new HttpHeaders(), storage.store(bytes), new Date(), new Date()))
+            }
+        then:
+            cache.totalWeight == 2 * 100
+        when:
+            cache.evict('first')
+        then:
+            storage.uniqueBodiesCount == 1
+            cache.totalWeight == 100
+    }
+
+    def 'weigh vary entry by length of header names'() {
+        expect:
+            weigher.weigh('key', new VaryEntry(['accept', 'accept-encoding'])) == 21
+    }
+
+    def 'weigh other values as zero'() {
+        expect:
+            weigher.weigh('key', 'foo') == 0
+    }
+}
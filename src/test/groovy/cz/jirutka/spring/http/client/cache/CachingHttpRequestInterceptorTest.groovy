@@ -15,10 +15,17 @@
  */
 package cz.jirutka.spring.http.client.cache
 
+import cz.jirutka.spring.http.client.cache.internal.AsynchronousRevalidator
 import cz.jirutka.spring.http.client.cache.internal.CacheEntry
+import cz.jirutka.spring.http.client.cache.internal.CachePartition
+import cz.jirutka.spring.http.client.cache.internal.ConditionalHttpRequest
 import cz.jirutka.spring.http.client.cache.internal.HttpResponseCache
 import cz.jirutka.spring.http.client.cache.internal.HttpResponseCacheImpl
 import cz.jirutka.spring.http.client.cache.internal.InMemoryClientHttpResponse
+import cz.jirutka.spring.http.client.cache.internal.PartitionedCachingPolicy
+import cz.jirutka.spring.http.client.cache.internal.PartitionedHttpResponseCache
+import cz.jirutka.spring.http.client.cache.internal.RequestCoalescer
+import cz.jirutka.spring.http.client.cache.internal.StatsCounter
 import cz.jirutka.spring.http.client.cache.test.AbbreviatedTimeCategory
 import cz.jirutka.spring.http.client.cache.test.HttpHeadersHelper
 import org.springframework.cache.Cache
@@ -27,6 +34,10 @@ import org.springframework.http.client.ClientHttpRequestExecution
 import spock.lang.Specification
 import spock.util.mop.Use
 
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+
+import static org.springframework.http.HttpStatus.NOT_MODIFIED
 import static org.springframework.http.HttpStatus.OK
 
 @Mixin(HttpHeadersHelper)
@@ -92,7 +103,6 @@ class CachingHttpRequestInterceptorTest extends Specification {
 
     def 'request is served from cache'() {
         setup:
-            def expected = new InMemoryClientHttpResponse(SOME_BODY, OK, header(Age: 60))
             0 * execution._
         when:
             def returned = interceptor.intercept(request, EMPTY_BODY, execution)
@@ -101,7 +111,25 @@ class CachingHttpRequestInterceptorTest extends Specification {
             1 * cache.getCacheEntry(request) >> cacheEntry
             1 * suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> true
         and:
-            returned == expected
+            returned.statusCode == OK
+            returned.body.bytes == SOME_BODY
+            returned.headers == header(Age: 60)
+    }
+
+    def 'request is served from cache with time of the clock'() {
+        setup:
+            def clock = Mock(Clock)
+            interceptor.clock = clock
+            clock.currentTimeMillis() >> (now +5.min).time
+        and:
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> cacheEntry
+        when:
+            def returned = interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            1 * suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, (now +5.min).time) >> true
+        and:
+            returned.headers == header(Age: 360)
     }
 
     def 'response is cacheable'() {
@@ -117,6 +145,325 @@ class CachingHttpRequestInterceptorTest extends Specification {
             returned == response
     }
 
+    def 'stale cached entry with validators is revalidated and not modified'() {
+        setup:
+            def staleEntry = createCacheEntry(ETag: '"v1"', 'Last-Modified': 'Thu, 01 Jan 2015 00:00:00 GMT')
+            def updatedEntry = createCacheEntry(ETag: '"v1"')
+            def notModified = buildResponse(status: NOT_MODIFIED.value(), body: '')
+        when:
+            def returned = interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            1 * cachingPolicy.isServableFromCache(request) >> true
+            1 * cache.getCacheEntry(request) >> staleEntry
+            1 * suitabilityChecker.canCachedEntryBeUsed(request, staleEntry, _) >> false
+        and:
+            1 * execution.execute({ ConditionalHttpRequest req ->
+                req.headers.getFirst('If-None-Match') == '"v1"' &&
+                req.headers.getFirst('If-Modified-Since') == 'Thu, 01 Jan 2015 00:00:00 GMT'
+            }, EMPTY_BODY) >> notModified
+        and:
+            1 * cache.updateCacheEntry(request, staleEntry, notModified, _ as Date, _ as Date) >> updatedEntry
+            0 * cache.cacheAndReturnResponse(*_)
+        and:
+            returned.body.bytes == SOME_BODY
+    }
+
+    def 'stale cached entry with validators is revalidated and modified'() {
+        setup:
+            def staleEntry = createCacheEntry(ETag: '"v1"')
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> staleEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, staleEntry, _) >> false
+        when:
+            def returned = interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            1 * execution.execute(_ as ConditionalHttpRequest, EMPTY_BODY) >> response
+            1 * cachingPolicy.isResponseCacheable(request, response) >> true
+            1 * cache.cacheAndReturnResponse(request, response, _ as Date, _ as Date) >> response
+            0 * cache.updateCacheEntry(*_)
+        and:
+            returned == response
+    }
+
+    def 'stale cached entry is served while revalidating in background'() {
+        setup:
+            def staleEntry = createCacheEntry(ETag: '"v1"')
+            def revalidator = Mock(AsynchronousRevalidator)
+            interceptor.asyncRevalidator = revalidator
+        and:
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> staleEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, staleEntry, _) >> false
+        when:
+            def returned = interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            1 * suitabilityChecker.canStaleEntryBeUsedWhileRevalidating(request, staleEntry, _) >> true
+            1 * cache.getCacheKey(request, staleEntry) >> '{accept=}key'
+            1 * revalidator.schedule('{accept=}key', request, _ as Runnable) >> true
+            0 * execution._
+        and:
+            returned.body.bytes == SOME_BODY
+            returned.headers.getFirst('Warning') == '110 - "Response is stale"'
+    }
+
+    def 'stale cached entry is served when origin fails'() {
+        setup:
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> cacheEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> false
+        when:
+            def returned = interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            1 * execution.execute(request, EMPTY_BODY) >> { throw new IOException('Connection refused') }
+            1 * suitabilityChecker.canStaleEntryBeUsedIfError(request, cacheEntry, _) >> true
+        and:
+            returned.body.bytes == SOME_BODY
+            returned.headers.getFirst('Warning') == '110 - "Response is stale"'
+    }
+
+    def 'stale cached entry is served when origin responds with server error'() {
+        setup:
+            def errorResponse = buildResponse(status: 503)
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> cacheEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> false
+        when:
+            def returned = interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            1 * execution.execute(request, EMPTY_BODY) >> errorResponse
+            1 * suitabilityChecker.canStaleEntryBeUsedIfError(request, cacheEntry, _) >> true
+        and:
+            returned.body.bytes == SOME_BODY
+            returned.headers.getFirst('Warning') == '110 - "Response is stale"'
+    }
+
+    def 'origin failure is propagated when stale cached entry cannot be used'() {
+        setup:
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> cacheEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> false
+        when:
+            interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            1 * execution.execute(request, EMPTY_BODY) >> { throw new IOException('Connection refused') }
+            1 * suitabilityChecker.canStaleEntryBeUsedIfError(request, cacheEntry, _) >> false
+        and:
+            thrown IOException
+    }
+
+    def 'coalesced request is served from cache when in-flight request completes'() {
+        setup:
+            interceptor.requestCoalescer = new RequestCoalescer(5000)
+            def flight = interceptor.requestCoalescer.join(request)
+            Thread.start { sleep 50; flight.complete() }
+        and:
+            0 * execution._
+        when:
+            def returned = interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            1 * cachingPolicy.isServableFromCache(request) >> true
+            2 * cache.getCacheEntry(request) >>> [null, cacheEntry]
+            1 * suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> true
+        and:
+            returned.body.bytes == SOME_BODY
+        and:
+            with (interceptor.statistics) {
+                hitCount == 1
+                missCount == 0
+                bytesFromCache == SOME_BODY.length
+            }
+    }
+
+    def 'coalesced request is send to origin when waiting for in-flight request times out'() {
+        setup:
+            interceptor.requestCoalescer = new RequestCoalescer(10)
+            interceptor.requestCoalescer.join(request)
+        when:
+            def returned = interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            1 * cachingPolicy.isServableFromCache(request) >> true
+            1 * cache.getCacheEntry(request) >> null
+        and:
+            1 * execution.execute(request, EMPTY_BODY) >> response
+        and:
+            returned == response
+    }
+
+    def 'coalesced request waits until the streamed response of the leader is read'() {
+        setup:
+            def responseCache = new HttpResponseCacheImpl(new SynchronizedLruCache('test', 16), true, 1024)
+            responseCache.streaming = true
+            interceptor = new CachingHttpRequestInterceptor(
+                    responseCache, new DefaultCachingPolicy(true, 1024), new DefaultCachedEntrySuitabilityChecker())
+            interceptor.requestCoalescer = new RequestCoalescer(5000)
+        and:
+            def originResponse = buildResponse('Cache-Control': 'max-age=60')
+            def followerResponse = null
+            def follower
+        when: 'the leader gets the response, but does not read it yet'
+            def leaderResponse = interceptor.intercept(request, EMPTY_BODY, execution)
+            follower = Thread.start { followerResponse = interceptor.intercept(request, EMPTY_BODY, execution) }
+            sleep 100
+        then:
+            1 * execution.execute(request, EMPTY_BODY) >> originResponse
+            follower.alive
+        when: 'the leader reads the body'
+            def leaderBody = leaderResponse.body.bytes
+            follower.join(5000)
+        then:
+            0 * execution._
+            !follower.alive
+            followerResponse.body.bytes == leaderBody
+    }
+
+    def 'statistics: should count hits and bytes served from cache'() {
+        setup:
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> cacheEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> true
+        when:
+            2.times { interceptor.intercept(request, EMPTY_BODY, execution) }
+        then:
+            with (interceptor.statistics) {
+                hitCount == 2
+                missCount == 0
+                bytesFromCache == 2 * SOME_BODY.length
+                hitRatio == 1.0
+                fetchCount == 0
+            }
+    }
+
+    def 'statistics: should count misses, not cacheable responses and fetches'() {
+        setup:
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> null
+            cachingPolicy.isResponseCacheable(request, response) >> false
+            execution.execute(request, EMPTY_BODY) >> response
+        when:
+            interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            with (interceptor.statistics) {
+                hitCount == 0
+                missCount == 1
+                notCacheableCount == 1
+                bytesFromOrigin == response.headers.contentLength
+                hitRatio == 0.0
+                fetchCount == 1
+                fetchLatencyBucketCounts.sum() == 1
+            }
+    }
+
+    def 'statistics: should count stale entry served when origin fails only as stale hit'() {
+        setup:
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> cacheEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> false
+            suitabilityChecker.canStaleEntryBeUsedIfError(request, cacheEntry, _) >> true
+            execution.execute(request, EMPTY_BODY) >> { throw new IOException('Connection refused') }
+        when:
+            interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            with (interceptor.statistics) {
+                staleHitCount == 1
+                missCount == 0
+                fetchCount == 1
+            }
+    }
+
+    def 'statistics: should count origin failure as miss when stale entry cannot be used'() {
+        setup:
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> cacheEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> false
+            suitabilityChecker.canStaleEntryBeUsedIfError(request, cacheEntry, _) >> false
+            execution.execute(request, EMPTY_BODY) >> { throw new IOException('Connection refused') }
+        when:
+            interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            thrown IOException
+            with (interceptor.statistics) {
+                staleHitCount == 0
+                missCount == 1
+            }
+    }
+
+    def 'statistics: should record into stats counter changed after the first request'() {
+        setup:
+            def counter = new StatsCounter()
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> cacheEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> true
+        when:
+            interceptor.intercept(request, EMPTY_BODY, execution)
+            interceptor.statsCounter = counter
+            interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            counter.hitCount == 1
+    }
+
+    def 'statistics: should count requests not servable from cache'() {
+        setup:
+            cachingPolicy.isServableFromCache(request) >> false
+            execution.execute(request, EMPTY_BODY) >> response
+        when:
+            interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            with (interceptor.statistics) {
+                notServableCount == 1
+                missCount == 0
+                hitRatio.naN
+            }
+    }
+
+    def 'statistics: should register MBean under unique name and unregister only its own'() {
+        setup:
+            def jmxName = 'cz.jirutka.spring.http.client.cache:type=CacheStatistics,name=test'
+            def server = ManagementFactory.platformMBeanServer
+            def builder = new CachingHttpRequestInterceptorBuilder().cache(Mock(Cache)).jmxName(jmxName)
+        when:
+            def first = builder.build()
+            def second = builder.build()
+        then:
+            first.jmxNames == [new ObjectName(jmxName)]
+            second.jmxNames == [new ObjectName(jmxName + ',instance=2')]
+        when:
+            second.unregisterMBeans()
+        then:
+            server.isRegistered(new ObjectName(jmxName))
+            ! server.isRegistered(new ObjectName(jmxName + ',instance=2'))
+        when:
+            first.unregisterMBeans()
+        then:
+            ! server.isRegistered(new ObjectName(jmxName))
+    }
+
+    def 'statistics: should count per partition and in total'() {
+        setup:
+            def total = new StatsCounter()
+            def partition = new CachePartition('example', 'example.org', null, cache, cachingPolicy, new StatsCounter(total))
+            def defaults = new CachePartition('default', null, null, Mock(HttpResponseCache), cachingPolicy, new StatsCounter(total))
+            def partitionedCache = new PartitionedHttpResponseCache([partition], defaults)
+        and:
+            interceptor = new CachingHttpRequestInterceptor(
+                    partitionedCache, new PartitionedCachingPolicy(partitionedCache), suitabilityChecker)
+            interceptor.statsCounter = total
+        and:
+            cachingPolicy.isServableFromCache(request) >> true
+            cache.getCacheEntry(request) >> cacheEntry
+            suitabilityChecker.canCachedEntryBeUsed(request, cacheEntry, _) >> true
+        when:
+            interceptor.intercept(request, EMPTY_BODY, execution)
+        then:
+            interceptor.statistics.hitCount == 1
+            interceptor.partitionStatistics.keySet() as List == ['example', 'default']
+            interceptor.partitionStatistics['example'].hitCount == 1
+            interceptor.partitionStatistics['default'].hitCount == 0
+    }
+
+
+    def createCacheEntry(Map headers) {
+        new CacheEntry(new InMemoryClientHttpResponse(SOME_BODY, OK, header(headers)), now -1.min, now +2.min)
+    }
 
     def header(kwargs = [:]) {
         def headers = new HttpHeaders()
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache
+
+import spock.lang.Specification
+
+class CoarseClockTest extends Specification {
+
+    def clock = new CoarseClock(1)
+
+    void cleanup() {
+        clock.close()
+    }
+
+
+    def 'should return time close to the system time'() {
+        expect:
+            Math.abs(clock.currentTimeMillis() - System.currentTimeMillis()) < 1000
+    }
+
+    def 'should update the time in background'() {
+        setup:
+            def initial = clock.currentTimeMillis()
+            def deadline = System.currentTimeMillis() + 5000
+        when:
+            while (clock.currentTimeMillis() == initial && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5)
+            }
+        then:
+            clock.currentTimeMillis() > initial
+    }
+
+    def 'should reject non-positive resolution'() {
+        when:
+            new CoarseClock(0)
+        then:
+            thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache
+
+import org.springframework.cache.Cache
+
+class ConcurrentLruCacheTest extends BaseLruCacheTest {
+
+    Cache createCache(int capacity) {
+        new ConcurrentLruCache('test', capacity)
+    }
+
+
+    def 'should evict entries used once before frequently used entries'() {
+        setup:
+            def cache = createCache(10)
+            def hot = (1..5).collect { "hot${it}" }
+        and:
+            hot.each { cache.put(it, 'value') }
+            hot.each { cache.get(it) }
+        when: 'scan through many entries used only once'
+            (1..20).each { cache.put("cold${it}", 'value') }
+        then: 'frequently used entries are still here'
+            hot.each { assert cache.get(it) }
+        and:
+            cache.size() == 10
+    }
+
+    def 'remove: should remove the entry only if it has not been replaced'() {
+        setup:
+            def cache = createCache(10)
+            cache.put('key', 'old')
+            def old = cache.get('key')
+            cache.put('key', 'new')
+        expect:
+            ! cache.remove('key', old)
+            cache.get('key').get() == 'new'
+        and:
+            cache.remove('key', cache.get('key'))
+            cache.get('key') == null
+            cache.size() == 0
+    }
+
+    def 'should be consistent under concurrent access'() {
+        setup:
+            def cache = createCache(64)
+            def threads = (1..8).collect { n ->
+                Thread.start {
+                    2000.times { i ->
+                        def key = "key${(i * n) % 200}"
+                        if (i % 3 == 0) cache.put(key, "value${i}") else cache.get(key)
+                        if (i % 50 == 0) cache.evict(key)
+                    }
+                }
+            }
+        when:
+            threads*.join()
+        then:
+            cache.size() <= 64
+        and:
+            cache.nativeCache.every { key, node -> cache.get(key) }
+    }
+
+
+    def 'should evict least recently used entries when total weight exceeds the limit'() {
+        setup:
+            def cache = new ConcurrentLruCache('test', 10, 10, { key, value -> value.length() } as Weigher)
+        when:
+            cache.put('a', '1234')
+            cache.put('b', '1234')
+            cache.get('a')
+            cache.put('c', '1234')
+        then:
+            cache.get('b') == null
+            cache.get('a').get() == '1234'
+            cache.get('c').get() == '1234'
+        and:
+            cache.totalWeight == 8
+    }
+
+    def 'should update total weight when entry is replaced or evicted'() {
+        setup:
+            def cache = new ConcurrentLruCache('test', 10, 100, { key, value -> value.length() } as Weigher)
+        when:
+            cache.put('a', '12345')
+            cache.put('a', '12')
+            cache.put('b', '123')
+        then:
+            cache.totalWeight == 5
+        when:
+            cache.evict('a')
+        then:
+            cache.totalWeight == 3
+    }
+}
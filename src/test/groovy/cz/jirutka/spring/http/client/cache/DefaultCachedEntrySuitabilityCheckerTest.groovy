@@ -22,6 +22,7 @@ import cz.jirutka.spring.http.client.cache.test.HttpHeadersHelper
 import org.springframework.http.HttpHeaders
 import spock.lang.Shared
 import spock.lang.Specification
+import spock.lang.Unroll
 import spock.util.mop.Use
 
 import static org.springframework.http.HttpStatus.OK
@@ -63,16 +64,66 @@ class DefaultCachedEntrySuitabilityCheckerTest extends Specification {
             assertNotSuitable(entry)
     }
 
+    def 'stale entry can be used while revalidating within stale-while-revalidate'() {
+        given:
+            def entry = createCacheEntry(now -2.min, now -30.sec, 'max-age=90, stale-while-revalidate=60')
+        expect:
+            checker.canStaleEntryBeUsedWhileRevalidating(request, entry, now.time)
+    }
+
+    @Unroll
+    def 'stale entry cannot be used while revalidating when "Cache-Control: #cacheControl"'() {
+        given:
+            def entry = createCacheEntry(now -3.min, now -90.sec, cacheControl)
+        expect:
+            ! checker.canStaleEntryBeUsedWhileRevalidating(request, entry, now.time)
+        where:
+            cacheControl << ['max-age=90', 'max-age=90, stale-while-revalidate=60',
+                             'max-age=90, stale-while-revalidate=120, must-revalidate']
+    }
+
+    def 'stale entry cannot be used while revalidating when request contains max-age'() {
+        given:
+            requestHeaders  = ['Cache-Control': 'max-age=600']
+            def entry = createCacheEntry(now -2.min, now -30.sec, 'max-age=90, stale-while-revalidate=60')
+        expect:
+            ! checker.canStaleEntryBeUsedWhileRevalidating(request, entry, now.time)
+    }
+
+    @Unroll
+    def 'stale entry #statement used if error when "Cache-Control: #cacheControl" and default stale-if-error #defaultValue'() {
+        given:
+            def checker = new DefaultCachedEntrySuitabilityChecker(defaultValue)
+            def entry = createCacheEntry(now -3.min, now -2.min, cacheControl)
+        expect:
+            checker.canStaleEntryBeUsedIfError(request, entry, now.time) == expected
+        where:
+            cacheControl                          | defaultValue || expected
+            'max-age=60, stale-if-error=300'      | 0            || true
+            'max-age=60, stale-if-error=60'       | 0            || false
+            'max-age=60, stale-if-error=0'        | 300          || false
+            'max-age=60'                          | 300          || true
+            'max-age=60'                          | 60           || false
+            'max-age=60'                          | 0            || false
+            'max-age=60, must-revalidate'         | 300          || false
+            'max-age=60, stale-if-error=300, proxy-revalidate' | 0 || false
+
+            statement = expected ? 'can be' : 'cannot be'
+    }
+
+
+    def createCacheEntry(Date initialDate, Date expirationDate, String cacheControl = null) {
+        def headers = new HttpHeaders()
+        if (cacheControl) headers.setCacheControl(cacheControl)
 
-    def createCacheEntry(Date initialDate, Date expirationDate) {
-        new CacheEntry(new InMemoryClientHttpResponse('foo'.bytes, OK, new HttpHeaders()), initialDate, expirationDate)
+        new CacheEntry(new InMemoryClientHttpResponse('foo'.bytes, OK, headers), initialDate, expirationDate)
     }
 
     void assertSuitable(cachedResponse) {
-        assert checker.canCachedEntryBeUsed(request, cachedResponse, now)
+        assert checker.canCachedEntryBeUsed(request, cachedResponse, now.time)
     }
 
     void assertNotSuitable(cachedResponse) {
-        assert ! checker.canCachedEntryBeUsed(request, cachedResponse, now)
+        assert ! checker.canCachedEntryBeUsed(request, cachedResponse, now.time)
     }
 }
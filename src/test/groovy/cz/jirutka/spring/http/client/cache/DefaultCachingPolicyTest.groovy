@@ -147,6 +147,16 @@ class DefaultCachingPolicyTest extends Specification {
             assertNotCacheable()
     }
 
+    @Unroll
+    def 'header Vary: #vary should be cacheable'() {
+        given:
+            responseHeaders = [Vary: vary]
+        expect:
+            assertCacheable()
+        where:
+            vary << ['Accept-Encoding', 'Accept, Accept-Language']
+    }
+
     @Unroll
     def 'Cache-Control: "#cacheControl" should NOT be cacheable ever'() {
         setup:
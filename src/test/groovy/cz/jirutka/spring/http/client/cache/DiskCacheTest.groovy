@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+class DiskCacheTest extends Specification {
+
+    static final SEGMENT_SIZE = 4096
+
+    def directory = Files.createTempDirectory('disk-cache').toFile()
+    def cache = createCache()
+
+
+    void cleanup() {
+        cache.close()
+        directory.deleteDir()
+    }
+
+    def 'construct with illegal sizes'() {
+        when:
+            new DiskCache('test', directory, maxSize, segmentSize)
+        then:
+            thrown IllegalArgumentException
+        where:
+            maxSize | segmentSize
+            4096    | 8
+            1024    | 4096
+    }
+
+    def 'put/get: should return cached entry'() {
+        when:
+            cache.put('bad', 'wolf')
+        then:
+            cache.get('bad').get() == 'wolf'
+        and:
+            cache.get('non-existing') == null
+    }
+
+    def 'put: should replace existing entry'() {
+        when:
+            cache.put('bad', 'wolf')
+            cache.put('bad', 'wolf2')
+        then:
+            cache.get('bad').get() == 'wolf2'
+            cache.size() == 1
+    }
+
+    def 'put: should not store entry bigger than segment'() {
+        setup:
+            cache.put('big', 'small')
+        when:
+            cache.put('big', new byte[SEGMENT_SIZE])
+        then:
+            cache.get('big') == null
+    }
+
+    def 'evict: should remove existing entry'() {
+        setup:
+            cache.put('dead', 'wolf')
+        when:
+            cache.evict('dead')
+        then:
+            cache.get('dead') == null
+    }
+
+    def 'clear: should remove all entries'() {
+        setup:
+            (1..10).each { cache.put("key${it}", 'value') }
+        when:
+            cache.clear()
+        then:
+            cache.size() == 0
+            cache.get('key1') == null
+        when:
+            cache.put('key1', 'value')
+        then:
+            cache.get('key1').get() == 'value'
+    }
+
+    def 'should recover entries and tombstones after restart'() {
+        setup:
+            cache.put('k1', 'v1')
+            cache.put('k2', 'v2')
+            cache.put('k1', 'v1-new')
+            cache.evict('k2')
+        when:
+            reopen()
+        then:
+            cache.size() == 1
+            cache.get('k1').get() == 'v1-new'
+            cache.get('k2') == null
+    }
+
+    def 'should ignore corrupted record on recovery'() {
+        setup:
+            cache.put('k1', 'v1')
+            cache.put('k2', 'corrupted')
+            cache.close()
+        and: 'damage value of the last record'
+            def file = directory.listFiles().sort().last()
+            def bytes = file.bytes
+            def idx = new String(bytes, 'ISO-8859-1').lastIndexOf('corrupted')
+            bytes[idx] = ('X' as char) as byte
+            file.bytes = bytes
+        when:
+            cache = createCache()
+        then:
+            cache.get('k1').get() == 'v1'
+            cache.get('k2') == null
+        when:
+            cache.put('k3', 'v3')
+        then:
+            cache.get('k3').get() == 'v3'
+    }
+
+    def 'should compact segments with overwritten entries'() {
+        when:
+            500.times { cache.put("key${it % 5}", "value${it}") }
+        then:
+            cache.segmentsCount == 1
+            (495..499).each { assert cache.get("key${it % 5}").get() == "value${it}" }
+        when:
+            reopen()
+        then:
+            cache.size() == 5
+            (495..499).each { assert cache.get("key${it % 5}").get() == "value${it}" }
+    }
+
+    def 'should drop the oldest segment when exceeded the max size'() {
+        when:
+            1000.times { cache.put("key${it}", "value${it}") }
+        then:
+            cache.segmentsCount == 4
+            directory.list().length == 4
+        and:
+            cache.get('key0') == null
+            cache.get('key999').get() == 'value999'
+    }
+
+    def 'should not be usable after close'() {
+        setup:
+            cache.put('key', 'value')
+        when:
+            cache.close()
+            cache.put('key', 'value')
+        then:
+            thrown IllegalStateException
+        when:
+            cache.close()
+        then:
+            notThrown Exception
+    }
+
+
+    def createCache() {
+        new DiskCache('test', directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE)
+    }
+
+    def reopen() {
+        cache.close()
+        cache = createCache()
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache
+
+import org.springframework.mock.http.client.MockClientHttpRequest
+import spock.lang.Specification
+
+import static org.springframework.http.HttpMethod.GET
+
+class HashedCacheKeyGeneratorTest extends Specification {
+
+    def 'should create hashed key of method and URI'() {
+        setup:
+            def generator = new HashedCacheKeyGenerator()
+            def request = new MockClientHttpRequest(GET, new URI('http://example.org/path'))
+        expect:
+            generator.createKey(request) == HashedCacheKey.of('GET', 'http://example.org/path', false)
+    }
+
+    def 'should create the same key for equivalent URIs when normalizing'() {
+        setup:
+            def generator = new HashedCacheKeyGenerator(new NormalizingCacheKeyGenerator(), true)
+            def request1 = new MockClientHttpRequest(GET, new URI('HTTP://example.org:80/path?b=2&a=1'))
+            def request2 = new MockClientHttpRequest(GET, new URI('http://example.org/path?a=1&b=2'))
+        expect:
+            generator.createKey(request1) == generator.createKey(request2)
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache
+
+import spock.lang.Specification
+
+class HashedCacheKeyTest extends Specification {
+
+    def 'should be equal for the same method and URI'() {
+        setup:
+            def key1 = HashedCacheKey.of('GET', 'http://example.org/path?q=1', retainUri)
+            def key2 = HashedCacheKey.of('GET', new String('http://example.org/path?q=1'), retainUri)
+        expect:
+            key1 == key2
+            key1.hashCode() == key2.hashCode()
+        where:
+            retainUri << [true, false]
+    }
+
+    def 'should differ for different method or URI'() {
+        expect:
+            HashedCacheKey.of('GET', 'http://example.org/a', false) != HashedCacheKey.of(method, uri, false)
+        where:
+            method | uri
+            'HEAD' | 'http://example.org/a'
+            'GET'  | 'http://example.org/b'
+            'GET:' | 'http://example.org/a'
+    }
+
+    def 'should compute MurmurHash3 x64 128 of method and URI'() {
+        when:
+            def key = HashedCacheKey.of('GET', 'http://example.org/', false)
+        then:
+            key.high == 0x94b8f659402c3d88L
+            key.low == 0xd09ef54e52b45f7cL
+    }
+
+    def 'should be serializable'() {
+        setup:
+            def key = HashedCacheKey.of('GET', 'http://example.org/', true)
+            def bytes = new ByteArrayOutputStream()
+            new ObjectOutputStream(bytes).writeObject(key)
+        when:
+            def read = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject()
+        then:
+            read == key
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache
+
+import org.springframework.mock.http.client.MockClientHttpRequest
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static org.springframework.http.HttpMethod.GET
+import static org.springframework.http.HttpMethod.HEAD
+
+class NormalizingCacheKeyGeneratorTest extends Specification {
+
+    def generator = new NormalizingCacheKeyGenerator(['utm_source', 'utm_medium'])
+
+
+    def 'generate key for request'() {
+        setup:
+            def request = new MockClientHttpRequest(method, new URI('http://example.org/path?foo=bar'))
+        expect:
+            generator.createKey(request) == expected
+        where:
+            method | expected
+            GET    | 'GET:http://example.org/path?foo=bar'
+            HEAD   | 'HEAD:http://example.org/path?foo=bar'
+    }
+
+    @Unroll
+    def 'normalize #uri'() {
+        expect:
+            generator.normalize(new URI(uri)) == expected
+        where:
+            uri                                          || expected
+            'HTTP://Example.ORG/path'                    || 'http://example.org/path'
+            'http://example.org:80/path'                 || 'http://example.org/path'
+            'https://example.org:443/path'               || 'https://example.org/path'
+            'https://example.org:80/path'                || 'https://example.org:80/path'
+            'http://example.org'                         || 'http://example.org/'
+            'http://example.org/a/./b/../c'              || 'http://example.org/a/c'
+            'http://example.org/%7euser/%41%2f%3a'       || 'http://example.org/~user/A%2F%3A'
+            'http://example.org/path?'                   || 'http://example.org/path'
+            'http://example.org/path?b=2&a=1'            || 'http://example.org/path?a=1&b=2'
+            'http://example.org/path?b=1&a=2&b=0'        || 'http://example.org/path?a=2&b=1&b=0'
+            'http://example.org/path?a=1&&b=2&'          || 'http://example.org/path?a=1&b=2'
+            'http://example.org/path?utm_source=x&a=1'   || 'http://example.org/path?a=1'
+            'http://example.org/path?utm_medium=x'       || 'http://example.org/path'
+            'http://example.org/path#fragment'           || 'http://example.org/path'
+            'http://user@Example.org/path'               || 'http://user@example.org/path'
+            'mailto:john@example.org'                    || 'mailto:john@example.org'
+    }
+
+    def 'equivalent URIs should produce the same key'() {
+        setup:
+            def request1 = new MockClientHttpRequest(GET, new URI('http://Example.org:80/path?b=2&a=%7e'))
+            def request2 = new MockClientHttpRequest(GET, new URI('http://example.org/path?a=~&b=2&utm_source=foo'))
+        expect:
+            generator.createKey(request1) == generator.createKey(request2)
+    }
+}
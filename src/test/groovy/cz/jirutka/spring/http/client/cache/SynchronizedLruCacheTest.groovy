@@ -22,4 +22,36 @@ class SynchronizedLruCacheTest extends BaseLruCacheTest {
     Cache createCache(int capacity) {
         new SynchronizedLruCache('test', capacity)
     }
+
+
+    def 'should evict least recently used entries when total weight exceeds the limit'() {
+        setup:
+            def cache = new SynchronizedLruCache('test', 10, 10, { key, value -> value.length() } as Weigher)
+        when:
+            cache.put('a', '1234')
+            cache.put('b', '1234')
+            cache.get('a')
+            cache.put('c', '1234')
+        then:
+            cache.get('b') == null
+            cache.get('a').get() == '1234'
+            cache.get('c').get() == '1234'
+        and:
+            cache.totalWeight == 8
+    }
+
+    def 'should update total weight when entry is replaced or evicted'() {
+        setup:
+            def cache = new SynchronizedLruCache('test', 10, 100, { key, value -> value.length() } as Weigher)
+        when:
+            cache.put('a', '12345')
+            cache.put('a', '12')
+            cache.put('b', '123')
+        then:
+            cache.totalWeight == 5
+        when:
+            cache.evict('a')
+        then:
+            cache.totalWeight == 3
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache
+
+import spock.lang.Specification
+
+class TieredCacheTest extends Specification {
+
+    def firstLevel = new SynchronizedLruCache('l1', 2)
+    def secondLevel = new SynchronizedLruCache('l2', 10)
+    def cache = new TieredCache('test', firstLevel, secondLevel)
+
+
+    def 'put: should store entry in the first level'() {
+        when:
+            cache.put('k1', 'v1')
+        then:
+            firstLevel.get('k1').get() == 'v1'
+            secondLevel.get('k1') == null
+        and:
+            cache.get('k1').get() == 'v1'
+            cache.firstLevelHitCount == 1
+    }
+
+    def 'put: should remove stale entry from the second level'() {
+        setup:
+            secondLevel.put('k1', 'old')
+        when:
+            cache.put('k1', 'new')
+        then:
+            secondLevel.get('k1') == null
+    }
+
+    def 'should demote entry evicted from the first level to the second level'() {
+        when:
+            ['k1', 'k2', 'k3'].each { cache.put(it, "value-${it}") }
+        then:
+            firstLevel.get('k1') == null
+            secondLevel.get('k1').get() == 'value-k1'
+            cache.demotionCount == 1
+        and:
+            cache.get('k1').get() == 'value-k1'
+            cache.secondLevelHitCount == 1
+    }
+
+    def 'should promote entry from the second level when accessed frequently'() {
+        setup:
+            secondLevel.put('k1', 'v1')
+        when:
+            cache.get('k1')
+        then: 'not promoted after first access'
+            firstLevel.get('k1') == null
+        when:
+            cache.get('k1')
+        then: 'promoted after second access'
+            firstLevel.get('k1').get() == 'v1'
+            secondLevel.get('k1') == null
+            cache.promotionCount == 1
+    }
+
+    def 'put: should not lose entry evicted from the first level right away'() {
+        setup: 'capacity-1 first level that evicts too heavy entry as soon as it is put'
+            def smallLevel = new SynchronizedLruCache('l1', 1, 5, { key, value -> value.size() } as Weigher)
+            def tiered = new TieredCache('test', smallLevel, secondLevel)
+        when:
+            tiered.put('k1', 'too-heavy')
+        then:
+            smallLevel.get('k1') == null
+            secondLevel.get('k1').get() == 'too-heavy'
+    }
+
+    def 'get: should not lose promoted entry evicted from the first level right away'() {
+        setup:
+            def smallLevel = new SynchronizedLruCache('l1', 1, 5, { key, value -> value.size() } as Weigher)
+            def tiered = new TieredCache('test', smallLevel, secondLevel)
+            tiered.promotionThreshold = 1
+            secondLevel.put('k1', 'too-heavy')
+        when:
+            def returned = tiered.get('k1')
+        then:
+            returned.get() == 'too-heavy'
+            tiered.promotionCount == 1
+        and:
+            secondLevel.get('k1').get() == 'too-heavy'
+            tiered.get('k1').get() == 'too-heavy'
+    }
+
+    def 'should promote on the first access when threshold is 1'() {
+        setup:
+            cache.promotionThreshold = 1
+            secondLevel.put('k1', 'v1')
+        when:
+            cache.get('k1')
+        then:
+            firstLevel.get('k1').get() == 'v1'
+    }
+
+    def 'get: should count misses'() {
+        expect:
+            cache.get('unknown') == null
+            cache.missCount == 1
+    }
+
+    def 'evict: should remove entry from both levels'() {
+        setup:
+            firstLevel.put('k1', 'v1')
+            secondLevel.put('k2', 'v2')
+        when:
+            cache.evict('k1')
+            cache.evict('k2')
+        then:
+            firstLevel.get('k1') == null
+            secondLevel.get('k2') == null
+    }
+
+    def 'clear: should clear both levels without demotion'() {
+        setup:
+            ['k1', 'k2'].each { cache.put(it, 'value') }
+            secondLevel.put('k3', 'value')
+        when:
+            cache.clear()
+        then:
+            firstLevel.nativeCache.isEmpty()
+            secondLevel.nativeCache.isEmpty()
+            cache.demotionCount == 0
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import cz.jirutka.spring.http.client.cache.test.HttpHeadersHelper
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+
+import static java.util.concurrent.TimeUnit.SECONDS
+
+@Mixin(HttpHeadersHelper)
+class AsynchronousRevalidatorTest extends Specification {
+
+    def revalidator = new AsynchronousRevalidator()
+
+
+    def 'schedule: should execute revalidation in background'() {
+        setup:
+            def done = new CountDownLatch(1)
+        when:
+            def scheduled = revalidator.schedule(request, { done.countDown() } as Runnable)
+        then:
+            scheduled
+            done.await(5, SECONDS)
+    }
+
+    def 'schedule: should ignore revalidation of the request that is already scheduled'() {
+        setup:
+            def started = new CountDownLatch(1)
+            def release = new CountDownLatch(1)
+            revalidator.schedule(request, { started.countDown(); release.await() } as Runnable)
+            started.await(5, SECONDS)
+        expect:
+            ! revalidator.schedule(buildRequest(), {} as Runnable)
+        and:
+            revalidator.schedule(buildRequest(uri: 'http://example.org/other'), {} as Runnable)
+        cleanup:
+            release.countDown()
+    }
+
+    def 'schedule: should ignore revalidation with the key that is already scheduled'() {
+        setup:
+            def started = new CountDownLatch(1)
+            def release = new CountDownLatch(1)
+            revalidator.schedule('{accept=a}key', request, { started.countDown(); release.await() } as Runnable)
+            started.await(5, SECONDS)
+        expect:
+            ! revalidator.schedule('{accept=a}key', request, {} as Runnable)
+        and: 'other variant of the same request'
+            revalidator.schedule('{accept=b}key', request, {} as Runnable)
+        cleanup:
+            release.countDown()
+    }
+
+    def 'schedule: should allow revalidation of the request again after it completes'() {
+        setup:
+            def executor = Mock(ExecutorService)
+            def revalidator = new AsynchronousRevalidator(executor)
+            def counter = 0
+        and:
+            executor.execute(_) >> { Runnable task -> task.run() }
+        when:
+            2.times { revalidator.schedule(request, { counter++ } as Runnable) }
+        then:
+            counter == 2
+    }
+
+    def 'schedule: should return false when executor rejects revalidation'() {
+        setup:
+            def executor = Mock(ExecutorService)
+            def revalidator = new AsynchronousRevalidator(executor)
+        and:
+            executor.execute(_) >> { throw new RejectedExecutionException() }
+        expect:
+            ! revalidator.schedule(request, {} as Runnable)
+        and: 'the request is not marked as scheduled'
+            ! revalidator.schedule(request, {} as Runnable)
+            revalidator.scheduled.isEmpty()
+    }
+}
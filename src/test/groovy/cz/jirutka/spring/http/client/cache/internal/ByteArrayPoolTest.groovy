@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import spock.lang.Specification
+
+class ByteArrayPoolTest extends Specification {
+
+    def pool = new ByteArrayPool(64, 2)
+
+
+    def 'acquire: should allocate new array when the pool is empty'() {
+        when:
+            def array = pool.acquire()
+        then:
+            array.length == 64
+            pool.pooledCount == 0
+    }
+
+    def 'acquire: should reuse released array'() {
+        setup:
+            def array = pool.acquire()
+            pool.release(array)
+        expect:
+            pool.pooledCount == 1
+            pool.acquire().is(array)
+            pool.pooledCount == 0
+    }
+
+    def 'release: should not keep more arrays than the limit'() {
+        setup:
+            def arrays = (1..3).collect { pool.acquire() }
+        when:
+            arrays.each { pool.release(it) }
+        then:
+            pool.pooledCount == 2
+    }
+
+    def 'release: should reject array of a different size'() {
+        when:
+            pool.release(new byte[32])
+        then:
+            thrown(IllegalArgumentException)
+    }
+}
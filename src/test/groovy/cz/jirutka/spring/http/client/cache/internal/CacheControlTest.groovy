@@ -21,33 +21,61 @@ import spock.lang.Unroll
 
 class CacheControlTest extends Specification {
 
+    static final DEFAULTS = [
+            maxAge: -1, sMaxAge: -1, mustRevalidate: false, noCache: false, noStore: false, noTransform: false,
+            'private': false, 'public': false, proxyRevalidate: false, staleWhileRevalidate: -1, staleIfError: -1 ]
+
+
     @Unroll
     def "parse cache header: #value"() {
         expect:
-            CacheControl.valueOf(value) == expected
+            propertiesOf(CacheControl.valueOf(value)) == DEFAULTS + expected
+        and:
+            CacheControl.parseCacheControl(headers) == CacheControl.valueOf(value)
         and:
-            CacheControl.parseCacheControl(headers) == expected
+            CacheControl.parse(value) == CacheControl.valueOf(value)
         where:
             value                   | expected
-            ''                      | new CacheControl()
-            'must-revalidate'       | new CacheControl(mustRevalidate: true)
-            'No-CaChE'              | new CacheControl(noCache: true)
-            ' no-store '            | new CacheControl(noStore: true)
-            'NO-TRANSFORM'          | new CacheControl(noTransform: true)
-            'private'               | new CacheControl(isPrivate: true)
-            'public'                | new CacheControl(isPublic: true)
-            'proxy-revalidate'      | new CacheControl(proxyRevalidate: true)
-            'max-age=60'            | new CacheControl(maxAge: 60)
-            's-MaxAge = 30 '        | new CacheControl(sMaxAge: 30)
-            'public, max-age=60'    | new CacheControl(isPublic: true, maxAge: 60)
-            'foo="bar 12", no-cache'| new CacheControl(noCache: true)
+            ''                      | [:]
+            'must-revalidate'       | [mustRevalidate: true]
+            'No-CaChE'              | [noCache: true]
+            ' no-store '            | [noStore: true]
+            'NO-TRANSFORM'          | [noTransform: true]
+            'private'               | ['private': true]
+            'public'                | ['public': true]
+            'proxy-revalidate'      | [proxyRevalidate: true]
+            'max-age=60'            | [maxAge: 60]
+            's-MaxAge = 30 '        | [sMaxAge: 30]
+            'public, max-age=60'    | ['public': true, maxAge: 60]
+            'stale-while-revalidate=30' | [staleWhileRevalidate: 30]
+            'stale-if-error=600'    | [staleIfError: 600]
+            'foo="bar 12", no-cache'| [noCache: true]
+            'max-age="60"'          | [maxAge: 60]
+            'private="a, b", public'| ['private': true, 'public': true]
+            'max-age=x, no-store'   | [noStore: true]
+            'max-age=-5'            | [:]
+            'max-age=99999999999'   | [maxAge: Integer.MAX_VALUE]
+            ' ,, public ,'          | ['public': true]
 
             headers = new HttpHeaders(cacheControl: value)
     }
 
+    def 'valueOf: should return EMPTY for null'() {
+        expect:
+            CacheControl.valueOf(null).is(CacheControl.EMPTY)
+    }
+
+    def 'valueOf: should return memoized instance for the same value'() {
+        setup:
+            def value = 'max-age=' + new Random().nextInt(1000)
+        expect:
+            CacheControl.valueOf(value).is(CacheControl.valueOf(new String(value)))
+    }
+
     def 'should return maxAge according to cache type'() {
         when:
-            def cc = new CacheControl(maxAge: maxAge, sMaxAge: sMaxAge)
+            def cc = CacheControl.valueOf([maxAge: "max-age=$maxAge", sMaxAge: "s-maxage=$sMaxAge"]
+                    .findAll { !it.value.endsWith('-1') }.values().join(', '))
         then:
             cc.getMaxAge(shared) == expected
         where:
@@ -58,4 +86,12 @@ class CacheControlTest extends Specification {
             true   || 60     | 0       || 0
             true   || 60     | -1      || 60
     }
+
+
+    def propertiesOf(CacheControl cc) {
+        [ maxAge: cc.maxAge, sMaxAge: cc.getSMaxAge(), mustRevalidate: cc.isMustRevalidate(),
+          noCache: cc.isNoCache(), noStore: cc.isNoStore(), noTransform: cc.isNoTransform(),
+          'private': cc.isPrivate(), 'public': cc.isPublic(), proxyRevalidate: cc.isProxyRevalidate(),
+          staleWhileRevalidate: cc.staleWhileRevalidate, staleIfError: cc.staleIfError ]
+    }
 }
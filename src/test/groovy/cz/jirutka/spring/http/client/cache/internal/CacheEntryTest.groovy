@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import cz.jirutka.spring.http.client.cache.test.AbbreviatedTimeCategory
+import cz.jirutka.spring.http.client.cache.test.HttpHeadersHelper
+import org.springframework.http.HttpHeaders
+import spock.lang.Specification
+import spock.util.mop.Use
+
+import static org.springframework.http.HttpStatus.OK
+
+@Mixin(HttpHeadersHelper)
+@Use(AbbreviatedTimeCategory)
+class CacheEntryTest extends Specification {
+
+    def 'should precompute freshness metadata from the headers'() {
+        setup:
+            def headers = new HttpHeaders()
+            headers.setCacheControl(cacheControl)
+            headers.setETag('"v1"')
+        when:
+            def entry = new CacheEntry(OK, headers, new HeapBody(SOME_BODY), now -1.min, now +1.min)
+        then:
+            entry.staleWhileRevalidate == swr
+            entry.staleIfError == sie
+            entry.mustRevalidate == mustRevalidate
+        where:
+            cacheControl                                 || swr | sie | mustRevalidate
+            'max-age=60'                                 || -1  | -1  | false
+            'stale-while-revalidate=30, stale-if-error=600' || 30 | 600 | false
+            'must-revalidate'                            || -1  | -1  | true
+            'proxy-revalidate, stale-if-error=5'         || -1  | 5   | true
+    }
+
+    def 'should store dates as epoch millis'() {
+        setup:
+            def created = now -1.min
+            def expiration = now +1.min
+        when:
+            def entry = new CacheEntry(OK, new HttpHeaders(), new HeapBody(SOME_BODY), created, expiration)
+        then:
+            entry.responseCreatedMillis == created.time
+            entry.responseExpirationMillis == expiration.time
+            entry.responseCreated == created
+            entry.responseExpiration == expiration
+    }
+
+    def 'should precompute validators'() {
+        setup:
+            def headers = new HttpHeaders()
+            if (eTag) headers.setETag(eTag)
+            if (lastModified) headers.set('Last-Modified', lastModified)
+        when:
+            def entry = new CacheEntry(OK, headers, new HeapBody(SOME_BODY), now, now)
+        then:
+            entry.getETag() == eTag
+            entry.lastModified == lastModified
+            entry.revalidatable == revalidatable
+        where:
+            eTag   | lastModified                    || revalidatable
+            '"v1"' | null                            || true
+            null   | 'Thu, 01 Jan 2015 00:00:00 GMT' || true
+            null   | null                            || false
+    }
+}
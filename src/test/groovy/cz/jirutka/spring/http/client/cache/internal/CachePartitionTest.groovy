@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import cz.jirutka.spring.http.client.cache.CachingPolicy
+import cz.jirutka.spring.http.client.cache.test.HttpHeadersHelper
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Mixin(HttpHeadersHelper)
+class CachePartitionTest extends Specification {
+
+    @Unroll
+    def 'matches: #uri with host "#host" and uriPattern "#pattern" -> #expected'() {
+        setup:
+            def partition = createPartition(host, pattern)
+        expect:
+            partition.matches(buildRequest(uri: uri)) == expected
+        where:
+            host            | pattern                  | uri                               || expected
+            'example.org'   | null                     | 'http://example.org/foo'          || true
+            'example.org'   | null                     | 'http://EXAMPLE.org/foo'          || true
+            'example.org'   | null                     | 'http://api.example.org/foo'      || false
+            '*.example.org' | null                     | 'http://api.example.org/foo'      || true
+            '*.example.org' | null                     | 'http://example.org/foo'          || true
+            '*.example.org' | null                     | 'http://badexample.org/foo'       || false
+            null            | 'http://[^/]+/images/.*' | 'http://example.org/images/a.png' || true
+            null            | 'http://[^/]+/images/.*' | 'http://example.org/api/images'   || false
+            'example.org'   | '.*\\.png'               | 'http://example.org/a.png'        || true
+            'example.org'   | '.*\\.png'               | 'http://example.com/a.png'        || false
+    }
+
+    def 'should require name'() {
+        when:
+            new CachePartition('', 'example.org', null, Mock(HttpResponseCache), Mock(CachingPolicy), new StatsCounter())
+        then:
+            thrown IllegalArgumentException
+    }
+
+
+    def createPartition(String host, String pattern) {
+        new CachePartition('foo', host, pattern, Mock(HttpResponseCache), Mock(CachingPolicy), new StatsCounter())
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
+import spock.lang.Specification
+
+import static org.springframework.util.FileCopyUtils.copyToByteArray
+
+class CachedClientHttpResponseTest extends Specification {
+
+    def body = 'allons-y!'.bytes
+    def status = HttpStatus.OK
+    def headers = new HttpHeaders().with {
+        add 'Pragma', 'foo'
+        add 'Pragma', 'bar'
+        return it
+    }
+    def cachedBody = new HeapBody(body)
+
+
+    def 'construct'() {
+        when:
+            def actual = new CachedClientHttpResponse(status, headers, cachedBody)
+        then:
+            actual.statusCode            == status
+            actual.rawStatusCode         == status.value()
+            actual.statusText            == status.reasonPhrase
+            actual.headers               == headers
+            copyToByteArray(actual.body) == body
+    }
+
+    def 'share body of the cached response'() {
+        when:
+            def actual = new CachedClientHttpResponse(status, headers, cachedBody)
+        then:
+            actual.body.buf.is(body)
+    }
+
+    def 'retain body until closed'() {
+        setup:
+            def offHeapBody = new OffHeapBody(new SlabAllocator(), body)
+        when:
+            def actual = new CachedClientHttpResponse(status, headers, offHeapBody)
+        then:
+            offHeapBody.refCount() == 2
+        when:
+            actual.close()
+            actual.close()
+        then:
+            offHeapBody.refCount() == 1
+    }
+
+    def 'fail when body has been already released'() {
+        setup:
+            def offHeapBody = new OffHeapBody(new SlabAllocator(), body)
+            offHeapBody.release()
+        when:
+            new CachedClientHttpResponse(status, headers, offHeapBody)
+        then:
+            thrown IllegalStateException
+    }
+
+    def 'modify headers without affecting the cached response'() {
+        given:
+            def actual = new CachedClientHttpResponse(status, headers, cachedBody)
+        when:
+            actual.headers.set('Age', '60')
+            actual.headers.add('Pragma', 'baz')
+        then:
+            actual.headers.getFirst('Age') == '60'
+            actual.headers.get('Pragma') == ['foo', 'bar', 'baz']
+        and:
+            !headers.containsKey('Age')
+            headers.get('Pragma') == ['foo', 'bar']
+    }
+}
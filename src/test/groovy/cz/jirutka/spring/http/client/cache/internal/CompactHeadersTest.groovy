@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import org.springframework.http.HttpHeaders
+import spock.lang.Specification
+
+class CompactHeadersTest extends Specification {
+
+    def headers = new HttpHeaders()
+
+    void setup() {
+        headers.add('Content-Type', 'text/plain')
+        headers.add('ETag', '"v1"')
+        headers.add('Set-Cookie', 'a=1')
+        headers.add('Set-Cookie', 'b=2')
+    }
+
+
+    def 'toHttpHeaders: should return equal copy of the headers'() {
+        when:
+            def copy = CompactHeaders.of(headers).toHttpHeaders()
+        then:
+            copy == headers
+            ! copy.is(headers)
+    }
+
+    def 'toHttpHeaders: should return a new copy each time'() {
+        setup:
+            def compact = CompactHeaders.of(headers)
+        when:
+            compact.toHttpHeaders().set('Age', '10')
+        then:
+            compact.toHttpHeaders().getFirst('Age') == null
+    }
+
+    def 'should not be affected by modifications of the source headers'() {
+        setup:
+            def compact = CompactHeaders.of(headers)
+        when:
+            headers.set('ETag', '"v2"')
+        then:
+            compact.getFirst('ETag') == '"v1"'
+    }
+
+    def 'getFirst: should find header case-insensitively'() {
+        expect:
+            CompactHeaders.of(headers).getFirst(name) == expected
+        where:
+            name           | expected
+            'content-type' | 'text/plain'
+            'SET-COOKIE'   | 'a=1'
+            'Server'       | null
+    }
+
+    def 'should share interned values of common headers'() {
+        setup:
+            def other = new HttpHeaders()
+            other.add('Content-Type', new String('text/plain'))
+            other.add('ETag', new String('"v1"'))
+        when:
+            def first = CompactHeaders.of(headers).toHttpHeaders()
+            def second = CompactHeaders.of(other).toHttpHeaders()
+        then:
+            first.getFirst('Content-Type').is(second.getFirst('Content-Type'))
+        and: 'values of other headers are not interned'
+            ! first.getFirst('ETag').is(second.getFirst('ETag'))
+    }
+
+    def 'should intern new values even after interning many distinct values'() {
+        setup:
+            10000.times {
+                def distinct = new HttpHeaders()
+                distinct.add('Content-Type', "multipart/form-data; boundary=${it}" as String)
+                CompactHeaders.of(distinct)
+            }
+        and:
+            def first = new HttpHeaders()
+            first.add('Content-Type', new String('application/x-fresh'))
+            def second = new HttpHeaders()
+            second.add('Content-Type', new String('application/x-fresh'))
+        expect:
+            CompactHeaders.of(first).getFirst('Content-Type').is(CompactHeaders.of(second).getFirst('Content-Type'))
+    }
+
+    def 'getSerializedSize: should return size of headers as in HTTP message'() {
+        expect:
+            CompactHeaders.of(headers).serializedSize == 'Content-Type: text/plain\r\nETag: "v1"\r\nSet-Cookie: a=1\r\nSet-Cookie: b=2\r\n'.length()
+    }
+
+    def 'should be serializable'() {
+        setup:
+            def compact = CompactHeaders.of(headers)
+            def bytes = new ByteArrayOutputStream()
+            new ObjectOutputStream(bytes).writeObject(compact)
+        when:
+            def read = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject()
+        then:
+            read == compact
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import spock.lang.Specification
+
+import static org.springframework.util.FileCopyUtils.copyToByteArray
+
+class CompressingBodyStorageTest extends Specification {
+
+    def delegate = new HeapBodyStorage()
+    def storage = new CompressingBodyStorage(delegate, 100, 0.8, 6)
+
+    def json = ('{"name": "allons-y", "value": 42},' * 100).bytes
+
+
+    def 'should compress body that is big enough and compressible'() {
+        when:
+            def body = storage.store(json)
+        then:
+            body instanceof DeflatedBody
+            body.size() == json.length
+            body.storedSize() < json.length * 0.8
+        and:
+            copyToByteArray(body.openStream()) == json
+            body.toByteArray() == json
+    }
+
+    def 'should not compress body smaller than minimal size'() {
+        setup:
+            def bytes = ('x' * 99).bytes
+        when:
+            def body = storage.store(bytes)
+        then:
+            body instanceof HeapBody
+            body.toByteArray() == bytes
+    }
+
+    def 'should not compress body when it does not save enough space'() {
+        setup:
+            def bytes = new byte[1000]
+            new Random(42).nextBytes(bytes)
+        when:
+            def body = storage.store(bytes)
+        then:
+            body instanceof HeapBody
+            body.storedSize() == 1000
+    }
+
+    def 'should store compressed body by the delegate storage'() {
+        setup:
+            def offHeap = new OffHeapBodyStorage(new SlabAllocator(4096, 256))
+            storage = new CompressingBodyStorage(offHeap)
+        when:
+            def body = storage.store(json)
+        then:
+            body.compressed instanceof OffHeapBody
+            body.toByteArray() == json
+        when:
+            body.release()
+        then:
+            ! body.retain()
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import spock.lang.Specification
+
+class DeduplicatingBodyStorageTest extends Specification {
+
+    def delegate = Mock(BodyStorage)
+    def storage = new DeduplicatingBodyStorage(delegate)
+
+
+    void setup() {
+        delegate.store(_) >> { byte[] bytes -> new HeapBody(bytes) }
+    }
+
+    def 'should share identical bodies'() {
+        when:
+            def first = storage.store('allons-y!'.bytes)
+            def second = storage.store('allons-y!'.bytes)
+        then:
+            first.is(second)
+            first.refCount() == 2
+            storage.uniqueBodiesCount == 1
+    }
+
+    def 'should store different bodies separately'() {
+        when:
+            def first = storage.store('allons-y!'.bytes)
+            def second = storage.store('geronimo!'.bytes)
+        then:
+            ! first.is(second)
+            first.toByteArray() == 'allons-y!'.bytes
+            second.toByteArray() == 'geronimo!'.bytes
+            storage.uniqueBodiesCount == 2
+    }
+
+    def 'should free body when the last reference is released'() {
+        setup:
+            def first = storage.store('allons-y!'.bytes)
+            storage.store('allons-y!'.bytes)
+        when:
+            first.release()
+        then:
+            storage.uniqueBodiesCount == 1
+        when:
+            first.release()
+        then:
+            storage.uniqueBodiesCount == 0
+            ! first.retain()
+    }
+
+    def 'should release delegate body when the last reference is released'() {
+        setup:
+            def delegateBody = Mock(CachedBody)
+            def delegateStorage = Mock(BodyStorage)
+            delegateStorage.store(_) >> delegateBody
+        and:
+            def body = new DeduplicatingBodyStorage(delegateStorage).store('allons-y!'.bytes)
+        when:
+            body.release()
+        then:
+            1 * delegateBody.release()
+    }
+
+    def 'should store body again after the previous one has been freed'() {
+        setup:
+            def first = storage.store('allons-y!'.bytes)
+            first.release()
+        when:
+            def second = storage.store('allons-y!'.bytes)
+        then:
+            ! second.is(first)
+            second.toByteArray() == 'allons-y!'.bytes
+    }
+
+    def 'should be serialized as the delegate body'() {
+        setup:
+            def body = storage.store('allons-y!'.bytes)
+            def output = new ByteArrayOutputStream()
+        when:
+            new ObjectOutputStream(output).writeObject(body)
+            def result = new ObjectInputStream(new ByteArrayInputStream(output.toByteArray())).readObject()
+        then:
+            result == new HeapBody('allons-y!'.bytes)
+    }
+}
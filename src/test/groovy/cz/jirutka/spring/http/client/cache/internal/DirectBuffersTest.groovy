@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE
+import static java.nio.file.StandardOpenOption.*
+
+class DirectBuffersTest extends Specification {
+
+    def 'unmap: should unmap direct buffer'() {
+        expect:
+            DirectBuffers.unmap(ByteBuffer.allocateDirect(64))
+    }
+
+    def 'unmap: should unmap mapped buffer'() {
+        setup:
+            def file = Files.createTempFile('direct-buffers', '.tmp')
+            def channel = FileChannel.open(file, READ, WRITE)
+        expect:
+            DirectBuffers.unmap(channel.map(READ_WRITE, 0, 64))
+        cleanup:
+            channel.close()
+            Files.delete(file)
+    }
+
+    def 'unmap: should ignore heap buffer'() {
+        expect:
+            ! DirectBuffers.unmap(ByteBuffer.allocate(64))
+    }
+}
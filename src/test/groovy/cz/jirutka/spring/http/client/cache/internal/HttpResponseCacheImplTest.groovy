@@ -16,6 +16,10 @@
 package cz.jirutka.spring.http.client.cache.internal
 
 import cz.jirutka.spring.http.client.cache.CacheKeyGenerator
+import cz.jirutka.spring.http.client.cache.HashedCacheKey
+import cz.jirutka.spring.http.client.cache.RemovalListener
+import cz.jirutka.spring.http.client.cache.SimpleCacheKeyGenerator
+import cz.jirutka.spring.http.client.cache.SynchronizedLruCache
 import cz.jirutka.spring.http.client.cache.ResponseExpirationResolver
 import cz.jirutka.spring.http.client.cache.internal.SizeLimitedHttpResponseReader.ResponseSizeLimitExceededException
 import cz.jirutka.spring.http.client.cache.test.AbbreviatedTimeCategory
@@ -26,6 +30,10 @@ import org.springframework.http.HttpHeaders
 import spock.lang.Specification
 import spock.util.mop.Use
 
+import java.util.concurrent.CountDownLatch
+
+import static cz.jirutka.spring.http.client.cache.RemovalListener.RemovalCause.*
+import static org.springframework.http.HttpStatus.NOT_MODIFIED
 import static org.springframework.http.HttpStatus.OK
 
 @Mixin(HttpHeadersHelper)
@@ -62,6 +70,35 @@ class HttpResponseCacheImplTest extends Specification {
             1 * cache.evict('super-key')
     }
 
+    def 'evict: should evict also variants of VaryEntry'() {
+        setup:
+            keyGenerator.createKey(request) >> 'super-key'
+            cache.get('super-key') >> new SimpleValueWrapper(new VaryEntry(['accept'], ['{accept=a}super-key', '{accept=b}super-key']))
+        when:
+            responseCache.evict(request)
+        then:
+            1 * cache.evict('{accept=a}super-key')
+            1 * cache.evict('{accept=b}super-key')
+            1 * cache.evict('super-key')
+    }
+
+    def 'onRemoval: should evict variants of VaryEntry evicted due to size'() {
+        setup:
+            def delegate = Mock(RemovalListener)
+            def varyEntry = new VaryEntry(['accept'], ['{accept=a}super-key'])
+            responseCache.delegateListener = delegate
+        when:
+            responseCache.onRemoval('super-key', varyEntry, cause)
+        then:
+            evictions * cache.evict('{accept=a}super-key')
+            1 * delegate.onRemoval('super-key', varyEntry, cause)
+        where:
+            cause      | evictions
+            SIZE       | 1
+            REPLACED   | 0
+            EXPLICIT   | 0
+    }
+
     def 'getCacheEntry: should get cached entry from cache when exists'() {
         setup:
             keyGenerator.createKey(request) >> 'super-key'
@@ -73,6 +110,18 @@ class HttpResponseCacheImplTest extends Specification {
             returned == cacheEntry
     }
 
+    def 'getCacheEntry: should return null when cached entry has been already released'() {
+        setup:
+            def body = new OffHeapBody(new SlabAllocator(), SOME_BODY)
+            def entry = new CacheEntry(OK, new HttpHeaders(), body, now, now)
+            entry.release()
+        and:
+            keyGenerator.createKey(request) >> 'super-key'
+            cache.get('super-key') >> new SimpleValueWrapper(entry)
+        expect:
+            responseCache.getCacheEntry(request) == null
+    }
+
     def 'getCacheEntry: should return null when unknown key'() {
         setup:
             keyGenerator.createKey(request) >> 'wrong-key'
@@ -84,13 +133,26 @@ class HttpResponseCacheImplTest extends Specification {
             returned == null
     }
 
+    def 'getCacheKey: should return variant key for entry with Vary'() {
+        setup:
+            def headers = new HttpHeaders()
+            headers.add('Vary', 'Accept')
+            def entry = new CacheEntry(new InMemoryClientHttpResponse(SOME_BODY, OK, headers), now, now)
+        and:
+            requestHeaders = [Accept: 'text/plain']
+            keyGenerator.createKey(request) >> 'super-key'
+        expect:
+            responseCache.getCacheKey(request, entry) == '{accept=text%2Fplain}super-key'
+            responseCache.getCacheKey(request, cacheEntry) == 'super-key'
+    }
+
     def 'cacheAndReturnResponse: should cache response'() {
         setup:
             def reqSent = now - 2.sec
             def respReceived = now
             def initDate = now - 1.min
             def expDate = now + 5.min
-            def fetchedResponse = cacheEntry.response
+            def fetchedResponse = new InMemoryClientHttpResponse(SOME_BODY, OK, new HttpHeaders())
         and:
             keyGenerator.createKey(request) >> 'cool-key'
         when:
@@ -106,6 +168,133 @@ class HttpResponseCacheImplTest extends Specification {
             returned == fetchedResponse
     }
 
+    def 'cacheAndReturnResponse: should store body using the body storage'() {
+        setup:
+            def bodyStorage = Mock(BodyStorage)
+            def storedBody = new HeapBody(SOME_BODY)
+            responseCache.bodyStorage = bodyStorage
+        and:
+            keyGenerator.createKey(request) >> 'cool-key'
+            responseReader.readResponse(response) >> new InMemoryClientHttpResponse(SOME_BODY, OK, new HttpHeaders())
+        when:
+            responseCache.cacheAndReturnResponse(request, response, now, now)
+        then:
+            1 * bodyStorage.store(SOME_BODY) >> storedBody
+            1 * cache.put('cool-key', { it.body.is(storedBody) })
+    }
+
+    def 'cacheAndReturnResponse: should cache response with Vary under variant key'() {
+        setup:
+            def headers = new HttpHeaders()
+            headers.add('Vary', 'Accept-Encoding, accept')
+            def fetchedResponse = new InMemoryClientHttpResponse(SOME_BODY, OK, headers)
+        and:
+            requestHeaders = [Accept: 'application/json,  text/plain', 'Accept-Encoding': 'gzip']
+            keyGenerator.createKey(request) >> 'cool-key'
+            responseReader.readResponse(response) >> fetchedResponse
+        when:
+            responseCache.cacheAndReturnResponse(request, response, now, now)
+        then:
+            1 * cache.put('cool-key', new VaryEntry(['accept', 'accept-encoding'],
+                    ['{accept=application%2Fjson%2Ctext%2Fplain&accept-encoding=gzip}cool-key']))
+            1 * cache.put('{accept=application%2Fjson%2Ctext%2Fplain&accept-encoding=gzip}cool-key', _ as CacheEntry)
+    }
+
+    def 'cacheAndReturnResponse: should add variant key to existing VaryEntry'() {
+        setup:
+            def headers = new HttpHeaders()
+            headers.add('Vary', 'Accept-Encoding')
+            requestHeaders = ['Accept-Encoding': 'gzip']
+            keyGenerator.createKey(request) >> 'cool-key'
+            responseReader.readResponse(response) >> new InMemoryClientHttpResponse(SOME_BODY, OK, headers)
+            cache.get('cool-key') >> new SimpleValueWrapper(new VaryEntry(['accept-encoding'], ['{accept-encoding=}cool-key']))
+        when:
+            responseCache.cacheAndReturnResponse(request, response, now, now)
+        then:
+            1 * cache.put('cool-key', new VaryEntry(['accept-encoding'],
+                    ['{accept-encoding=}cool-key', '{accept-encoding=gzip}cool-key']))
+            0 * cache.evict(_)
+    }
+
+    def 'cacheAndReturnResponse: should not lose variant keys when storing variants concurrently'() {
+        setup:
+            def store = new SynchronizedLruCache('test', 1000)
+            def responseCache = new HttpResponseCacheImpl(store, true, 1024)
+            def headers = new HttpHeaders()
+            headers.add('Vary', 'Accept')
+            def start = new CountDownLatch(1)
+        when:
+            def threads = (1..8).collect { thread ->
+                Thread.start {
+                    start.await()
+                    (1..8).each {
+                        def variantRequest = buildRequest(Accept: "text/v${thread}-${it}")
+                        responseCache.cacheAndReturnResponse(variantRequest,
+                                new InMemoryClientHttpResponse(SOME_BODY, OK, headers), now, now)
+                    }
+                }
+            }
+            start.countDown()
+            threads*.join()
+        then:
+            store.get(new SimpleCacheKeyGenerator().createKey(request)).get().variantKeys.size() == 8 * 8
+        when:
+            responseCache.evict(request)
+        then:
+            store.nativeCache.isEmpty()
+    }
+
+    def 'cacheAndReturnResponse: should evict variants of VaryEntry with other headers'() {
+        setup:
+            keyGenerator.createKey(request) >> 'cool-key'
+            responseReader.readResponse(response) >> new InMemoryClientHttpResponse(SOME_BODY, OK, new HttpHeaders())
+            cache.get('cool-key') >> new SimpleValueWrapper(new VaryEntry(['accept'], ['{accept=}cool-key']))
+        when:
+            responseCache.cacheAndReturnResponse(request, response, now, now)
+        then:
+            1 * cache.evict('{accept=}cool-key')
+            1 * cache.put('cool-key', _ as CacheEntry)
+    }
+
+    def 'getCacheEntry: should get cached variant matching request headers'() {
+        setup:
+            requestHeaders = ['Accept-Encoding': ' gzip ']
+            keyGenerator.createKey(request) >> 'super-key'
+        when:
+            def returned = responseCache.getCacheEntry(request)
+        then:
+            1 * cache.get('super-key') >> new SimpleValueWrapper(new VaryEntry(['accept-encoding']))
+            1 * cache.get('{accept-encoding=gzip}super-key') >> new SimpleValueWrapper(cacheEntry)
+        and:
+            returned == cacheEntry
+    }
+
+    def 'getCacheEntry: should get cached variant under VariantKey for non-string key'() {
+        setup:
+            def key = HashedCacheKey.of('GET', 'http://example.org', false)
+            requestHeaders = ['Accept-Encoding': 'gzip']
+            keyGenerator.createKey(request) >> key
+        when:
+            def returned = responseCache.getCacheEntry(request)
+        then:
+            1 * cache.get(key) >> new SimpleValueWrapper(new VaryEntry(['accept-encoding']))
+            1 * cache.get(new VariantKey(key, '{accept-encoding=gzip}')) >> new SimpleValueWrapper(cacheEntry)
+        and:
+            returned == cacheEntry
+    }
+
+    def 'getCacheEntry: should return null when no variant matches request headers'() {
+        setup:
+            keyGenerator.createKey(request) >> 'super-key'
+        when:
+            def returned = responseCache.getCacheEntry(request)
+        then:
+            1 * cache.get('super-key') >> new SimpleValueWrapper(new VaryEntry(['accept-encoding']))
+            1 * cache.get('{accept-encoding=}super-key') >> null
+        and:
+            returned == null
+    }
+
     def 'cacheAndReturnResponse: should NOT cache response when size limit exceeds'() {
         setup:
             def rejectedResponse = new CombinedClientHttpResponse(response, new ByteArrayInputStream('too-big'.bytes))
@@ -116,5 +305,87 @@ class HttpResponseCacheImplTest extends Specification {
             def returned = responseCache.cacheAndReturnResponse(request, response, now, now)
         then:
             returned == rejectedResponse
+            responseCache.statsCounter.oversizeCount == 1
+    }
+
+    def 'cacheAndReturnResponse: should return response immediately and cache it when read in streaming mode'() {
+        setup:
+            responseCache.streaming = true
+            keyGenerator.createKey(request) >> 'cool-key'
+            expirationResolver.resolveInitialDate(_, _, _) >> now
+            expirationResolver.resolveExpirationDate(_, _) >> now
+        when:
+            def returned = responseCache.cacheAndReturnResponse(request, response, now, now)
+        then:
+            0 * responseReader._
+            0 * cache._
+        when:
+            def body = returned.body.bytes
+        then:
+            body == SOME_BODY
+            1 * cache.put('cool-key', { it.response.body.bytes == SOME_BODY })
+    }
+
+    def 'cacheAndReturnResponse: should not cache response closed before reading in streaming mode'() {
+        setup:
+            responseCache.streaming = true
+            keyGenerator.createKey(request) >> 'cool-key'
+        when:
+            def returned = responseCache.cacheAndReturnResponse(request, response, now, now)
+            returned.body.read(new byte[4])
+            returned.close()
+        then:
+            0 * cache._
+    }
+
+    def 'updateCacheEntry: should merge headers, keep the body and resolve new dates'() {
+        setup:
+            def cachedHeaders = new HttpHeaders()
+            cachedHeaders.setETag('"v1"')
+            cachedHeaders.setCacheControl('max-age=60')
+            cachedHeaders.setContentLength(SOME_BODY.length)
+            def staleEntry = new CacheEntry(new InMemoryClientHttpResponse(SOME_BODY, OK, cachedHeaders), now -2.min, now -1.min)
+            def notModified = buildResponse(status: NOT_MODIFIED.value(), body: '',
+                                            'Cache-Control': 'max-age=120', 'Content-Length': 0)
+            def initDate = now
+            def expDate = now + 2.min
+        and:
+            keyGenerator.createKey(request) >> 'cool-key'
+        when:
+            def returned = responseCache.updateCacheEntry(request, staleEntry, notModified, now, now)
+        then:
+            1 * expirationResolver.resolveInitialDate(_, _, _) >> initDate
+            1 * expirationResolver.resolveExpirationDate(_, initDate) >> expDate
+            1 * cache.put('cool-key', _ as CacheEntry)
+        and:
+            with (returned.response) {
+                body.bytes == SOME_BODY
+                headers.getFirst('ETag') == '"v1"'
+                headers.getCacheControl() == 'max-age=120'
+                headers.getContentLength() == SOME_BODY.length
+            }
+            returned.responseCreated == initDate
+            returned.responseExpiration == expDate
+        and: 'the stale entry is not modified'
+            staleEntry.response.headers.getCacheControl() == 'max-age=60'
+    }
+
+    def 'updateCacheEntry: should retain the shared body for the updated entry'() {
+        setup:
+            def body = new OffHeapBody(new SlabAllocator(), SOME_BODY)
+            def staleEntry = new CacheEntry(OK, new HttpHeaders(), body, now -2.min, now -1.min)
+            def notModified = buildResponse(status: NOT_MODIFIED.value(), body: '')
+        and:
+            keyGenerator.createKey(request) >> 'cool-key'
+            expirationResolver.resolveInitialDate(_, _, _) >> now
+            expirationResolver.resolveExpirationDate(_, _) >> now
+        when:
+            def returned = responseCache.updateCacheEntry(request, staleEntry, notModified, now, now)
+        then:
+            body.refCount() == 2
+        when: 'the stale entry is released'
+            staleEntry.release()
+        then: 'the body is still readable through the updated entry'
+            returned.response.body.bytes == SOME_BODY
     }
 }
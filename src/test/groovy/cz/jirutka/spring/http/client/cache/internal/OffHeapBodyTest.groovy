@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import spock.lang.Specification
+
+import static org.springframework.util.FileCopyUtils.copyToByteArray
+
+class OffHeapBodyTest extends Specification {
+
+    def realAllocator = new SlabAllocator(4096, 256)
+    def allocator = Mock(SlabAllocator)
+    def bytes = 'allons-y!'.bytes
+
+
+    void setup() {
+        allocator.allocate(_) >> { int size -> realAllocator.allocate(size) }
+    }
+
+    def 'should store bytes outside of the heap'() {
+        when:
+            def body = new OffHeapBody(allocator, bytes)
+        then:
+            1 * allocator.allocate(bytes.length) >> { int size -> realAllocator.allocate(size) }
+        and:
+            body.size() == bytes.length
+            body.toByteArray() == bytes
+            copyToByteArray(body.openStream()) == bytes
+    }
+
+    def 'should provide independent streams'() {
+        setup:
+            def body = new OffHeapBody(allocator, bytes)
+            def first = body.openStream()
+        when:
+            first.read(new byte[4])
+        then:
+            copyToByteArray(body.openStream()) == bytes
+            first.available() == bytes.length - 4
+    }
+
+    def 'should return chunk to allocator when the last reference is released'() {
+        setup:
+            def body = new OffHeapBody(allocator, bytes)
+            assert body.retain()
+        when:
+            body.release()
+        then:
+            0 * allocator.release(_)
+        when:
+            body.release()
+        then:
+            1 * allocator.release(_)
+        and:
+            ! body.retain()
+    }
+
+    def 'should fail when released more times than retained'() {
+        setup:
+            def body = new OffHeapBody(allocator, bytes)
+            body.release()
+        when:
+            body.release()
+        then:
+            thrown IllegalStateException
+    }
+
+    def 'should be serialized as heap body'() {
+        setup:
+            def body = new OffHeapBody(allocator, bytes)
+            def output = new ByteArrayOutputStream()
+        when:
+            new ObjectOutputStream(output).writeObject(body)
+            def result = new ObjectInputStream(new ByteArrayInputStream(output.toByteArray())).readObject()
+        then:
+            result == new HeapBody(bytes)
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import cz.jirutka.spring.http.client.cache.CachingPolicy
+import cz.jirutka.spring.http.client.cache.test.HttpHeadersHelper
+import org.springframework.http.HttpHeaders
+import spock.lang.Specification
+
+import static org.springframework.http.HttpStatus.OK
+
+@Mixin(HttpHeadersHelper)
+class PartitionedHttpResponseCacheTest extends Specification {
+
+    def imagesCache = Mock(HttpResponseCache)
+    def apiCache = Mock(HttpResponseCache)
+    def defaultCache = Mock(HttpResponseCache)
+
+    def imagesPolicy = Mock(CachingPolicy)
+    def defaultPolicy = Mock(CachingPolicy)
+
+    def images = new CachePartition('images', 'img.example.org', null, imagesCache, imagesPolicy, new StatsCounter())
+    def api = new CachePartition('api', null, '.*/api/.*', apiCache, defaultPolicy, new StatsCounter())
+    def defaults = new CachePartition('default', null, null, defaultCache, defaultPolicy, new StatsCounter())
+
+    def partitionedCache = new PartitionedHttpResponseCache([images, api], defaults)
+
+    def imageRequest = buildRequest(uri: 'http://img.example.org/api/a.png')
+    def otherRequest = buildRequest(uri: 'http://example.org/index.html')
+
+
+    def 'getPartition: should return the first matching partition'() {
+        expect:
+            partitionedCache.getPartition(imageRequest) == images
+            partitionedCache.getPartition(buildRequest(uri: 'http://example.org/api/users')) == api
+    }
+
+    def 'getPartition: should return the default partition when none matches'() {
+        expect:
+            partitionedCache.getPartition(otherRequest) == defaults
+    }
+
+    def 'getPartitions: should return all partitions with the default one last'() {
+        expect:
+            partitionedCache.partitions == [images, api, defaults]
+    }
+
+    def 'getCacheEntry: should delegate to the cache of the matching partition'() {
+        setup:
+            def entry = new CacheEntry(new InMemoryClientHttpResponse(SOME_BODY, OK, new HttpHeaders()), now, now)
+        when:
+            def returned = partitionedCache.getCacheEntry(imageRequest)
+        then:
+            1 * imagesCache.getCacheEntry(imageRequest) >> entry
+            0 * defaultCache._
+        and:
+            returned == entry
+    }
+
+    def 'cacheAndReturnResponse: should delegate to the cache of the default partition'() {
+        when:
+            partitionedCache.cacheAndReturnResponse(otherRequest, response, now, now)
+        then:
+            1 * defaultCache.cacheAndReturnResponse(otherRequest, response, now, now) >> response
+            0 * imagesCache._
+    }
+
+    def 'evict: should evict only from the matching partition'() {
+        when:
+            partitionedCache.evict(imageRequest)
+        then:
+            1 * imagesCache.evict(imageRequest)
+            0 * apiCache._
+            0 * defaultCache._
+    }
+
+    def 'clear: should clear all partitions'() {
+        when:
+            partitionedCache.clear()
+        then:
+            1 * imagesCache.clear()
+            1 * apiCache.clear()
+            1 * defaultCache.clear()
+    }
+
+    def 'PartitionedCachingPolicy: should delegate to the policy of the matching partition'() {
+        setup:
+            def policy = new PartitionedCachingPolicy(partitionedCache)
+        when:
+            def imageServable = policy.isServableFromCache(imageRequest)
+            def otherCacheable = policy.isResponseCacheable(otherRequest, response)
+        then:
+            1 * imagesPolicy.isServableFromCache(imageRequest) >> true
+            1 * defaultPolicy.isResponseCacheable(otherRequest, response) >> false
+        and:
+            imageServable
+            !otherCacheable
+    }
+}
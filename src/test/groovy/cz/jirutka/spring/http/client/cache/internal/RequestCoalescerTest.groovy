@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import cz.jirutka.spring.http.client.cache.test.HttpHeadersHelper
+import spock.lang.Specification
+
+@Mixin(HttpHeadersHelper)
+class RequestCoalescerTest extends Specification {
+
+    def coalescer = new RequestCoalescer(5000)
+
+
+    def 'join: first request should become the leader'() {
+        when:
+            def flight = coalescer.join(request)
+        then:
+            flight.leader
+    }
+
+    def 'join: concurrent request for the same resource should not become the leader'() {
+        setup:
+            coalescer.join(request)
+        expect:
+            ! coalescer.join(buildRequest()).leader
+    }
+
+    def 'join: concurrent request for another resource should become the leader'() {
+        setup:
+            coalescer.join(request)
+        expect:
+            coalescer.join(buildRequest(uri: 'http://example.org/other')).leader
+    }
+
+    def 'join: request after the completed flight should become the leader'() {
+        setup:
+            coalescer.join(request).complete()
+        expect:
+            coalescer.join(request).leader
+    }
+
+    def 'await: should return true when leader completes the flight'() {
+        setup:
+            def leader = coalescer.join(request)
+            def follower = coalescer.join(request)
+        when:
+            Thread.start { sleep 50; leader.complete() }
+        then:
+            follower.await()
+    }
+
+    def 'await: should return false when timeout elapses'() {
+        setup:
+            def coalescer = new RequestCoalescer(10)
+            coalescer.join(request)
+        expect:
+            ! coalescer.join(request).await()
+    }
+
+    def 'complete: should be allowed for the leader only'() {
+        setup:
+            coalescer.join(request)
+        when:
+            coalescer.join(request).complete()
+        then:
+            thrown IllegalStateException
+    }
+}
@@ -16,6 +16,7 @@
 package cz.jirutka.spring.http.client.cache.internal
 
 import cz.jirutka.spring.http.client.cache.internal.SizeLimitedHttpResponseReader.ResponseSizeLimitExceededException
+import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpStatus
 import org.springframework.http.client.ClientHttpResponse
 import spock.lang.Specification
@@ -74,7 +75,7 @@ class SizeLimitedHttpResponseReaderTest extends Specification {
         then:
             def ex = thrown(ResponseSizeLimitExceededException)
             ex.response instanceof CombinedClientHttpResponse
-        and: 'body stream was read until the limit rounded by buffer size'
+        and: 'body stream was read until the limit'
             bodyStream.available() == overlap
         and: 'original response was not closed'
             0 * response.close()
@@ -89,10 +90,65 @@ class SizeLimitedHttpResponseReaderTest extends Specification {
         where:
             bodyLength | limit | overlap
             280        | 256   | 24
-            280        | 130   | 24
-            170        | 160   | 0
+            280        | 130   | 150
+            170        | 160   | 10
     }
 
+    def 'read response with Content-Length into array of exact size'() {
+        setup:
+            def expectedBody = generateBodyOfLength(bodyLength)
+            def bodyStream = new ByteArrayInputStream(expectedBody)
+            def reader = new SizeLimitedHttpResponseReader(2048, bufferSize)
+        and:
+            response.body >> bodyStream
+            response.headers >> headersWithContentLength(contentLength)
+        when:
+            def readResponse = reader.readResponse(response)
+        then:
+            readResponse.bodyAsByteArray == expectedBody
+            bodyStream.available() == 0
+        where:
+            bodyLength | contentLength | description
+            300        | 300           | 'exact'
+            300        | 200           | 'more bytes than declared'
+            200        | 300           | 'less bytes than declared'
+            10         | 0             | 'declared as empty'
+    }
+
+    def 'throw exception without reading body when Content-Length exceeds size limit'() {
+        setup:
+            def bodyStream = new ByteArrayInputStream(generateBodyOfLength(300))
+            def reader = new SizeLimitedHttpResponseReader(256, bufferSize)
+        and:
+            response.body >> bodyStream
+            response.headers >> headersWithContentLength(300)
+        when:
+            reader.readResponse(response)
+        then:
+            def ex = thrown(ResponseSizeLimitExceededException)
+            bodyStream.available() == 300
+        and:
+            copyToByteArray(ex.response.body).length == 300
+    }
+
+    def 'read response without Content-Length larger than buffer'() {
+        setup:
+            def expectedBody = generateBodyOfLength(1000)
+            def reader = new SizeLimitedHttpResponseReader(2048, bufferSize)
+        and:
+            response.body >> new ByteArrayInputStream(expectedBody)
+        when:
+            def readResponse = reader.readResponse(response)
+        then:
+            readResponse.bodyAsByteArray == expectedBody
+    }
+
+
+    def headersWithContentLength(long length) {
+        def headers = new HttpHeaders()
+        headers.setContentLength(length)
+        headers
+    }
 
     def generateBodyOfLength(int length) {
         ('x' * length).bytes
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import spock.lang.Specification
+
+class SlabAllocatorTest extends Specification {
+
+    def allocator = new SlabAllocator(4096, 256)
+
+
+    def 'construct with illegal sizes'() {
+        when:
+            new SlabAllocator(slabSize, minChunkSize)
+        then:
+            thrown IllegalArgumentException
+        where:
+            slabSize | minChunkSize
+            1000     | 256
+            4096     | 100
+            256      | 4096
+    }
+
+    def 'allocate: should return direct chunk of the nearest size class'() {
+        when:
+            def chunk = allocator.allocate(size)
+        then:
+            chunk.direct
+            chunk.position() == 0
+            chunk.limit() == size
+            chunk.capacity() == expectedCapacity
+        where:
+            size | expectedCapacity
+            0    | 256
+            1    | 256
+            256  | 256
+            257  | 512
+            3000 | 4096
+    }
+
+    def 'allocate: should divide slab into chunks of the same size class'() {
+        when:
+            def chunks = (1..16).collect { allocator.allocate(200) }
+        then:
+            allocator.reservedBytes == 4096
+        when:
+            allocator.allocate(200)
+        then:
+            allocator.reservedBytes == 2 * 4096
+    }
+
+    def 'allocate: should reuse released chunk'() {
+        setup:
+            def chunk = allocator.allocate(300)
+            chunk.put(1 as byte)
+        when:
+            allocator.release(chunk)
+            def reused = allocator.allocate(500)
+        then:
+            reused.is(chunk)
+            reused.position() == 0
+            reused.limit() == 500
+    }
+
+    def 'release: should free slab when all its chunks are released, except the last one'() {
+        setup:
+            def chunks = (1..40).collect { allocator.allocate(200) }
+        expect:
+            allocator.reservedBytes == 3 * 4096
+        when:
+            chunks.each { allocator.release(it) }
+        then:
+            allocator.reservedBytes == 4096
+    }
+
+    def 'allocate: should not pool buffer bigger than slab'() {
+        when:
+            def buffer = allocator.allocate(5000)
+            allocator.release(buffer)
+        then:
+            buffer.capacity() == 5000
+            allocator.reservedBytes == 0
+        and:
+            ! allocator.allocate(5000).is(buffer)
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import cz.jirutka.spring.http.client.cache.RemovalListener
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+import static cz.jirutka.spring.http.client.cache.RemovalListener.RemovalCause.EXPLICIT
+import static cz.jirutka.spring.http.client.cache.RemovalListener.RemovalCause.SIZE
+
+class StatsCounterTest extends Specification {
+
+    def stats = new StatsCounter()
+
+
+    def 'should record hits, stale hits and misses'() {
+        when:
+            stats.recordHit(100)
+            stats.recordHit(50)
+            stats.recordStaleHit(10)
+            stats.recordMiss()
+        then:
+            stats.hitCount == 2
+            stats.staleHitCount == 1
+            stats.missCount == 1
+            stats.bytesFromCache == 160
+            stats.hitRatio == 0.75
+    }
+
+    def 'getHitRatio: should return NaN when there are no servable requests'() {
+        when:
+            stats.recordNotServable()
+        then:
+            stats.hitRatio.naN
+    }
+
+    def 'recordBytesFromOrigin: should ignore unknown size'() {
+        when:
+            stats.recordBytesFromOrigin(-1)
+            stats.recordBytesFromOrigin(42)
+        then:
+            stats.bytesFromOrigin == 42
+    }
+
+    def 'recordFetch: should put latency into the matching bucket'() {
+        setup:
+            def bounds = stats.fetchLatencyBucketBounds
+        when:
+            [0, 3, 3, 20_000].each { stats.recordFetch(TimeUnit.MILLISECONDS.toNanos(it)) }
+        then:
+            def counts = stats.fetchLatencyBucketCounts
+            counts.length == bounds.length + 1
+            counts[0] == 1
+            counts[bounds.findIndexOf { it == 5 }] == 2
+            counts[-1] == 1
+        and:
+            stats.fetchCount == 4
+            stats.fetchLatencyMeanMillis == 20_006 / 4
+    }
+
+    def 'onRemoval: should count only evictions due to size and notify the delegate'() {
+        setup:
+            def delegate = Mock(RemovalListener)
+            stats.delegateListener = delegate
+        when:
+            stats.onRemoval('a', 'A', SIZE)
+            stats.onRemoval('b', 'B', EXPLICIT)
+        then:
+            stats.evictionCount == 1
+            1 * delegate.onRemoval('a', 'A', SIZE)
+            1 * delegate.onRemoval('b', 'B', EXPLICIT)
+    }
+
+    def 'should record into the parent as well'() {
+        setup:
+            def child = new StatsCounter(stats)
+            def sibling = new StatsCounter(stats)
+        when:
+            child.recordHit(10)
+            sibling.recordMiss()
+            child.onRemoval('a', 'A', SIZE)
+        then:
+            child.hitCount == 1
+            child.missCount == 0
+            child.evictionCount == 1
+        and:
+            stats.hitCount == 1
+            stats.missCount == 1
+            stats.evictionCount == 1
+    }
+
+    def 'snapshot: should not change when recording further'() {
+        setup:
+            stats.recordHit(10)
+        when:
+            def snapshot = stats.snapshot()
+            stats.recordHit(10)
+        then:
+            snapshot.hitCount == 1
+            stats.hitCount == 2
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import spock.lang.Specification
+
+class StripedCounterTest extends Specification {
+
+    def counter = new StripedCounter()
+
+
+    def 'sum: should be zero initially'() {
+        expect:
+            counter.sum() == 0
+    }
+
+    def 'sum: should return sum of all increments and additions'() {
+        when:
+            counter.increment()
+            counter.add(41)
+        then:
+            counter.sum() == 42
+    }
+
+    def 'sum: should not lose concurrent updates'() {
+        setup:
+            def threads = (1..8).collect {
+                Thread.start { 10000.times { counter.increment() } }
+            }
+        when:
+            threads*.join()
+        then:
+            counter.sum() == 80000
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import spock.lang.Specification
+
+class TeeInputStreamTest extends Specification {
+
+    static final BODY = 'allons-y!'.bytes
+
+    def source = new ByteArrayInputStream(BODY)
+    def callback = Mock(TeeInputStream.Callback)
+
+
+    def 'should pass all bytes and complete when read to the end'() {
+        setup:
+            def tee = new TeeInputStream(source, 1024, -1, callback)
+        when:
+            def read = tee.bytes
+        then:
+            read == BODY
+            1 * callback.completed(BODY)
+            0 * callback.discarded(_)
+    }
+
+    def 'should complete only once'() {
+        setup:
+            def tee = new TeeInputStream(source, 1024, -1, callback)
+        when:
+            tee.bytes
+            tee.read()
+            tee.close()
+        then:
+            1 * callback.completed(_)
+            0 * callback.discarded(_)
+    }
+
+    def 'should copy bytes read one by one'() {
+        setup:
+            def tee = new TeeInputStream(source, 1024, -1, callback)
+        when:
+            while (tee.read() != -1) {}
+        then:
+            1 * callback.completed(BODY)
+    }
+
+    def 'should complete on close when the expected length has been read'() {
+        setup:
+            def tee = new TeeInputStream(source, 1024, BODY.length, callback)
+        when:
+            tee.read(new byte[BODY.length])
+            tee.close()
+        then:
+            1 * callback.completed(BODY)
+    }
+
+    def 'should discard when closed before reaching the end'() {
+        setup:
+            def tee = new TeeInputStream(source, 1024, -1, callback)
+        when:
+            tee.read(new byte[4])
+            tee.close()
+        then:
+            1 * callback.discarded(false)
+            0 * callback.completed(_)
+    }
+
+    def 'should discard, but pass all bytes, when the limit is exceeded'() {
+        setup:
+            def tee = new TeeInputStream(source, 5, -1, callback)
+        when:
+            def read = tee.bytes
+        then:
+            read == BODY
+            1 * callback.discarded(true)
+            0 * callback.completed(_)
+    }
+
+    def 'should discard immediately when the expected length exceeds the limit'() {
+        when:
+            new TeeInputStream(source, 5, BODY.length, callback)
+        then:
+            1 * callback.discarded(true)
+    }
+
+    def 'should discard when skipped'() {
+        setup:
+            def tee = new TeeInputStream(source, 1024, -1, callback)
+        when:
+            tee.skip(2)
+            tee.bytes
+        then:
+            1 * callback.discarded(false)
+            0 * callback.completed(_)
+    }
+
+    def 'onDone: should run the listener after the callback when completed'() {
+        setup:
+            def tee = new TeeInputStream(source, 1024, -1, callback)
+            def listener = Mock(Runnable)
+            tee.onDone(listener)
+        when:
+            tee.bytes
+        then:
+            1 * callback.completed(BODY)
+        then:
+            1 * listener.run()
+    }
+
+    def 'onDone: should run the listener when discarded'() {
+        setup:
+            def tee = new TeeInputStream(source, 1024, -1, callback)
+            def listener = Mock(Runnable)
+            tee.onDone(listener)
+        when:
+            tee.close()
+        then:
+            1 * listener.run()
+    }
+
+    def 'onDone: should run the listener immediately when already done'() {
+        setup:
+            def tee = new TeeInputStream(source, 5, BODY.length, callback)
+            def listener = Mock(Runnable)
+        when:
+            tee.onDone(listener)
+        then:
+            1 * listener.run()
+    }
+}
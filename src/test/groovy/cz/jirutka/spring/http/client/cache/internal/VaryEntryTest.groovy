@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cz.jirutka.spring.http.client.cache.internal
+
+import org.springframework.http.HttpHeaders
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class VaryEntryTest extends Specification {
+
+    @Unroll
+    def 'parse Vary header: #values'() {
+        setup:
+            def headers = new HttpHeaders()
+            values.each { headers.add('Vary', it) }
+        expect:
+            VaryEntry.parseVaryHeader(headers) as List == expected
+        where:
+            values                                  | expected
+            []                                      | []
+            ['Accept']                              | ['accept']
+            ['Accept-Encoding,Accept , ']           | ['accept', 'accept-encoding']
+            ['Accept-Language', 'accept-encoding']  | ['accept-encoding', 'accept-language']
+            ['*']                                   | ['*']
+    }
+
+    def 'construct with empty header names'() {
+        when:
+            new VaryEntry([])
+        then:
+            thrown IllegalArgumentException
+    }
+
+    def 'withVariantKey: should add key as the most recent one'() {
+        setup:
+            def entry = new VaryEntry(['accept'], ['a', 'b'])
+        when:
+            def updated = entry.withVariantKey('a')
+        then:
+            updated.variantKeys as List == ['b', 'a']
+            updated.headerNames == ['accept']
+        and: 'the original entry is not modified'
+            entry.variantKeys as List == ['a', 'b']
+    }
+
+    def 'withVariantKey: should drop the least recent keys when exceeded the limit'() {
+        setup:
+            def entry = new VaryEntry(['accept'], (1..VaryEntry.MAX_VARIANT_KEYS).collect { "k${it}" as String })
+        when:
+            def updated = entry.withVariantKey('new')
+        then:
+            updated.variantKeys.size() == VaryEntry.MAX_VARIANT_KEYS
+            ! updated.variantKeys.contains('k1')
+            updated.variantKeys.contains('new')
+    }
+}